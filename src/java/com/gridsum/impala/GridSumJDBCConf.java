@@ -61,6 +61,79 @@ public class GridSumJDBCConf {
      */
     private static int backupTimeOut = -1;
 
+    /**
+     * selector threads shared by all connections with transportMode=nio
+     */
+    private static int nioEventLoops = 2;
+
+    /**
+     * interval of the background reachability probes of the coordinators in use,
+     * unit ms, 0 disables them
+     */
+    private static long healthProbeInterval = 5000;
+    /**
+     * connect timeout of one probe, unit ms
+     */
+    private static int healthProbeTimeout = 1000;
+
+    /**
+     * HTTP client of the memory predict service and the query profile lookups,
+     * timeouts unit ms
+     */
+    private static int httpConnectTimeout = 5000;
+    private static int httpSocketTimeout = 5000;
+    private static int httpMaxTotal = 50;
+    private static int httpMaxPerRoute = 10;
+    /**
+     * kept alive connections idle longer are closed, unit ms
+     */
+    private static long httpIdleTimeout = 30000;
+
+    /**
+     * memory predictions cached by sql fingerprint, 0 disables the cache
+     */
+    private static int predictCacheSize = 1000;
+    /**
+     * unit second
+     */
+    private static long predictCacheTtl = 600;
+    /**
+     * time a query waits for its memory prediction, unit ms
+     */
+    private static long predictTimeout = 1000;
+    /**
+     * MEM_LIMIT of a query whose prediction failed or came too late and whose
+     * connection sets no MEM_LIMIT, null sets none
+     */
+    private static String predictFallbackMemLimit;
+    /**
+     * predictions running at the same time
+     */
+    private static int predictThreads = 16;
+    /**
+     * batch prediction API of the memory predict service, null predicts the queries of a
+     * batch one by one, in parallel
+     */
+    private static String impalaPredictBatchURL;
+    /**
+     * queries predicted by one batch request
+     */
+    private static int predictBatchSize = 50;
+
+    /**
+     * circuit breakers of the memory predict service and the Cloudera Manager API
+     */
+    private static int circuitBreakerWindow = 20;
+    private static int circuitBreakerMinimumCalls = 5;
+    /**
+     * unit percent
+     */
+    private static int circuitBreakerFailureRate = 50;
+    /**
+     * unit ms
+     */
+    private static long circuitBreakerOpenTime = 30000;
+
 
     static {
         try {
@@ -74,6 +147,13 @@ public class GridSumJDBCConf {
         load(fileName);
     }
 
+    /**
+     * Reload from properties built in code, e.g. pointing at a service started at runtime
+     */
+    public static void reLoadProperties(Properties properties) {
+        loadProperties(properties);
+    }
+
     private static void load(String fileName) throws IOException {
         InputStream stream = null;
         InputStreamReader streamReader = null;
@@ -89,22 +169,7 @@ public class GridSumJDBCConf {
             streamReader = new InputStreamReader(stream, "UTF-8");
             Properties properties = new Properties();
             properties.load(streamReader);
-            impalaPredictURL = properties.getProperty("impala.predict.url");
-            impalaRetryMaxCount = Integer.parseInt(properties.getProperty("impala.retry.max.count"));
-            impalaRetryMemoryMultiple = Integer.parseInt(properties.getProperty("impala.retry.memory.multiple"));
-            impalaRetryMaxMemory = properties.getProperty("impala.retry.max.memory");
-            String[] exceptions = properties.getProperty("impala.oom.exception").split(",");
-            for (String s : exceptions) {
-                impalaOOMException.add(s);
-            }
-            impalaQueryProfile = properties.getProperty("impala.query.profile");
-            predictMemPool = properties.getProperty("connection.default.impala.predict.pool");
-            impalaQueryPort = properties.getProperty("connection.default.cm.query.port");
-            cmApiUsername = properties.getProperty("connection.default.cm.username");
-            cmApiPassword = properties.getProperty("connection.default.cm.password");
-            cmApiClusterName = properties.getProperty("connection.default.cm.cluster.name");
-            cmApiImpalaServiceName = properties.getProperty("connection.default.cm.impala.service.name");
-            backupTimeOut = Integer.parseInt(properties.getProperty("backup.timeout"));
+            loadProperties(properties);
         } finally {
             if (streamReader != null) {
                 try {
@@ -123,6 +188,50 @@ public class GridSumJDBCConf {
         }
     }
 
+    private static void loadProperties(Properties properties) {
+        impalaPredictURL = properties.getProperty("impala.predict.url");
+        impalaRetryMaxCount = Integer.parseInt(properties.getProperty("impala.retry.max.count"));
+        impalaRetryMemoryMultiple = Integer.parseInt(properties.getProperty("impala.retry.memory.multiple"));
+        impalaRetryMaxMemory = properties.getProperty("impala.retry.max.memory");
+        String[] exceptions = properties.getProperty("impala.oom.exception").split(",");
+        for (String s : exceptions) {
+            impalaOOMException.add(s);
+        }
+        impalaQueryProfile = properties.getProperty("impala.query.profile");
+        predictMemPool = properties.getProperty("connection.default.impala.predict.pool");
+        impalaQueryPort = properties.getProperty("connection.default.cm.query.port");
+        cmApiUsername = properties.getProperty("connection.default.cm.username");
+        cmApiPassword = properties.getProperty("connection.default.cm.password");
+        cmApiClusterName = properties.getProperty("connection.default.cm.cluster.name");
+        cmApiImpalaServiceName = properties.getProperty("connection.default.cm.impala.service.name");
+        backupTimeOut = Integer.parseInt(properties.getProperty("backup.timeout"));
+        nioEventLoops = Integer.parseInt(properties.getProperty("nio.event.loops", "2"));
+        healthProbeInterval = Long.parseLong(properties.getProperty("health.probe.interval", "5000"));
+        healthProbeTimeout = Integer.parseInt(properties.getProperty("health.probe.timeout", "1000"));
+        httpConnectTimeout = Integer.parseInt(properties.getProperty("http.connect.timeout", "5000"));
+        httpSocketTimeout = Integer.parseInt(properties.getProperty("http.socket.timeout", "5000"));
+        httpMaxTotal = Integer.parseInt(properties.getProperty("http.pool.max.total", "50"));
+        httpMaxPerRoute = Integer.parseInt(properties.getProperty("http.pool.max.per.route", "10"));
+        httpIdleTimeout = Long.parseLong(properties.getProperty("http.pool.idle.timeout", "30000"));
+        predictCacheSize = Integer.parseInt(properties.getProperty("impala.predict.cache.size", "1000"));
+        predictCacheTtl = Long.parseLong(properties.getProperty("impala.predict.cache.ttl", "600"));
+        predictTimeout = Long.parseLong(properties.getProperty("impala.predict.timeout", "1000"));
+        predictFallbackMemLimit = properties.getProperty("impala.predict.fallback.mem_limit", "").trim();
+        if (predictFallbackMemLimit.isEmpty()) {
+            predictFallbackMemLimit = null;
+        }
+        predictThreads = Integer.parseInt(properties.getProperty("impala.predict.threads", "16"));
+        impalaPredictBatchURL = properties.getProperty("impala.predict.batch.url", "").trim();
+        if (impalaPredictBatchURL.isEmpty()) {
+            impalaPredictBatchURL = null;
+        }
+        predictBatchSize = Integer.parseInt(properties.getProperty("impala.predict.batch.size", "50"));
+        circuitBreakerWindow = Integer.parseInt(properties.getProperty("circuit.breaker.window", "20"));
+        circuitBreakerMinimumCalls = Integer.parseInt(properties.getProperty("circuit.breaker.minimum.calls", "5"));
+        circuitBreakerFailureRate = Integer.parseInt(properties.getProperty("circuit.breaker.failure.rate", "50"));
+        circuitBreakerOpenTime = Long.parseLong(properties.getProperty("circuit.breaker.open.time", "30000"));
+    }
+
     public static void addOOMException(String exceptionStr) {
         if (!impalaOOMException.contains(exceptionStr)) {
             impalaOOMException.add(exceptionStr);
@@ -175,6 +284,82 @@ public class GridSumJDBCConf {
         return backupTimeOut;
     }
 
+    public static int getNioEventLoops() {
+        return nioEventLoops;
+    }
+
+    public static long getHealthProbeInterval() {
+        return healthProbeInterval;
+    }
+
+    public static int getHealthProbeTimeout() {
+        return healthProbeTimeout;
+    }
+
+    public static int getHttpConnectTimeout() {
+        return httpConnectTimeout;
+    }
+
+    public static int getHttpSocketTimeout() {
+        return httpSocketTimeout;
+    }
+
+    public static int getHttpMaxTotal() {
+        return httpMaxTotal;
+    }
+
+    public static int getHttpMaxPerRoute() {
+        return httpMaxPerRoute;
+    }
+
+    public static long getHttpIdleTimeout() {
+        return httpIdleTimeout;
+    }
+
+    public static int getPredictCacheSize() {
+        return predictCacheSize;
+    }
+
+    public static long getPredictCacheTtl() {
+        return predictCacheTtl;
+    }
+
+    public static long getPredictTimeout() {
+        return predictTimeout;
+    }
+
+    public static String getPredictFallbackMemLimit() {
+        return predictFallbackMemLimit;
+    }
+
+    public static int getPredictThreads() {
+        return predictThreads;
+    }
+
+    public static String getImpalaPredictBatchURL() {
+        return impalaPredictBatchURL;
+    }
+
+    public static int getPredictBatchSize() {
+        return predictBatchSize;
+    }
+
+    public static int getCircuitBreakerWindow() {
+        return circuitBreakerWindow;
+    }
+
+    public static int getCircuitBreakerMinimumCalls() {
+        return circuitBreakerMinimumCalls;
+    }
+
+    public static int getCircuitBreakerFailureRate() {
+        return circuitBreakerFailureRate;
+    }
+
+    public static long getCircuitBreakerOpenTime() {
+        return circuitBreakerOpenTime;
+    }
+
     public static String getPredictMemPool() {
         if (null == predictMemPool) {
             throw new RuntimeException("You need to set 'connection.default.impala.predict.pool' value in 'conf.properties' in Resource folder.");
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gridsum.impala.memory.predict;
+
+import com.gridsum.impala.GridSumJDBCConf;
+import com.gridsum.impala.memory.predict.parameter.QueryParam;
+import com.gridsum.impala.util.StringUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory predict service responses of the JVM, keyed by the fingerprint of the sql, db and pool,
+ * so a query differing from a predicted one only in its literals is not predicted again.
+ * The least recently used response is evicted beyond 'impala.predict.cache.size' entries,
+ * a response expires 'impala.predict.cache.ttl' seconds after the prediction.
+ */
+public class PredictCache {
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong EVICTIONS = new AtomicLong();
+
+    private static final Map<String, Prediction> ENTRIES = new LinkedHashMap<String, Prediction>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Prediction> eldest) {
+            if (size() > GridSumJDBCConf.getPredictCacheSize()) {
+                EVICTIONS.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private static class Prediction {
+        private final String response;
+        private final long expireAt;
+
+        private Prediction(String response, long expireAt) {
+            this.response = response;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private PredictCache() {
+    }
+
+    public static boolean isEnabled() {
+        return GridSumJDBCConf.getPredictCacheSize() > 0 && GridSumJDBCConf.getPredictCacheTtl() > 0;
+    }
+
+    public static String getKey(QueryParam queryParam) {
+        return StringUtil.getFingerprint(queryParam.getSql()) + "\u0001" + queryParam.getDb()
+                + "\u0001" + queryParam.getPool();
+    }
+
+    /**
+     * @return the cached response, null when there is none or it expired
+     */
+    public static String get(String key) {
+        synchronized (ENTRIES) {
+            Prediction entry = ENTRIES.get(key);
+            if (null != entry && entry.expireAt <= System.currentTimeMillis()) {
+                ENTRIES.remove(key);
+                entry = null;
+            }
+            if (null == entry) {
+                MISSES.incrementAndGet();
+                return null;
+            }
+            HITS.incrementAndGet();
+            return entry.response;
+        }
+    }
+
+    public static void put(String key, String response) {
+        long expireAt = System.currentTimeMillis()
+                + TimeUnit.SECONDS.toMillis(GridSumJDBCConf.getPredictCacheTtl());
+        synchronized (ENTRIES) {
+            ENTRIES.put(key, new Prediction(response, expireAt));
+        }
+    }
+
+    public static void clear() {
+        synchronized (ENTRIES) {
+            ENTRIES.clear();
+        }
+    }
+
+    public static int size() {
+        synchronized (ENTRIES) {
+            return ENTRIES.size();
+        }
+    }
+
+    public static long getHits() {
+        return HITS.get();
+    }
+
+    public static long getMisses() {
+        return MISSES.get();
+    }
+
+    public static long getEvictions() {
+        return EVICTIONS.get();
+    }
+}
@@ -18,14 +18,28 @@
 package com.gridsum.impala.memory.predict;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.gridsum.impala.GridSumJDBCConf;
 import com.gridsum.impala.memory.predict.parameter.ParamNameEnum;
 import com.gridsum.impala.memory.predict.parameter.QueryParam;
 import com.gridsum.impala.util.HttpUtil;
+import com.gridsum.impala.util.CircuitBreaker;
+import com.gridsum.impala.util.DaemonThreadFactory;
+import org.apache.http.HttpStatus;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class PredictService {
 
@@ -36,6 +50,8 @@ public class PredictService {
      */
     private static final String SUCCESS_STATUS = "0";
 
+    private static ExecutorService predictors;
+
     /**
      * Convert QueryParam to JSON
      */
@@ -57,24 +73,291 @@ public class PredictService {
      * @param queryParam query parameter
      */
     public static String getPredictResponse(QueryParam queryParam) {
+        String cached = getCachedResponse(queryParam);
+        if (null != cached) {
+            LOGGER.debug("Predict memory found in cache.");
+            return cached;
+        }
+        return requestPrediction(queryParam);
+    }
+
+    /**
+     * Get Memory Predict Service Response in the background, the cached response at once.
+     * When all 'impala.predict.threads' are busy waiting for the service the future fails
+     * at once as well.
+     *
+     * @param queryParam query parameter
+     */
+    public static Future<String> getPredictResponseAsync(final QueryParam queryParam) {
+        final String cached = getCachedResponse(queryParam);
+        if (null != cached) {
+            return done(new Callable<String>() {
+                @Override
+                public String call() {
+                    return cached;
+                }
+            });
+        }
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return requestPrediction(queryParam);
+            }
+        });
+    }
+
+    /**
+     * Get Memory Predict Service Responses of many queries in the background, in the order of
+     * the queries. The queries not cached are predicted one after another on a single predict
+     * thread, with 'impala.predict.batch.url' set in requests of up to
+     * 'impala.predict.batch.size' queries. A response cancelled before its turn is skipped.
+     * When the circuit breaker is open or no predict thread is free the response of a query
+     * not cached is null, the query is to be predicted on its own.
+     *
+     * @param queryParams query parameters
+     */
+    public static List<Future<String>> getPredictResponsesAsync(List<QueryParam> queryParams) {
+        List<Future<String>> responses = new ArrayList<Future<String>>(queryParams.size());
+        final List<QueryParam> missing = new ArrayList<QueryParam>();
+        final List<PendingResponse> pending = new ArrayList<PendingResponse>();
+        List<Integer> indexes = new ArrayList<Integer>();
+        for (int i = 0; i < queryParams.size(); i++) {
+            final String cached = getCachedResponse(queryParams.get(i));
+            if (null != cached) {
+                responses.add(done(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return cached;
+                    }
+                }));
+            } else {
+                PendingResponse response = new PendingResponse();
+                responses.add(response);
+                missing.add(queryParams.get(i));
+                pending.add(response);
+                indexes.add(i);
+            }
+        }
+        if (missing.isEmpty()) {
+            return responses;
+        }
+        boolean started = false;
+        if (!getCircuitBreaker().isOpen()) {
+            try {
+                getPredictors().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        predictInOrder(missing, pending);
+                    }
+                });
+                started = true;
+            } catch (RejectedExecutionException e) {
+                LOGGER.warn("No predict thread free, the " + missing.size() + " queries are predicted one by one.");
+            }
+        }
+        if (!started) {
+            for (int index : indexes) {
+                responses.set(index, null);
+            }
+        }
+        return responses;
+    }
+
+    private static void predictInOrder(List<QueryParam> queryParams, List<PendingResponse> responses) {
+        String batchUrl = GridSumJDBCConf.getImpalaPredictBatchURL();
+        int batchSize = null == batchUrl ? 1 : Math.max(1, GridSumJDBCConf.getPredictBatchSize());
+        for (int start = 0; start < queryParams.size(); start += batchSize) {
+            List<QueryParam> batch = new ArrayList<QueryParam>(batchSize);
+            List<PendingResponse> waiting = new ArrayList<PendingResponse>(batchSize);
+            for (int i = start; i < Math.min(queryParams.size(), start + batchSize); i++) {
+                if (!responses.get(i).isCancelled()) {
+                    batch.add(queryParams.get(i));
+                    waiting.add(responses.get(i));
+                }
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+            try {
+                if (null == batchUrl) {
+                    waiting.get(0).succeed(requestPrediction(batch.get(0)));
+                    continue;
+                }
+                List<Object> results = requestPredictions(batch);
+                for (int i = 0; i < results.size(); i++) {
+                    Object result = results.get(i);
+                    if (result instanceof RuntimeException) {
+                        waiting.get(i).fail((RuntimeException) result);
+                    } else {
+                        waiting.get(i).succeed((String) result);
+                    }
+                }
+            } catch (RuntimeException e) {
+                for (PendingResponse response : waiting) {
+                    response.fail(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Response of one query of {@link #getPredictResponsesAsync(List)}, set once its turn came
+     */
+    private static class PendingResponse extends FutureTask<String> {
+        private static final Runnable NOTHING = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        private PendingResponse() {
+            super(NOTHING, null);
+        }
+
+        private void succeed(String response) {
+            set(response);
+        }
+
+        private void fail(RuntimeException error) {
+            setException(error);
+        }
+    }
+
+    /**
+     * Run the request on a predict thread, fail at once when the circuit breaker is open or
+     * no thread is free
+     */
+    private static <T> Future<T> submit(Callable<T> request) {
+        if (getCircuitBreaker().isOpen()) {
+            return done(new Callable<T>() {
+                @Override
+                public T call() {
+                    throw new RuntimeException("memory predict service is not available, circuit breaker "
+                            + getCircuitBreaker().getName() + " is open.");
+                }
+            });
+        }
+        FutureTask<T> task = new FutureTask<T>(request);
+        try {
+            getPredictors().execute(task);
+        } catch (RejectedExecutionException e) {
+            return done(new Callable<T>() {
+                @Override
+                public T call() {
+                    throw new RuntimeException("memory predict service is busy, all "
+                            + GridSumJDBCConf.getPredictThreads() + " predict threads are waiting for it");
+                }
+            });
+        }
+        return task;
+    }
 
+    private static <T> Future<T> done(Callable<T> callable) {
+        FutureTask<T> task = new FutureTask<T>(callable);
+        task.run();
+        return task;
+    }
+
+    private static synchronized ExecutorService getPredictors() {
+        if (null == predictors) {
+            // no queue, a query does not wait behind others for a prediction
+            predictors = new ThreadPoolExecutor(0, GridSumJDBCConf.getPredictThreads(), 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new DaemonThreadFactory("gs-jdbc-predict"));
+        }
+        return predictors;
+    }
+
+    private static CircuitBreaker getCircuitBreaker() {
+        return CircuitBreaker.of("predict:" + GridSumJDBCConf.getImpalaPredictURL());
+    }
+
+    private static String getCachedResponse(QueryParam queryParam) {
+        return PredictCache.isEnabled() ? PredictCache.get(PredictCache.getKey(queryParam)) : null;
+    }
+
+    private static String requestPrediction(QueryParam queryParam) {
         String url = GridSumJDBCConf.getImpalaPredictURL();
         if (url == null) {
             throw new RuntimeException(
                     "conf.properties has not been init, please check the file exist or not.");
         }
-        JSONObject bodyJson = null;
+        LOGGER.info("Get predict memory start.");
+        JSONObject bodyJson = post(url, genParam(queryParam));
+        if (!SUCCESS_STATUS.equals(bodyJson.getString(ParamNameEnum.ERROR_CODE.getName()))) {
+            throw new RuntimeException("get memory setting occur an error:" + bodyJson.toJSONString());
+        }
+        LOGGER.info("Get predict memory over.");
+        if (PredictCache.isEnabled()) {
+            PredictCache.put(PredictCache.getKey(queryParam), bodyJson.toString());
+        }
+        return bodyJson.toString();
+    }
+
+    /**
+     * Predict the queries in one request: {"queries": [query, ...]} is answered with
+     * {"error_code": "0", "results": [response, ...]}, a query and a response like the ones of
+     * 'impala.predict.url', in the order of the queries
+     *
+     * @return the response of each query, a RuntimeException when its prediction failed
+     */
+    private static List<Object> requestPredictions(List<QueryParam> queryParams) {
+        JSONArray queries = new JSONArray();
+        for (QueryParam queryParam : queryParams) {
+            queries.add(genParam(queryParam));
+        }
+        JSONObject param = new JSONObject();
+        param.put(ParamNameEnum.QUERIES.getName(), queries);
+        LOGGER.info("Get predict memory of " + queryParams.size() + " queries start.");
+        JSONObject bodyJson = post(GridSumJDBCConf.getImpalaPredictBatchURL(), param);
+        JSONArray results = bodyJson.getJSONArray(ParamNameEnum.RESULTS.getName());
+        if (!SUCCESS_STATUS.equals(bodyJson.getString(ParamNameEnum.ERROR_CODE.getName()))
+                || null == results || results.size() != queryParams.size()) {
+            throw new RuntimeException("get memory setting occur an error:" + bodyJson.toJSONString());
+        }
+        LOGGER.info("Get predict memory of " + queryParams.size() + " queries over.");
+        List<Object> responses = new ArrayList<Object>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            JSONObject result = results.getJSONObject(i);
+            if (!SUCCESS_STATUS.equals(result.getString(ParamNameEnum.ERROR_CODE.getName()))) {
+                responses.add(new RuntimeException("get memory setting occur an error:" + result.toJSONString()));
+                continue;
+            }
+            if (PredictCache.isEnabled()) {
+                PredictCache.put(PredictCache.getKey(queryParams.get(i)), result.toString());
+            }
+            responses.add(result.toString());
+        }
+        return responses;
+    }
+
+    /**
+     * Post to the memory predict service through its circuit breaker
+     */
+    private static JSONObject post(String url, JSONObject param) {
+        CircuitBreaker breaker = getCircuitBreaker();
+        if (!breaker.allowRequest()) {
+            throw new RuntimeException("memory predict service is not available, circuit breaker "
+                    + breaker.getName() + " is open.");
+        }
+        String body;
         try {
-            LOGGER.info("Get predict memory start.");
-            String body = HttpUtil.doPost(url, genParam(queryParam));
-            bodyJson = JSON.parseObject(body);
-            if (!SUCCESS_STATUS.equals(bodyJson.getString(ParamNameEnum.ERROR_CODE.getName()))) {
-                throw new RuntimeException("get memory setting occur an error:" + bodyJson.toJSONString());
+            body = HttpUtil.doPost(url, param);
+            breaker.onSuccess();
+        } catch (HttpUtil.HttpStatusException e) {
+            // a rejected query does not tell the service is down
+            if (e.getStatusCode() < HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                breaker.onSuccess();
+            } else {
+                breaker.onFailure();
             }
-            LOGGER.info("Get predict memory over.");
+            throw e;
         } catch (IOException e) {
+            breaker.onFailure();
             throw new RuntimeException("get memory setting occur an error:" + e.toString());
+        } catch (RuntimeException e) {
+            breaker.onFailure();
+            throw e;
         }
-        return bodyJson.toString();
+        return JSON.parseObject(body);
     }
 }
@@ -20,7 +20,8 @@ package com.gridsum.impala.memory.predict.parameter;
 
 public enum ParamNameEnum {
 
-    SQL("sql"), DB("db"), POOL("pool"), MEM("mem"), ERROR_CODE("error_code"), MESSAGE_KEY("message");
+    SQL("sql"), DB("db"), POOL("pool"), MEM("mem"), ERROR_CODE("error_code"), MESSAGE_KEY("message"),
+    QUERIES("queries"), RESULTS("results");
 
     private String name;
 
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gridsum.impala.util;
+
+import com.gridsum.impala.GridSumJDBCConf;
+import org.apache.log4j.Logger;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker of a remote service the driver calls besides Impala and Hive, e.g. the memory
+ * predict service or the Cloudera Manager API, shared by all connections of the JVM.
+ * <p/>
+ * Closed, it lets calls through and keeps the outcome of the last 'circuit.breaker.window'
+ * of them. When at least 'circuit.breaker.minimum.calls' were made and the failed share
+ * reaches 'circuit.breaker.failure.rate' percent it opens: calls fail at once, without
+ * waiting for a connect or read timeout. After 'circuit.breaker.open.time' ms one call is
+ * let through half open, its success closes the breaker, its failure opens it again.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class);
+
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private State state = State.CLOSED;
+    /**
+     * outcomes of the last calls, true for a failure
+     */
+    private final boolean[] window;
+    private int calls = 0;
+    private int next = 0;
+    private int failures = 0;
+    private long openUntil = 0;
+    private boolean probing = false;
+
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong closed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private CircuitBreaker(String name, int windowSize) {
+        this.name = name;
+        this.window = new boolean[Math.max(1, windowSize)];
+    }
+
+    public static CircuitBreaker of(String name) {
+        CircuitBreaker breaker = BREAKERS.get(name);
+        if (null == breaker) {
+            CircuitBreaker created = new CircuitBreaker(name, GridSumJDBCConf.getCircuitBreakerWindow());
+            breaker = BREAKERS.putIfAbsent(name, created);
+            if (null == breaker) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Every circuit breaker of the JVM
+     */
+    public static Collection<CircuitBreaker> all() {
+        return BREAKERS.values();
+    }
+
+    /**
+     * @return false when the call must fail at once; when true the outcome of the call
+     * must be reported to {@link #onSuccess()} or {@link #onFailure()}
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN && !probing) {
+            probing = true;
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return true while calls fail at once, without taking the half open probe
+     */
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && System.currentTimeMillis() < openUntil;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+            reset();
+            transition(State.CLOSED);
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+            open();
+            return;
+        }
+        record(true);
+        if (state == State.CLOSED && calls >= GridSumJDBCConf.getCircuitBreakerMinimumCalls()
+                && failures * 100 >= calls * GridSumJDBCConf.getCircuitBreakerFailureRate()) {
+            open();
+        }
+    }
+
+    private void record(boolean failure) {
+        if (calls == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        window[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    private void reset() {
+        calls = 0;
+        next = 0;
+        failures = 0;
+    }
+
+    private void open() {
+        reset();
+        openUntil = System.currentTimeMillis() + GridSumJDBCConf.getCircuitBreakerOpenTime();
+        transition(State.OPEN);
+    }
+
+    private void transition(State to) {
+        if (state == to) {
+            return;
+        }
+        if (to == State.OPEN) {
+            opened.incrementAndGet();
+            LOGGER.warn("Circuit breaker " + name + " is open, calls fail at once for "
+                    + GridSumJDBCConf.getCircuitBreakerOpenTime() + "ms.");
+        } else if (to == State.CLOSED) {
+            closed.incrementAndGet();
+            LOGGER.info("Circuit breaker " + name + " is closed again.");
+        } else {
+            LOGGER.info("Circuit breaker " + name + " is half open, probing with the next call.");
+        }
+        state = to;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Times the breaker opened
+     */
+    public long getOpened() {
+        return opened.get();
+    }
+
+    /**
+     * Times the breaker closed after a successful half open probe
+     */
+    public long getClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Calls failed at once while the breaker was open
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + " [" + state + ", opened " + opened.get() + ", closed " + closed.get()
+                + ", rejected " + rejected.get() + "]";
+    }
+}
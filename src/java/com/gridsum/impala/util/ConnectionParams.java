@@ -26,9 +26,14 @@ public class ConnectionParams {
      */
     public static final String DELEGATION = "DelegationUID";
     /**
-     * back_up parameter
+     * back_up parameter, comma separated back up coordinators
      */
     public static final String BACK_UP = "BACK_UP";
+    /**
+     * how the coordinator is chosen among the host and BACK_UP hosts:
+     * failover (default), round-robin, least-outstanding, latency-weighted
+     */
+    public static final String LB_POLICY = "LB_POLICY";
     /**
      * database parameter
      */
@@ -72,6 +77,57 @@ public class ConnectionParams {
      */
     public static final String IMPALA_RETRY_COUNT = "RETRY_COUNT";
 
+    /**
+     * number of result batches fetched ahead in background, 0 means disabled
+     */
+    public static final String PREFETCH_DEPTH = "PREFETCH_DEPTH";
+
+    /**
+     * size each fetch from measured latency and row width instead of the fixed fetch size
+     */
+    public static final String ADAPTIVE_FETCH = "ADAPTIVE_FETCH";
+
+    /**
+     * heap budget for fetched rows when ADAPTIVE_FETCH is enabled, units MB
+     */
+    public static final String FETCH_MEM_BUDGET = "FETCH_MEM_BUDGET";
+
+    /**
+     * heap for the rows of a scrollable result set before they spill to a temp file, units MB
+     */
+    public static final String SCROLL_CACHE_MEM = "SCROLL_CACHE_MEM";
+
+    /**
+     * first wait between two operation status polls, units ms
+     */
+    public static final String POLL_INITIAL_INTERVAL = "POLL_INITIAL_INTERVAL";
+
+    /**
+     * longest wait between two operation status polls, units ms
+     */
+    public static final String POLL_MAX_INTERVAL = "POLL_MAX_INTERVAL";
+
+    /**
+     * factor the wait grows by while the operation state does not change
+     */
+    public static final String POLL_BACKOFF_MULTIPLIER = "POLL_BACKOFF_MULTIPLIER";
+
+    /**
+     * number of transports one connection spreads its operations over, they share the session
+     */
+    public static final String TRANSPORT_POOL_SIZE = "TRANSPORT_POOL_SIZE";
+
+    /**
+     * connect and read timeout of the transport used to cancel operations, units ms
+     */
+    public static final String CANCEL_TIMEOUT = "CANCEL_TIMEOUT";
+
+    /**
+     * delay before the connect to the next coordinator starts while the previous ones have
+     * not answered, units ms, 0 connects to one coordinator at a time
+     */
+    public static final String CONNECT_RACE_DELAY = "CONNECT_RACE_DELAY";
+
     /**
      * all parameter that can be used in 'set ' mode
      */
@@ -80,6 +136,17 @@ public class ConnectionParams {
     static {
         //both impala and hive
         PARAMETERS.add(BACK_UP);
+        PARAMETERS.add(LB_POLICY);
+        PARAMETERS.add(PREFETCH_DEPTH);
+        PARAMETERS.add(ADAPTIVE_FETCH);
+        PARAMETERS.add(FETCH_MEM_BUDGET);
+        PARAMETERS.add(SCROLL_CACHE_MEM);
+        PARAMETERS.add(POLL_INITIAL_INTERVAL);
+        PARAMETERS.add(POLL_MAX_INTERVAL);
+        PARAMETERS.add(POLL_BACKOFF_MULTIPLIER);
+        PARAMETERS.add(TRANSPORT_POOL_SIZE);
+        PARAMETERS.add(CANCEL_TIMEOUT);
+        PARAMETERS.add(CONNECT_RACE_DELAY);
         //impala only
         PARAMETERS.add(IMPALA_MEL_LIMIT);
         PARAMETERS.add(IMPALA_PREDICT_MEM_AUTO);
@@ -20,30 +20,62 @@ package com.gridsum.impala.util;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
+import com.gridsum.impala.GridSumJDBCConf;
 import com.gridsum.impala.memory.predict.parameter.ParamNameEnum;
-import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * HTTP requests to the memory predict service and the impala query profile,
+ * over one pool of kept alive connections shared by all connections of the JVM.
+ * Pool size and timeouts come from conf.properties, idle connections are closed
+ * in the background.
+ */
 public class HttpUtil {
+    private static final Logger LOGGER = Logger.getLogger(HttpUtil.class);
     private static final String CONTENT_TYPE = "application/json";
     public static final String HTTP_PREFIX = "http://";
-    private static final int HTTP_TIME_OUT = 5000;//unit ms
     /**
      * Memory predict service response error code
      */
     private static final int USER_ERROR_CODE = 400;
     private static final int SERVICE_ERROR_CODE = 500;
 
+    /**
+     * The service answered with an error status
+     */
+    public static class HttpStatusException extends RuntimeException {
+        private final int statusCode;
+
+        public HttpStatusException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    private static PoolingHttpClientConnectionManager connectionManager;
+    private static CloseableHttpClient httpClient;
+
     /**
      * Send post request to memory predict service
      */
@@ -51,45 +83,14 @@ public class HttpUtil {
         if (url == null) {
             throw new IllegalArgumentException("url cannot be null");
         }
-        String result = "";
-        CloseableHttpClient httpClient = null;
-        try {
-            HttpPost httpPost = new HttpPost(url);
-            httpPost.setHeader("Content-Type", CONTENT_TYPE);
-            RequestConfig requestConfig = RequestConfig.custom()
-                    .setSocketTimeout(HTTP_TIME_OUT).setConnectTimeout(HTTP_TIME_OUT).build();
-            httpPost.setConfig(requestConfig);
-            httpClient = HttpClients.createDefault();
-            if (!body.isEmpty()) {
-                StringEntity entity = new StringEntity(body.toJSONString(), Charset.forName("utf-8"));
-                entity.setContentType(CONTENT_TYPE);
-                httpPost.setEntity(entity);
-            }
-            HttpResponse response = httpClient.execute(httpPost);
-            int statusCode = response.getStatusLine().getStatusCode();
-            switch (statusCode) {
-                case HttpStatus.SC_OK:
-                    result = EntityUtils.toString(response.getEntity(), "utf-8");
-                    break;
-                case USER_ERROR_CODE:
-                case SERVICE_ERROR_CODE:
-                    result = EntityUtils.toString(response.getEntity(), "utf-8");
-                    JSONObject json = JSON.parseObject(result);
-                    if (json.containsKey(ParamNameEnum.MESSAGE_KEY.getName())) {
-                        result = json.getString(ParamNameEnum.MESSAGE_KEY.getName());
-                    }
-                    throw new RuntimeException("HttpStatus is " + statusCode + ", errorMessage is " + result);
-                default:
-                    throw new RuntimeException("HttpStatus is " + statusCode);
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        } finally {
-            if (null != httpClient) {
-                httpClient.close();
-            }
+        HttpPost httpPost = new HttpPost(url);
+        httpPost.setHeader("Content-Type", CONTENT_TYPE);
+        if (!body.isEmpty()) {
+            StringEntity entity = new StringEntity(body.toJSONString(), Charset.forName("utf-8"));
+            entity.setContentType(CONTENT_TYPE);
+            httpPost.setEntity(entity);
         }
-        return result;
+        return execute(httpPost, true);
     }
 
     /**
@@ -99,31 +100,78 @@ public class HttpUtil {
         if (url == null) {
             throw new IllegalArgumentException("url is null");
         }
-        String result = "";
-        CloseableHttpClient httpClient = null;
+        return execute(new HttpGet(url), false);
+    }
+
+    /**
+     * @param serviceErrors read the error message of the memory predict service from
+     *                      400 and 500 responses
+     */
+    private static String execute(HttpRequestBase request, boolean serviceErrors) {
+        String result;
         try {
-            HttpGet request = new HttpGet(url);
-            RequestConfig requestConfig = RequestConfig.custom()
-                    .setSocketTimeout(HTTP_TIME_OUT).setConnectTimeout(HTTP_TIME_OUT).build();
-            request.setConfig(requestConfig);
-            httpClient = HttpClients.createDefault();
-            HttpResponse response = httpClient.execute(request);
-            int statusCode = response.getStatusLine().getStatusCode();
-            switch (statusCode) {
-                case HttpStatus.SC_OK:
-                    result = EntityUtils.toString(response.getEntity(), "utf-8");
-                    break;
-                default:
-                    throw new RuntimeException("HttpStatus is " + statusCode);
+            request.setConfig(RequestConfig.custom()
+                    .setSocketTimeout(GridSumJDBCConf.getHttpSocketTimeout())
+                    .setConnectTimeout(GridSumJDBCConf.getHttpConnectTimeout())
+                    .setConnectionRequestTimeout(GridSumJDBCConf.getHttpConnectTimeout())
+                    .setStaleConnectionCheckEnabled(true).build());
+            CloseableHttpResponse response = getHttpClient().execute(request);
+            try {
+                int statusCode = response.getStatusLine().getStatusCode();
+                // the entity is read to the end in any case, so the connection goes back to the pool
+                result = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), "utf-8");
+                if (statusCode == HttpStatus.SC_OK) {
+                    return result;
+                }
+                if (serviceErrors && (statusCode == USER_ERROR_CODE || statusCode == SERVICE_ERROR_CODE)) {
+                    JSONObject json = JSON.parseObject(result);
+                    if (json.containsKey(ParamNameEnum.MESSAGE_KEY.getName())) {
+                        result = json.getString(ParamNameEnum.MESSAGE_KEY.getName());
+                    }
+                    throw new HttpStatusException(statusCode, "HttpStatus is " + statusCode + ", errorMessage is " + result);
+                }
+                throw new HttpStatusException(statusCode, "HttpStatus is " + statusCode);
+            } finally {
+                response.close();
             }
+        } catch (HttpStatusException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException(e);
-        } finally {
-            if (null != httpClient) {
-                httpClient.close();
-            }
         }
-        return result;
+    }
+
+    private static synchronized CloseableHttpClient getHttpClient() {
+        if (httpClient == null) {
+            connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(GridSumJDBCConf.getHttpMaxTotal());
+            connectionManager.setDefaultMaxPerRoute(GridSumJDBCConf.getHttpMaxPerRoute());
+            httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+            startIdleEvictor();
+        }
+        return httpClient;
+    }
+
+    private static void startIdleEvictor() {
+        final long idleTimeout = GridSumJDBCConf.getHttpIdleTimeout();
+        if (idleTimeout <= 0) {
+            return;
+        }
+        ScheduledExecutorService evictor =
+                Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("gs-jdbc-http"));
+        long period = Math.max(1000, idleTimeout / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                // an exception would cancel the schedule for the rest of the process
+                try {
+                    connectionManager.closeExpiredConnections();
+                    connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Failed to close idle HTTP connections", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
     }
 
 }
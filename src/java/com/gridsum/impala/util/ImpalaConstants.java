@@ -26,13 +26,12 @@ public class ImpalaConstants {
      */
     public static final String RETRY_KEY = "retry";
     public static final String ERROR_KEY = "error";
+    public static final String FALLBACK_KEY = "fallback";
 
     /**
      * back up key
      */
-    public static final String BACK_UP_KEY_HOST = "host";
     public static final String BACK_UP_KEY_KRBHOSTFQDN = "KrbHostFQDN";
-    public static final String BACK_UP_KEY_ERROR_TIME = "errorTime";
 
     public static final String TTRANSPORT_EXCEPTION = "org.apache.thrift.transport.TTransportException";
     public static final String CATALOG_UPDATE_EXCEPTION = "Waiting for catalog update from the StateStore";
@@ -45,8 +44,9 @@ public class ImpalaConstants {
 
 
     /**
-     * Set Impala Memory Limit
+     * Impala query options sent in the execute request overlay
      */
-    public final static String MEM_LIMIT = "SET MEM_LIMIT = %s";
+    public final static String MEM_LIMIT_OPTION = "MEM_LIMIT";
+    public final static String REQUEST_POOL_OPTION = "REQUEST_POOL";
 
 }
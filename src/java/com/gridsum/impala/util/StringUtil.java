@@ -20,6 +20,9 @@ package com.gridsum.impala.util;
 import com.alibaba.fastjson.JSONObject;
 import com.gridsum.impala.GridSumJDBCConf;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,6 +34,11 @@ public class StringUtil {
     private static final Pattern QUERY_STATUS_PATTERN = Pattern.compile("Query Status:[\\s|\\S]*Impala Version");
     private static final Pattern QUERY_PATTERN = Pattern.compile("(?s)/\\*.*?\\*/");
     private static final Pattern BR_PATTERN = Pattern.compile("--[^\\n]*\\n");
+    /**
+     * top level words after which an appended LIMIT would be wrong or change the meaning
+     */
+    private static final Set<String> LIMIT_BLOCKERS = new HashSet<>(
+            Arrays.asList("limit", "offset", "union", "intersect", "except", "minus"));
 
     public static Long convertGB2Byte(String gb) {
         double size = Double.valueOf(gb);
@@ -70,6 +78,153 @@ public class StringUtil {
         }
     }
 
+    /**
+     * Push a row cap into a query as a top level LIMIT, so the server stops producing rows
+     * once the cap is reached. The sql is returned unchanged when it is not a query, is
+     * wrapped in parentheses, holds several statements or already has a LIMIT, OFFSET or
+     * set operator at top level; the client side cap still applies then.
+     *
+     * @param sql     sql
+     * @param maxRows row cap, 0 means no cap
+     * @return sql with the LIMIT appended, trailing semicolons removed
+     */
+    public static String addLimit(String sql, int maxRows) {
+        if (maxRows <= 0 || !isQuery(sql)) {
+            return sql;
+        }
+        int length = sql.length();
+        int depth = 0;
+        int end = -1;
+        boolean code = false;
+        for (int i = 0; i < length; i++) {
+            char c = sql.charAt(i);
+            if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                int newLine = sql.indexOf('\n', i);
+                i = newLine < 0 ? length : newLine;
+                continue;
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int close = sql.indexOf("*/", i + 2);
+                i = close < 0 ? length : close + 1;
+                continue;
+            } else if (Character.isWhitespace(c)) {
+                continue;
+            } else if (end >= 0) {
+                // code after a semicolon, several statements
+                if (c != ';') {
+                    return sql;
+                }
+                continue;
+            } else if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(sql, i, c);
+            } else if (c == '(') {
+                if (!code) {
+                    return sql;
+                }
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ';' && depth == 0) {
+                end = i;
+            } else if (depth == 0 && Character.isLetter(c)) {
+                int wordEnd = i;
+                while (wordEnd < length && (Character.isLetterOrDigit(sql.charAt(wordEnd))
+                        || sql.charAt(wordEnd) == '_')) {
+                    wordEnd++;
+                }
+                if (LIMIT_BLOCKERS.contains(sql.substring(i, wordEnd).toLowerCase())) {
+                    return sql;
+                }
+                i = wordEnd - 1;
+            }
+            code = true;
+        }
+        return (end < 0 ? sql : sql.substring(0, end)) + "\nLIMIT " + maxRows;
+    }
+
+    /**
+     * Shape of a statement: comments, the gs-annotation included, are removed, string and
+     * numeric literals replaced by '?', whitespace collapsed and words lower cased. Statements
+     * differing only in their literals share the fingerprint.
+     *
+     * @param sql sql
+     * @return fingerprint
+     */
+    public static String getFingerprint(String sql) {
+        int length = sql.length();
+        StringBuilder fingerprint = new StringBuilder(length);
+        boolean space = false;
+        for (int i = 0; i < length; i++) {
+            char c = sql.charAt(i);
+            if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                int newLine = sql.indexOf('\n', i);
+                i = newLine < 0 ? length : newLine;
+                space = true;
+                continue;
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int close = sql.indexOf("*/", i + 2);
+                i = close < 0 ? length : close + 1;
+                space = true;
+                continue;
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            // whitespace only separates words, "x = 1" and "x=1" share the fingerprint
+            if (space && fingerprint.length() > 0 && isWordChar(fingerprint.charAt(fingerprint.length() - 1))
+                    && (isWordChar(c) || c == '\'' || c == '"')) {
+                fingerprint.append(' ');
+            }
+            space = false;
+            if (c == '\'' || c == '"') {
+                i = skipQuoted(sql, i, c);
+                fingerprint.append('?');
+            } else if (c == '`') {
+                int close = skipQuoted(sql, i, c);
+                fingerprint.append(sql, i, Math.min(close + 1, length));
+                i = close;
+            } else if (Character.isDigit(c)) {
+                while (i + 1 < length && (Character.isLetterOrDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) {
+                    i++;
+                }
+                fingerprint.append('?');
+            } else if (Character.isLetter(c) || c == '_') {
+                int wordEnd = i;
+                while (wordEnd < length && (Character.isLetterOrDigit(sql.charAt(wordEnd))
+                        || sql.charAt(wordEnd) == '_')) {
+                    wordEnd++;
+                }
+                fingerprint.append(sql.substring(i, wordEnd).toLowerCase());
+                i = wordEnd - 1;
+            } else {
+                fingerprint.append(c);
+            }
+        }
+        int end = fingerprint.length();
+        while (end > 0 && fingerprint.charAt(end - 1) == ';') {
+            end--;
+        }
+        return fingerprint.substring(0, end);
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '?' || c == '`';
+    }
+
+    /**
+     * Index of the quote closing the literal or identifier opened at start
+     */
+    private static int skipQuoted(String sql, int start, char quote) {
+        for (int i = start + 1; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\\' && quote != '`') {
+                i++;
+            } else if (c == quote) {
+                return i;
+            }
+        }
+        return sql.length();
+    }
+
     public static boolean isOOM(String queryStatus) {
         boolean isOOM = false;
         for (String s : GridSumJDBCConf.getImpalaOOMException()) {
@@ -106,6 +261,27 @@ public class StringUtil {
         return false;
     }
 
+    /**
+     * Database of a use clause
+     *
+     * @param sql
+     * @return database name, null when sql is not a use clause
+     */
+    public static String getUseDatabase(String sql) {
+        String[] tokens = tokenizeCmd(sql.trim());
+        if (tokens.length != 2 || !"use".equalsIgnoreCase(tokens[0])) {
+            return null;
+        }
+        String db = tokens[1];
+        if (db.endsWith(";")) {
+            db = db.substring(0, db.length() - 1);
+        }
+        if (db.length() > 1 && db.startsWith("`") && db.endsWith("`")) {
+            db = db.substring(1, db.length() - 1);
+        }
+        return db.isEmpty() ? null : db;
+    }
+
     /**
      * Get set clause key and value
      * Copy from Hive source code
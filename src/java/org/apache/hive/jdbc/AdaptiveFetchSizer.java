@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hive.service.cli.thrift.TColumn;
+import org.apache.hive.service.cli.thrift.TColumnValue;
+import org.apache.hive.service.cli.thrift.TRow;
+import org.apache.hive.service.cli.thrift.TRowSet;
+
+/**
+ * AdaptiveFetchSizer.
+ *
+ * Chooses the row count of each FetchResults request from the latency of the previous
+ * requests and the measured row width. Batches grow while a round trip is cheap compared
+ * to the target batch time and shrink when it is slow, and never hold more decoded rows
+ * than the heap budget allows.
+ */
+class AdaptiveFetchSizer {
+  public static final Log LOG = LogFactory.getLog(AdaptiveFetchSizer.class);
+
+  static final int MIN_FETCH_SIZE = 16;
+  static final int MAX_FETCH_SIZE = 100000;
+
+  /** wall time one fetch should take, long enough to hide the round trip */
+  private static final long TARGET_FETCH_NANOS = 200L * 1000 * 1000;
+
+  /** rough heap cost of a boxed value and of a String besides its chars */
+  private static final int BOXED_VALUE_BYTES = 16;
+  private static final int STRING_OVERHEAD_BYTES = 40;
+
+  private final long memBudget;
+  private int fetchSize;
+  private double bytesPerRow = 0;
+
+  private long batches = 0;
+  private long rows = 0;
+  private int minChosen;
+  private int maxChosen;
+
+  /**
+   * @param initialFetchSize size of the first request
+   * @param memBudget heap one decoded batch may use, units byte
+   */
+  AdaptiveFetchSizer(int initialFetchSize, long memBudget) {
+    this.memBudget = memBudget;
+    this.fetchSize = clamp(initialFetchSize, MAX_FETCH_SIZE);
+    this.minChosen = fetchSize;
+    this.maxChosen = fetchSize;
+  }
+
+  synchronized int getFetchSize() {
+    return fetchSize;
+  }
+
+  synchronized void setFetchSize(int fetchSize) {
+    this.fetchSize = clamp(fetchSize, maxRowsInBudget());
+  }
+
+  /**
+   * Feed back one completed fetch and pick the size of the next one.
+   *
+   * @param requested rows asked for
+   * @param received rows returned
+   * @param bytes estimated decoded size of the returned rows
+   * @param elapsedNanos duration of the FetchResults call
+   */
+  synchronized void onBatch(int requested, int received, long bytes, long elapsedNanos) {
+    if (received <= 0) {
+      return;
+    }
+    batches++;
+    rows += received;
+    double width = (double) bytes / received;
+    bytesPerRow = bytesPerRow == 0 ? width : (bytesPerRow + width) / 2;
+
+    int next = fetchSize;
+    // a short batch means the server had no more rows ready, it says nothing about the cost
+    if (received >= requested && elapsedNanos < TARGET_FETCH_NANOS / 2) {
+      next = fetchSize * 2;
+    } else if (elapsedNanos > TARGET_FETCH_NANOS * 2) {
+      next = fetchSize / 2;
+    }
+    next = clamp(next, maxRowsInBudget());
+
+    if (next != fetchSize) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Adaptive fetch size " + fetchSize + " -> " + next + ", last batch "
+            + received + " rows in " + elapsedNanos / 1000000 + "ms, "
+            + (long) bytesPerRow + " bytes/row");
+      }
+      fetchSize = next;
+      minChosen = Math.min(minChosen, next);
+      maxChosen = Math.max(maxChosen, next);
+    }
+  }
+
+  private long maxRowsInBudget() {
+    if (bytesPerRow <= 0) {
+      return MAX_FETCH_SIZE;
+    }
+    return (long) (memBudget / bytesPerRow);
+  }
+
+  private static int clamp(long size, long upper) {
+    long max = Math.min(upper, MAX_FETCH_SIZE);
+    return (int) Math.max(MIN_FETCH_SIZE, Math.min(size, max));
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "fetch size " + fetchSize + " (min " + minChosen + ", max " + maxChosen + "), "
+        + batches + " batches, " + rows + " rows, " + (long) bytesPerRow + " bytes/row";
+  }
+
+  /**
+   * Number of rows in a fetched row set, for both row and column based results
+   */
+  static int numRows(TRowSet rowSet) {
+    if (rowSet.isSetColumns()) {
+      return rowSet.getColumnsSize() == 0 ? 0 : valuesSize(rowSet.getColumns().get(0));
+    }
+    return rowSet.getRowsSize();
+  }
+
+  private static int valuesSize(TColumn column) {
+    if (column.isSetBoolVal()) {
+      return column.getBoolVal().getValuesSize();
+    } else if (column.isSetByteVal()) {
+      return column.getByteVal().getValuesSize();
+    } else if (column.isSetI16Val()) {
+      return column.getI16Val().getValuesSize();
+    } else if (column.isSetI32Val()) {
+      return column.getI32Val().getValuesSize();
+    } else if (column.isSetI64Val()) {
+      return column.getI64Val().getValuesSize();
+    } else if (column.isSetDoubleVal()) {
+      return column.getDoubleVal().getValuesSize();
+    } else if (column.isSetStringVal()) {
+      return column.getStringVal().getValuesSize();
+    } else if (column.isSetBinaryVal()) {
+      return column.getBinaryVal().getValuesSize();
+    }
+    return 0;
+  }
+
+  /**
+   * Approximate heap footprint of the rows once decoded
+   */
+  static long estimateBytes(TRowSet rowSet) {
+    long bytes = 0;
+    if (rowSet.isSetColumns()) {
+      for (TColumn column : rowSet.getColumns()) {
+        bytes += estimateBytes(column);
+      }
+    } else if (rowSet.isSetRows()) {
+      for (TRow row : rowSet.getRows()) {
+        for (TColumnValue value : row.getColVals()) {
+          bytes += BOXED_VALUE_BYTES;
+          if (value.isSetStringVal() && value.getStringVal().isSetValue()) {
+            bytes += STRING_OVERHEAD_BYTES + 2L * value.getStringVal().getValue().length();
+          }
+        }
+      }
+    }
+    return bytes;
+  }
+
+  private static long estimateBytes(TColumn column) {
+    if (column.isSetI64Val() || column.isSetDoubleVal()) {
+      return (long) valuesSize(column) * (BOXED_VALUE_BYTES + 8);
+    } else if (column.isSetBoolVal() || column.isSetByteVal() || column.isSetI16Val()
+        || column.isSetI32Val()) {
+      return (long) valuesSize(column) * BOXED_VALUE_BYTES;
+    } else if (column.isSetStringVal()) {
+      return estimateStrings(column.getStringVal().getValues());
+    } else if (column.isSetBinaryVal()) {
+      long bytes = 0;
+      for (ByteBuffer value : column.getBinaryVal().getValues()) {
+        bytes += STRING_OVERHEAD_BYTES + value.remaining();
+      }
+      return bytes;
+    }
+    return 0;
+  }
+
+  private static long estimateStrings(List<String> values) {
+    long bytes = 0;
+    for (String value : values) {
+      bytes += STRING_OVERHEAD_BYTES;
+      if (value != null) {
+        bytes += 2L * value.length();
+      }
+    }
+    return bytes;
+  }
+}
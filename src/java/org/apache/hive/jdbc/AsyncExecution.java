@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.gridsum.impala.util.DaemonThreadFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * AsyncExecution.
+ *
+ * Handle of a statement started by {@link HiveStatement#executeAsync(String, ExecutionCallback)}.
+ * {@link #get()} returns the ResultSet, or null for statements without one, and wraps a
+ * failure's SQLException in an ExecutionException. {@link #cancel(boolean)} cancels the
+ * operation on the server.
+ */
+public class AsyncExecution implements Future<ResultSet> {
+  private static final Logger LOGGER = Logger.getLogger(AsyncExecution.class);
+
+  /**
+   * Status polls of all asynchronous executions. A poll is one short RPC, so a few
+   * threads serve many running queries; HiveServer2 long polling holds a thread for
+   * up to its polling timeout, hence one thread per core.
+   */
+  private static final ScheduledExecutorService STATUS_POLLER = newStatusPoller();
+
+  private final HiveStatement statement;
+  private final ExecutionCallback callback;
+  private final CountDownLatch done = new CountDownLatch(1);
+  private boolean finished = false;
+  private boolean cancelled = false;
+  private ResultSet resultSet;
+  private SQLException error;
+
+  AsyncExecution(HiveStatement statement, ExecutionCallback callback) {
+    this.statement = statement;
+    this.callback = callback;
+  }
+
+  private static ScheduledExecutorService newStatusPoller() {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+        Math.max(2, Runtime.getRuntime().availableProcessors()),
+        new DaemonThreadFactory("gs-jdbc-status"));
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+
+  static void schedule(Runnable poll, long delayMillis) {
+    STATUS_POLLER.schedule(poll, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public HiveStatement getStatement() {
+    return statement;
+  }
+
+  void complete(ResultSet resultSet) {
+    synchronized (this) {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      this.resultSet = resultSet;
+    }
+    done.countDown();
+    if (callback != null) {
+      try {
+        callback.onSuccess(resultSet);
+      } catch (RuntimeException e) {
+        LOGGER.error("Execution callback failed:", e);
+      }
+    }
+  }
+
+  void fail(SQLException error) {
+    synchronized (this) {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      this.error = error;
+    }
+    done.countDown();
+    if (callback != null) {
+      try {
+        callback.onFailure(error);
+      } catch (RuntimeException e) {
+        LOGGER.error("Execution callback failed:", e);
+      }
+    }
+  }
+
+  /**
+   * Cancel the operation on the server, the callback sees a "Query was cancelled" failure
+   *
+   * @param mayInterruptIfRunning ignored, no thread of the caller is running the query
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    synchronized (this) {
+      if (finished) {
+        return false;
+      }
+      cancelled = true;
+    }
+    try {
+      statement.cancel();
+    } catch (SQLException e) {
+      LOGGER.warn("Cancel of the asynchronous execution failed: " + e.getMessage());
+    }
+    fail(new SQLException("Query was cancelled", "01000"));
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return finished;
+  }
+
+  @Override
+  public ResultSet get() throws InterruptedException, ExecutionException {
+    done.await();
+    return result();
+  }
+
+  @Override
+  public ResultSet get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    if (!done.await(timeout, unit)) {
+      throw new TimeoutException("Statement still running after " + timeout + " " + unit);
+    }
+    return result();
+  }
+
+  private synchronized ResultSet result() throws ExecutionException {
+    if (cancelled) {
+      throw new CancellationException("Query was cancelled");
+    }
+    if (error != null) {
+      throw new ExecutionException(error);
+    }
+    return resultSet;
+  }
+}
@@ -0,0 +1,282 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.apache.hive.service.cli.thrift.TColumn;
+
+/**
+ * ColumnVector.
+ *
+ * Values of one column of a fetched batch, kept in a primitive array of the column's
+ * wire type: boolean for BOOLEAN, long for TINYINT/SMALLINT/INT/BIGINT, double for
+ * FLOAT/DOUBLE and Object (String or byte[]) for everything else. Rows are 0-based.
+ * The typed getters return false/0 for NULL cells, check {@link #isNull(int)} first.
+ *
+ * The wire values are only copied into the array when the column is first read,
+ * columns nobody reads cost nothing beyond the Thrift decoding.
+ */
+public final class ColumnVector {
+
+  private static final int BOOLEAN = 0;
+  private static final int BYTE = 1;
+  private static final int SHORT = 2;
+  private static final int INT = 3;
+  private static final int LONG = 4;
+  private static final int DOUBLE = 5;
+  private static final int STRING = 6;
+  private static final int BINARY = 7;
+  private static final int UNKNOWN = -1;
+
+  private final String type;
+  private final int kind;
+  private final int size;
+  private final byte[] nulls;
+  /** wire values, released once decoded */
+  private List<?> values;
+  private boolean[] booleans;
+  private long[] longs;
+  private double[] doubles;
+  private Object[] objects;
+
+  ColumnVector(String type, TColumn column) {
+    this.type = type;
+    if (column.isSetBoolVal()) {
+      kind = BOOLEAN;
+      values = column.getBoolVal().getValues();
+      nulls = column.getBoolVal().getNulls();
+    } else if (column.isSetByteVal()) {
+      kind = BYTE;
+      values = column.getByteVal().getValues();
+      nulls = column.getByteVal().getNulls();
+    } else if (column.isSetI16Val()) {
+      kind = SHORT;
+      values = column.getI16Val().getValues();
+      nulls = column.getI16Val().getNulls();
+    } else if (column.isSetI32Val()) {
+      kind = INT;
+      values = column.getI32Val().getValues();
+      nulls = column.getI32Val().getNulls();
+    } else if (column.isSetI64Val()) {
+      kind = LONG;
+      values = column.getI64Val().getValues();
+      nulls = column.getI64Val().getNulls();
+    } else if (column.isSetDoubleVal()) {
+      kind = DOUBLE;
+      values = column.getDoubleVal().getValues();
+      nulls = column.getDoubleVal().getNulls();
+    } else if (column.isSetStringVal()) {
+      kind = STRING;
+      values = column.getStringVal().getValues();
+      nulls = column.getStringVal().getNulls();
+    } else if (column.isSetBinaryVal()) {
+      kind = BINARY;
+      values = column.getBinaryVal().getValues();
+      nulls = column.getBinaryVal().getNulls();
+    } else {
+      kind = UNKNOWN;
+      nulls = null;
+    }
+    size = values == null ? 0 : values.size();
+  }
+
+  private void decode() {
+    switch (kind) {
+      case BOOLEAN:
+        booleans = new boolean[size];
+        for (int i = 0; i < size; i++) {
+          Boolean value = (Boolean) values.get(i);
+          booleans[i] = value != null && value;
+        }
+        break;
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+        longs = new long[size];
+        for (int i = 0; i < size; i++) {
+          Number value = (Number) values.get(i);
+          longs[i] = value == null ? 0 : value.longValue();
+        }
+        break;
+      case DOUBLE:
+        doubles = new double[size];
+        for (int i = 0; i < size; i++) {
+          Double value = (Double) values.get(i);
+          doubles[i] = value == null ? 0 : value;
+        }
+        break;
+      case STRING:
+        objects = values.toArray();
+        break;
+      case BINARY:
+        objects = new Object[size];
+        for (int i = 0; i < size; i++) {
+          ByteBuffer value = (ByteBuffer) values.get(i);
+          if (value != null) {
+            byte[] bytes = new byte[value.remaining()];
+            value.duplicate().get(bytes);
+            objects[i] = bytes;
+          }
+        }
+        break;
+      default:
+        break;
+    }
+    values = null;
+  }
+
+  /**
+   * Type name of the column as reported by ResultSetMetaData, e.g. "bigint"
+   */
+  public String getType() {
+    return type;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isNull(int row) {
+    int index = row / 8;
+    return nulls != null && index < nulls.length && (nulls[index] & (1 << (row % 8))) != 0;
+  }
+
+  public boolean isBoolean() {
+    return kind == BOOLEAN;
+  }
+
+  /**
+   * True for TINYINT, SMALLINT, INT and BIGINT columns
+   */
+  public boolean isIntegral() {
+    return kind == BYTE || kind == SHORT || kind == INT || kind == LONG;
+  }
+
+  /**
+   * True for FLOAT and DOUBLE columns
+   */
+  public boolean isFloatingPoint() {
+    return kind == DOUBLE;
+  }
+
+  /**
+   * True for columns sent as text or bytes, see {@link #getString(int)}
+   */
+  public boolean isText() {
+    return kind == STRING || kind == BINARY;
+  }
+
+  public boolean getBoolean(int row) {
+    if (!isBoolean()) {
+      throw new IllegalStateException("Column of type " + type + " has no boolean values");
+    }
+    if (values != null) {
+      decode();
+    }
+    return booleans[row];
+  }
+
+  public int getInt(int row) {
+    return (int) getLong(row);
+  }
+
+  public long getLong(int row) {
+    if (!isIntegral()) {
+      throw new IllegalStateException("Column of type " + type + " has no integral values");
+    }
+    if (values != null) {
+      decode();
+    }
+    return longs[row];
+  }
+
+  /**
+   * Value of a FLOAT/DOUBLE column, integral columns are widened
+   */
+  public double getDouble(int row) {
+    if (isIntegral()) {
+      return getLong(row);
+    }
+    if (!isFloatingPoint()) {
+      throw new IllegalStateException("Column of type " + type + " has no numeric values");
+    }
+    if (values != null) {
+      decode();
+    }
+    return doubles[row];
+  }
+
+  /**
+   * Value of a column sent as text, which includes STRING, VARCHAR, CHAR, TIMESTAMP,
+   * DATE, DECIMAL and the complex types
+   */
+  public String getString(int row) {
+    Object value = getText(row);
+    return value instanceof byte[] ? new String((byte[]) value) : (String) value;
+  }
+
+  public byte[] getBytes(int row) {
+    Object value = getText(row);
+    return value instanceof String ? ((String) value).getBytes() : (byte[]) value;
+  }
+
+  private Object getText(int row) {
+    if (!isText()) {
+      throw new IllegalStateException("Column of type " + type + " has no text values");
+    }
+    if (isNull(row)) {
+      return null;
+    }
+    if (values != null) {
+      decode();
+    }
+    return objects[row];
+  }
+
+  /**
+   * Wire value of the cell, boxed as the row based result set always did; null for NULL
+   */
+  public Object getObject(int row) {
+    if (isNull(row)) {
+      return null;
+    }
+    switch (kind) {
+      case BOOLEAN:
+        return getBoolean(row);
+      case BYTE:
+        return (byte) getLong(row);
+      case SHORT:
+        return (short) getLong(row);
+      case INT:
+        return (int) getLong(row);
+      case LONG:
+        return getLong(row);
+      case DOUBLE:
+        return getDouble(row);
+      case STRING:
+      case BINARY:
+        return getText(row);
+      default:
+        return null;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.util.List;
+
+import org.apache.hive.service.cli.thrift.TColumn;
+import org.apache.hive.service.cli.thrift.TRowSet;
+
+/**
+ * ColumnarBatch.
+ *
+ * One fetched batch of a result set as column vectors, see {@link ColumnarResultSet}.
+ */
+public final class ColumnarBatch {
+
+  private final ColumnVector[] columns;
+  private int numRows;
+
+  ColumnarBatch(TRowSet rowSet, List<String> columnTypes) {
+    List<TColumn> tColumns = rowSet.getColumns();
+    columns = new ColumnVector[tColumns.size()];
+    for (int i = 0; i < columns.length; i++) {
+      String type = i < columnTypes.size() ? columnTypes.get(i) : null;
+      columns[i] = new ColumnVector(type, tColumns.get(i));
+    }
+    numRows = columns.length == 0 ? 0 : columns[0].size();
+  }
+
+  public int getNumRows() {
+    return numRows;
+  }
+
+  public int getColumnCount() {
+    return columns.length;
+  }
+
+  /**
+   * @param columnIndex the first column is 1, the second is 2, ...
+   */
+  public ColumnVector getColumn(int columnIndex) {
+    if (columnIndex < 1 || columnIndex > columns.length) {
+      throw new IndexOutOfBoundsException("Invalid columnIndex: " + columnIndex);
+    }
+    return columns[columnIndex - 1];
+  }
+
+  /**
+   * Drop the rows past the result set's max rows
+   */
+  void limit(int rows) {
+    numRows = Math.min(numRows, rows);
+  }
+}
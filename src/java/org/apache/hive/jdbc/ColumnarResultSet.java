@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * ColumnarResultSet.
+ *
+ * Batch-at-a-time access to a query result, for readers that scan numeric columns in
+ * tight loops. Values come straight from the column-based rows of protocol V6 and later,
+ * unboxed into primitive arrays once per batch instead of boxed per cell.
+ *
+ * <pre>
+ * ColumnarResultSet columnar = resultSet.unwrap(ColumnarResultSet.class);
+ * for (ColumnarBatch batch = columnar.nextBatch(); batch != null; batch = columnar.nextBatch()) {
+ *   ColumnVector amount = batch.getColumn(2);
+ *   for (int row = 0; row &lt; batch.getNumRows(); row++) {
+ *     if (!amount.isNull(row)) {
+ *       sum += amount.getLong(row);
+ *     }
+ *   }
+ * }
+ * </pre>
+ *
+ * A result set is read either row by row with next() or by batches, not both.
+ */
+public interface ColumnarResultSet {
+
+  /**
+   * Fetch the next batch of rows.
+   *
+   * @return the batch, or null when the results are exhausted
+   * @throws SQLException if the result set is closed, was already read with next(),
+   *     is scrollable or the server does not send column-based rows
+   */
+  ColumnarBatch nextBatch() throws SQLException;
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.gridsum.impala.util.DaemonThreadFactory;
+import org.apache.thrift.transport.TTransport;
+
+/**
+ * ConnectRace.
+ *
+ * Connects to the first of a list of coordinators and, while no attempt has succeeded,
+ * to the next one every CONNECT_RACE_DELAY ms, or at once when all running attempts
+ * failed. The first open transport wins, transports of attempts finishing later are
+ * closed. A slow coordinator then costs the delay instead of the connect timeout.
+ * Attempts run in the access control context of the thread that created the race, so
+ * a Kerberos login taken from the caller's Subject (fromSubject, UGI doAs) still applies.
+ */
+class ConnectRace {
+
+  /**
+   * Opens an authenticated transport to one coordinator, runs on a race thread
+   */
+  interface Connector {
+    TTransport connect(String host) throws Exception;
+  }
+
+  private static final ExecutorService CONNECTORS =
+      Executors.newCachedThreadPool(new DaemonThreadFactory("gs-jdbc-connect"));
+
+  private final Connector connector;
+  private final long delay;
+  private final AccessControlContext context;
+
+  private String winner;
+  private TTransport transport;
+  private int started = 0;
+  private int failed = 0;
+  private Exception lastError;
+  /** the caller gave up, late transports are closed */
+  private boolean abandoned = false;
+
+  ConnectRace(Connector connector, long delay) {
+    this.connector = connector;
+    this.delay = delay;
+    this.context = AccessController.getContext();
+  }
+
+  /**
+   * @param hosts coordinators in order of preference
+   * @return the host whose transport won, see {@link #getTransport()}
+   */
+  synchronized String run(List<String> hosts) throws SQLException {
+    long nextStart = 0;
+    try {
+      while (winner == null) {
+        long now = System.currentTimeMillis();
+        boolean allFailed = failed == started;
+        if (started < hosts.size() && (allFailed || now >= nextStart)) {
+          start(hosts.get(started++));
+          nextStart = now + delay;
+          continue;
+        }
+        if (allFailed) {
+          throw new SQLException("Could not open client transport to any of " + hosts + ": "
+              + (lastError == null ? "" : lastError.getMessage()), "08S01", lastError);
+        }
+        wait(started < hosts.size() ? Math.max(1, nextStart - now) : 0);
+      }
+      return winner;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while connecting", "08S01", e);
+    } finally {
+      if (winner == null) {
+        abandoned = true;
+      }
+    }
+  }
+
+  synchronized TTransport getTransport() {
+    return transport;
+  }
+
+  private void start(final String host) {
+    CONNECTORS.execute(new Runnable() {
+      @Override
+      public void run() {
+        TTransport connected;
+        try {
+          connected = AccessController.doPrivileged(
+              new PrivilegedExceptionAction<TTransport>() {
+                @Override
+                public TTransport run() throws Exception {
+                  return connector.connect(host);
+                }
+              }, context);
+        } catch (PrivilegedActionException e) {
+          onFailure(e.getException());
+          return;
+        } catch (Exception e) {
+          onFailure(e);
+          return;
+        }
+        onConnected(host, connected);
+      }
+    });
+  }
+
+  private synchronized void onConnected(String host, TTransport connected) {
+    if (winner != null || abandoned) {
+      connected.close();
+      return;
+    }
+    winner = host;
+    transport = connected;
+    notifyAll();
+  }
+
+  private synchronized void onFailure(Exception e) {
+    failed++;
+    lastError = e;
+    notifyAll();
+  }
+}
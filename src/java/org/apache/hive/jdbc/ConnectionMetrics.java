@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ConnectionMetrics.
+ *
+ * Counters of the RPC work done on behalf of one connection, shared by its statements.
+ * Obtain them through connection.unwrap(HiveConnection.class).getMetrics().
+ */
+public class ConnectionMetrics {
+
+  private final AtomicLong executions = new AtomicLong();
+  private final AtomicLong statusPolls = new AtomicLong();
+  private final AtomicLong pollWaitMillis = new AtomicLong();
+  private final AtomicLong cancels = new AtomicLong();
+  private final AtomicLong cancelMillis = new AtomicLong();
+  private final AtomicLong maxCancelMillis = new AtomicLong();
+  private final AtomicLong predictFallbacks = new AtomicLong();
+
+  void recordExecution() {
+    executions.incrementAndGet();
+  }
+
+  void recordStatusPoll() {
+    statusPolls.incrementAndGet();
+  }
+
+  void recordPollWait(long millis) {
+    pollWaitMillis.addAndGet(millis);
+  }
+
+  void recordCancel(long millis) {
+    cancels.incrementAndGet();
+    cancelMillis.addAndGet(millis);
+    long max = maxCancelMillis.get();
+    while (millis > max && !maxCancelMillis.compareAndSet(max, millis)) {
+      max = maxCancelMillis.get();
+    }
+  }
+
+  void recordPredictFallback() {
+    predictFallbacks.incrementAndGet();
+  }
+
+  /**
+   * Statements executed and polled until completion
+   */
+  public long getExecutions() {
+    return executions.get();
+  }
+
+  /**
+   * GetOperationStatus calls
+   */
+  public long getStatusPolls() {
+    return statusPolls.get();
+  }
+
+  /**
+   * Time spent sleeping between GetOperationStatus calls
+   */
+  public long getPollWaitMillis() {
+    return pollWaitMillis.get();
+  }
+
+  /**
+   * CancelOperation calls, successful or not
+   */
+  public long getCancels() {
+    return cancels.get();
+  }
+
+  /**
+   * Total time from Statement.cancel() to the server's answer
+   */
+  public long getCancelMillis() {
+    return cancelMillis.get();
+  }
+
+  /**
+   * Slowest cancel so far
+   */
+  public long getMaxCancelMillis() {
+    return maxCancelMillis.get();
+  }
+
+  /**
+   * Queries run without a memory prediction, it failed or was not back in time
+   */
+  public long getPredictFallbacks() {
+    return predictFallbacks.get();
+  }
+
+  @Override
+  public String toString() {
+    return "executions=" + getExecutions() + ", statusPolls=" + getStatusPolls()
+        + ", pollWaitMillis=" + getPollWaitMillis() + ", cancels=" + getCancels()
+        + ", cancelMillis=" + getCancelMillis() + ", maxCancelMillis=" + getMaxCancelMillis()
+        + ", predictFallbacks=" + getPredictFallbacks();
+  }
+}
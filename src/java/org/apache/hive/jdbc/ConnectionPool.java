@@ -0,0 +1,280 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+
+import com.gridsum.impala.util.DaemonThreadFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * ConnectionPool.
+ *
+ * Pool of physical connections of one HiveDataSource, user and password. Idle connections are
+ * reused most recently returned first; a borrowed connection is validated when it sat
+ * idle longer than the validation interval, and its session state is reset when it is
+ * returned. A housekeeping task keeps minIdle connections open and reports connections
+ * borrowed for longer than the leak detection threshold.
+ */
+class ConnectionPool implements ConnectionEventListener {
+  private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class);
+
+  private static final long HOUSEKEEPING_INTERVAL_MS = 5000;
+  private static final ScheduledExecutorService HOUSEKEEPER =
+      Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("gs-jdbc-pool"));
+
+  private final HiveDataSource dataSource;
+  private final String user;
+  private final String password;
+
+  private final LinkedList<HivePooledConnection> idle = new LinkedList<HivePooledConnection>();
+  private final Set<HivePooledConnection> borrowed =
+      Collections.newSetFromMap(new IdentityHashMap<HivePooledConnection, Boolean>());
+  /** idle, borrowed and being opened */
+  private int total = 0;
+  private boolean closed = false;
+  private final ScheduledFuture<?> housekeeping;
+
+  ConnectionPool(HiveDataSource dataSource, String user, String password) {
+    this.dataSource = dataSource;
+    this.user = user;
+    this.password = password;
+    this.housekeeping = HOUSEKEEPER.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          detectLeaks();
+          fillIdle();
+        } catch (RuntimeException e) {
+          LOGGER.error("Connection pool housekeeping failed:", e);
+        }
+      }
+    }, 0, HOUSEKEEPING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  Connection borrow() throws SQLException {
+    long deadline = System.currentTimeMillis() + dataSource.getMaxWaitMillis();
+    while (true) {
+      HivePooledConnection pooled = takeIdleOrReserve(deadline);
+      if (pooled == null) {
+        pooled = open();
+      } else if (!validate(pooled)) {
+        destroy(pooled);
+        continue;
+      }
+      synchronized (this) {
+        borrowed.add(pooled);
+      }
+      pooled.onBorrow(dataSource.getLeakDetectionThreshold() > 0);
+      return pooled.getConnection();
+    }
+  }
+
+  /**
+   * @return an idle connection, or null when the caller may open a new one
+   */
+  private synchronized HivePooledConnection takeIdleOrReserve(long deadline) throws SQLException {
+    while (true) {
+      if (closed) {
+        throw new SQLException("Data source is closed", "08003");
+      }
+      if (!idle.isEmpty()) {
+        return idle.removeFirst();
+      }
+      if (total < dataSource.getMaxTotal()) {
+        total++;
+        return null;
+      }
+      long wait = deadline - System.currentTimeMillis();
+      if (wait <= 0) {
+        throw new SQLException("Timed out after " + dataSource.getMaxWaitMillis()
+            + "ms waiting for a pooled connection, " + total + " in use", "08001");
+      }
+      try {
+        wait(wait);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted while waiting for a pooled connection", "08001", e);
+      }
+    }
+  }
+
+  /**
+   * Open a physical connection, the caller reserved its slot in total
+   */
+  private HivePooledConnection open() throws SQLException {
+    try {
+      HivePooledConnection pooled =
+          new HivePooledConnection(dataSource.openConnection(user, password));
+      pooled.addConnectionEventListener(this);
+      return pooled;
+    } catch (SQLException e) {
+      release();
+      throw e;
+    } catch (RuntimeException e) {
+      release();
+      throw e;
+    }
+  }
+
+  private boolean validate(HivePooledConnection pooled) {
+    long interval = dataSource.getValidationInterval();
+    if (interval < 0 || System.currentTimeMillis() - pooled.getIdleSince() < interval) {
+      return true;
+    }
+    try {
+      return pooled.getPhysicalConnection().isValid(dataSource.getValidationTimeout());
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public void connectionClosed(ConnectionEvent event) {
+    HivePooledConnection pooled = (HivePooledConnection) event.getSource();
+    synchronized (this) {
+      if (!borrowed.remove(pooled)) {
+        return;
+      }
+    }
+    pooled.onReturn();
+    boolean reusable = !pooled.isBroken() && pooled.getPhysicalConnection().resetSessionState();
+    synchronized (this) {
+      if (reusable && !closed && idle.size() < dataSource.getMaxIdle()) {
+        idle.addFirst(pooled);
+        notifyAll();
+        return;
+      }
+    }
+    destroy(pooled);
+  }
+
+  @Override
+  public void connectionErrorOccurred(ConnectionEvent event) {
+    // the connection is marked broken and destroyed when its borrower closes it
+    LOGGER.warn("Pooled connection failed: " + event.getSQLException().getMessage());
+  }
+
+  private void destroy(HivePooledConnection pooled) {
+    pooled.removeConnectionEventListener(this);
+    try {
+      pooled.close();
+    } catch (SQLException e) {
+      LOGGER.warn("Error while closing a pooled connection. " + e.getMessage());
+    }
+    release();
+  }
+
+  private synchronized void release() {
+    total--;
+    notifyAll();
+  }
+
+  private void fillIdle() {
+    while (true) {
+      synchronized (this) {
+        if (closed || idle.size() >= dataSource.getMinIdle() || total >= dataSource.getMaxTotal()) {
+          return;
+        }
+        total++;
+      }
+      HivePooledConnection pooled;
+      try {
+        pooled = open();
+      } catch (SQLException e) {
+        LOGGER.warn("Could not open an idle pooled connection. " + e.getMessage());
+        return;
+      }
+      synchronized (this) {
+        if (!closed) {
+          idle.addLast(pooled);
+          notifyAll();
+          continue;
+        }
+      }
+      destroy(pooled);
+      return;
+    }
+  }
+
+  private void detectLeaks() {
+    long threshold = dataSource.getLeakDetectionThreshold();
+    if (threshold <= 0) {
+      return;
+    }
+    List<HivePooledConnection> candidates;
+    synchronized (this) {
+      candidates = new ArrayList<HivePooledConnection>(borrowed);
+    }
+    long now = System.currentTimeMillis();
+    for (HivePooledConnection pooled : candidates) {
+      long borrowedAt = pooled.getBorrowedAt();
+      if (borrowedAt > 0 && now - borrowedAt > threshold && pooled.markLeakReported()) {
+        LOGGER.warn("Connection borrowed " + (now - borrowedAt) + "ms ago was not returned,"
+            + " possible connection leak.", pooled.getBorrowTrace());
+      }
+    }
+  }
+
+  /**
+   * Close the idle connections, borrowed ones are closed when they come back
+   */
+  void close() {
+    List<HivePooledConnection> toClose;
+    synchronized (this) {
+      closed = true;
+      toClose = new ArrayList<HivePooledConnection>(idle);
+      idle.clear();
+      notifyAll();
+    }
+    housekeeping.cancel(false);
+    for (HivePooledConnection pooled : toClose) {
+      destroy(pooled);
+    }
+  }
+
+  /**
+   * @return true when no connection is open, borrowed or being opened
+   */
+  synchronized boolean isEmpty() {
+    return total == 0;
+  }
+
+  synchronized int getIdleCount() {
+    return idle.size();
+  }
+
+  synchronized int getActiveCount() {
+    return borrowed.size();
+  }
+}
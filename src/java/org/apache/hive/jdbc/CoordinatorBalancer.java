@@ -0,0 +1,262 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.gridsum.impala.GridSumJDBCConf;
+
+/**
+ * CoordinatorBalancer.
+ *
+ * Chooses the coordinator of a connection among the host of the Connection URL and the
+ * BACK_UP hosts. Hosts in cool-down after a failure or found down by the
+ * {@link CoordinatorProber} are skipped, the others are ordered
+ * by the LB_POLICY of the connection. One balancer per host list and policy, shared by
+ * all connections of the JVM.
+ */
+class CoordinatorBalancer {
+  static final String FAILOVER = "failover";
+  static final String ROUND_ROBIN = "round-robin";
+  static final String LEAST_OUTSTANDING = "least-outstanding";
+  static final String LATENCY_WEIGHTED = "latency-weighted";
+
+  private static final ConcurrentMap<String, CoordinatorBalancer> BALANCERS =
+      new ConcurrentHashMap<String, CoordinatorBalancer>();
+
+  /**
+   * Order in which the available coordinators are tried
+   */
+  interface Policy {
+    List<CoordinatorHost> order(List<CoordinatorHost> available);
+  }
+
+  private final List<CoordinatorHost> hosts;
+  private final Policy policy;
+
+  private CoordinatorBalancer(List<CoordinatorHost> hosts, Policy policy) {
+    this.hosts = hosts;
+    this.policy = policy;
+  }
+
+  /**
+   * @param hosts first the host of the Connection URL, then the BACK_UP hosts
+   * @param policyName one of failover (default), round-robin, least-outstanding,
+   * latency-weighted
+   */
+  static CoordinatorBalancer of(List<String> hosts, int port, String policyName)
+      throws SQLException {
+    String name = policyName == null ? FAILOVER : policyName.trim().toLowerCase();
+    String key = name + "|" + port + "|" + hosts;
+    CoordinatorBalancer balancer = BALANCERS.get(key);
+    if (balancer == null) {
+      List<CoordinatorHost> coordinators = new ArrayList<CoordinatorHost>();
+      for (String host : hosts) {
+        coordinators.add(CoordinatorHost.of(host, port));
+      }
+      CoordinatorBalancer created =
+          new CoordinatorBalancer(Collections.unmodifiableList(coordinators), newPolicy(name));
+      balancer = BALANCERS.putIfAbsent(key, created);
+      if (balancer == null) {
+        balancer = created;
+      }
+    }
+    return balancer;
+  }
+
+  private static Policy newPolicy(String name) throws SQLException {
+    if (FAILOVER.equals(name)) {
+      return new FailoverPolicy();
+    } else if (ROUND_ROBIN.equals(name)) {
+      return new RoundRobinPolicy();
+    } else if (LEAST_OUTSTANDING.equals(name)) {
+      return new LeastOutstandingPolicy();
+    } else if (LATENCY_WEIGHTED.equals(name)) {
+      return new LatencyWeightedPolicy();
+    }
+    throw new SQLException("Unknown LB_POLICY<" + name + ">, use one of " + FAILOVER + ", "
+        + ROUND_ROBIN + ", " + LEAST_OUTSTANDING + ", " + LATENCY_WEIGHTED + ".");
+  }
+
+  /**
+   * All hosts in the order to try them: the available ones by policy, then the ones in
+   * cool-down or down, the soonest cool-down to end first
+   */
+  List<String> order() {
+    long now = System.currentTimeMillis();
+    List<CoordinatorHost> available = new ArrayList<CoordinatorHost>();
+    List<CoordinatorHost> coolingDown = new ArrayList<CoordinatorHost>();
+    for (CoordinatorHost host : hosts) {
+      host.touch();
+      if (!host.isAvailable(now)) {
+        coolingDown.add(host);
+      } else {
+        available.add(host);
+      }
+    }
+    Collections.sort(coolingDown, new Comparator<CoordinatorHost>() {
+      @Override
+      public int compare(CoordinatorHost a, CoordinatorHost b) {
+        return Long.compare(a.getCoolDownUntil(), b.getCoolDownUntil());
+      }
+    });
+    List<String> ordered = new ArrayList<String>();
+    for (CoordinatorHost host : policy.order(available)) {
+      ordered.add(host.getHost());
+    }
+    for (CoordinatorHost host : coolingDown) {
+      ordered.add(host.getHost());
+    }
+    return ordered;
+  }
+
+  /**
+   * Hosts to fail over to in the order to try them
+   *
+   * @return empty when every host not tried yet is in cool-down or down
+   */
+  List<String> candidates(Collection<String> tried) {
+    long now = System.currentTimeMillis();
+    List<CoordinatorHost> available = new ArrayList<CoordinatorHost>();
+    for (CoordinatorHost host : hosts) {
+      if (!tried.contains(host.getHost()) && host.isAvailable(now)) {
+        available.add(host);
+      }
+    }
+    List<String> ordered = new ArrayList<String>();
+    for (CoordinatorHost host : policy.order(available)) {
+      ordered.add(host.getHost());
+    }
+    return ordered;
+  }
+
+  void onSuccess(String host, long latency) {
+    get(host).onSuccess(latency);
+  }
+
+  void onFailure(String host) {
+    // backup.timeout is in seconds
+    get(host).onFailure(GridSumJDBCConf.getBackupTimeOut() * 1000L);
+  }
+
+  CoordinatorHost get(String host) {
+    for (CoordinatorHost coordinator : hosts) {
+      if (coordinator.getHost().equals(host)) {
+        return coordinator;
+      }
+    }
+    throw new IllegalArgumentException(host + " is not one of " + hosts);
+  }
+
+  List<CoordinatorHost> getHosts() {
+    return hosts;
+  }
+
+  /**
+   * The URL host while it is available, the BACK_UP hosts in their order after it
+   */
+  static class FailoverPolicy implements Policy {
+    @Override
+    public List<CoordinatorHost> order(List<CoordinatorHost> available) {
+      return available;
+    }
+  }
+
+  static class RoundRobinPolicy implements Policy {
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public List<CoordinatorHost> order(List<CoordinatorHost> available) {
+      List<CoordinatorHost> ordered = new ArrayList<CoordinatorHost>(available);
+      if (!ordered.isEmpty()) {
+        Collections.rotate(ordered, -((next.getAndIncrement() & Integer.MAX_VALUE)
+            % ordered.size()));
+      }
+      return ordered;
+    }
+  }
+
+  /**
+   * Fewest queries of this JVM running on the coordinator first, ties go round robin
+   */
+  static class LeastOutstandingPolicy extends RoundRobinPolicy {
+    @Override
+    public List<CoordinatorHost> order(List<CoordinatorHost> available) {
+      List<CoordinatorHost> ordered = super.order(available);
+      Collections.sort(ordered, new Comparator<CoordinatorHost>() {
+        @Override
+        public int compare(CoordinatorHost a, CoordinatorHost b) {
+          return Integer.compare(a.getOutstanding(), b.getOutstanding());
+        }
+      });
+      return ordered;
+    }
+  }
+
+  /**
+   * Random order weighted by health over connect latency, a host without a measured
+   * latency is weighted like the fastest one
+   */
+  static class LatencyWeightedPolicy implements Policy {
+    @Override
+    public List<CoordinatorHost> order(List<CoordinatorHost> available) {
+      long fastest = Long.MAX_VALUE;
+      for (CoordinatorHost host : available) {
+        if (host.getLatencyMillis() >= 0) {
+          fastest = Math.min(fastest, host.getLatencyMillis());
+        }
+      }
+      List<CoordinatorHost> remaining = new ArrayList<CoordinatorHost>(available);
+      List<Double> weights = new ArrayList<Double>();
+      double total = 0;
+      for (CoordinatorHost host : remaining) {
+        long latency = host.getLatencyMillis() >= 0 ? host.getLatencyMillis() : fastest;
+        if (latency == Long.MAX_VALUE) {
+          // nothing measured yet
+          latency = 1;
+        }
+        double weight = (host.getHealth() + 1.0) / Math.max(1, latency);
+        weights.add(weight);
+        total += weight;
+      }
+      List<CoordinatorHost> ordered = new ArrayList<CoordinatorHost>();
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      while (!remaining.isEmpty()) {
+        double pick = random.nextDouble() * total;
+        int i = 0;
+        while (i < remaining.size() - 1 && pick >= weights.get(i)) {
+          pick -= weights.get(i);
+          i++;
+        }
+        total -= weights.remove(i);
+        ordered.add(remaining.remove(i));
+      }
+      return ordered;
+    }
+  }
+}
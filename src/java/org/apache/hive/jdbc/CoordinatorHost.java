@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CoordinatorHost.
+ *
+ * What the connections of this JVM know about one coordinator: queries running on it,
+ * connect latency, a health score, the cool-down after failures and the outcome of the
+ * last background probe. One instance per host and port, shared by all connections and
+ * updated without locks.
+ */
+class CoordinatorHost {
+  private static final ConcurrentMap<String, CoordinatorHost> HOSTS =
+      new ConcurrentHashMap<String, CoordinatorHost>();
+
+  static final int MAX_HEALTH = 1000;
+  private static final int HEALTH_RECOVERY = 100;
+  /** the cool-down doubles with every failure in a row, up to this factor */
+  private static final int MAX_COOL_DOWN_FACTOR = 16;
+
+  private final String host;
+  private final int port;
+  private final AtomicInteger outstanding = new AtomicInteger();
+  /** moving average, -1 until the first connect */
+  private final AtomicLong latencyMillis = new AtomicLong(-1);
+  private final AtomicInteger health = new AtomicInteger(MAX_HEALTH);
+  private final AtomicInteger failures = new AtomicInteger();
+  private volatile long coolDownUntil = 0;
+  /** outcome of the last probe, null before the first one */
+  private volatile Boolean reachable = null;
+  private volatile long lastUsed = System.currentTimeMillis();
+  private final AtomicBoolean probing = new AtomicBoolean();
+
+  private CoordinatorHost(String host, int port) {
+    this.host = host;
+    this.port = port;
+  }
+
+  static CoordinatorHost of(String host, int port) {
+    String key = host + ":" + port;
+    CoordinatorHost coordinator = HOSTS.get(key);
+    if (coordinator == null) {
+      CoordinatorHost created = new CoordinatorHost(host, port);
+      coordinator = HOSTS.putIfAbsent(key, created);
+      if (coordinator == null) {
+        coordinator = created;
+      }
+    }
+    return coordinator;
+  }
+
+  /**
+   * Every coordinator a connection of this JVM used
+   */
+  static Collection<CoordinatorHost> all() {
+    return HOSTS.values();
+  }
+
+  String getHost() {
+    return host;
+  }
+
+  int getPort() {
+    return port;
+  }
+
+  /**
+   * A connect to the coordinator succeeded
+   */
+  void onSuccess(long latency) {
+    failures.set(0);
+    coolDownUntil = 0;
+    reachable = Boolean.TRUE;
+    int current;
+    do {
+      current = health.get();
+    } while (current < MAX_HEALTH
+        && !health.compareAndSet(current, Math.min(MAX_HEALTH, current + HEALTH_RECOVERY)));
+    recordLatency(latency);
+  }
+
+  /**
+   * A connect to the coordinator or a call on it failed, it is not chosen for a while
+   *
+   * @param coolDown cool-down after the first failure in a row, units ms
+   */
+  void onFailure(long coolDown) {
+    int inRow = failures.incrementAndGet();
+    int current;
+    do {
+      current = health.get();
+    } while (!health.compareAndSet(current, current / 2));
+    long factor = Math.min(MAX_COOL_DOWN_FACTOR, 1L << Math.min(inRow - 1, 30));
+    coolDownUntil = System.currentTimeMillis() + coolDown * factor;
+  }
+
+  void recordLatency(long latency) {
+    long current;
+    long next;
+    do {
+      current = latencyMillis.get();
+      next = current < 0 ? latency : (current * 7 + latency) / 8;
+    } while (!latencyMillis.compareAndSet(current, next));
+  }
+
+  boolean isCoolingDown(long now) {
+    return now < coolDownUntil;
+  }
+
+  /**
+   * @return false while in cool-down or when the last probe could not reach it
+   */
+  boolean isAvailable(long now) {
+    return !isCoolingDown(now) && !isKnownDown();
+  }
+
+  boolean isKnownDown() {
+    return Boolean.FALSE.equals(reachable);
+  }
+
+  /**
+   * @return true when the outcome differs from the previous probe
+   */
+  boolean onProbe(boolean up) {
+    Boolean previous = reachable;
+    reachable = up;
+    return previous == null ? !up : previous != up;
+  }
+
+  /**
+   * @return false when a probe of the coordinator is already running
+   */
+  boolean startProbe() {
+    return probing.compareAndSet(false, true);
+  }
+
+  void endProbe() {
+    probing.set(false);
+  }
+
+  /**
+   * A connection uses the coordinator, it is probed while used
+   */
+  void touch() {
+    lastUsed = System.currentTimeMillis();
+  }
+
+  long getLastUsed() {
+    return lastUsed;
+  }
+
+  long getCoolDownUntil() {
+    return coolDownUntil;
+  }
+
+  void queryStarted() {
+    outstanding.incrementAndGet();
+  }
+
+  void queryFinished() {
+    outstanding.decrementAndGet();
+  }
+
+  int getOutstanding() {
+    return outstanding.get();
+  }
+
+  /**
+   * @return average connect latency, -1 when unknown
+   */
+  long getLatencyMillis() {
+    return latencyMillis.get();
+  }
+
+  /**
+   * @return 0 to {@link #MAX_HEALTH}, halved by every failure, recovering with successes
+   */
+  int getHealth() {
+    return health.get();
+  }
+
+  @Override
+  public String toString() {
+    return host + ":" + port + " [outstanding " + outstanding.get() + ", latency "
+        + latencyMillis.get() + "ms, health " + health.get()
+        + (isKnownDown() ? ", down" : "") + "]";
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.gridsum.impala.GridSumJDBCConf;
+import com.gridsum.impala.util.DaemonThreadFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * CoordinatorProber.
+ *
+ * Background TCP connect probes of the coordinators connections of this JVM use, every
+ * "health.probe.interval" ms of conf.properties. The outcome is kept in the shared
+ * {@link CoordinatorHost} table, so a new connection or a failover skips a host known to
+ * be down without waiting for its connect timeout, and Connection.isValid answers false
+ * for it at once. A coordinator no connection used for ten minutes is no longer probed.
+ */
+class CoordinatorProber {
+  private static final Logger LOGGER = Logger.getLogger(CoordinatorProber.class);
+
+  private static final long IDLE_LIMIT_MS = TimeUnit.MINUTES.toMillis(10);
+  private static final int PROBE_THREADS = 2;
+
+  private static ScheduledExecutorService executor;
+
+  private CoordinatorProber() {
+  }
+
+  /**
+   * Start the probes if conf.properties enables them, once per JVM
+   */
+  static synchronized void start() {
+    if (executor != null) {
+      return;
+    }
+    long interval = GridSumJDBCConf.getHealthProbeInterval();
+    if (interval <= 0) {
+      return;
+    }
+    executor = Executors.newScheduledThreadPool(PROBE_THREADS,
+        new DaemonThreadFactory("gs-jdbc-health"));
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          probeAll();
+        } catch (RuntimeException e) {
+          LOGGER.error("Coordinator health probe failed:", e);
+        }
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  private static void probeAll() {
+    long now = System.currentTimeMillis();
+    for (final CoordinatorHost host : CoordinatorHost.all()) {
+      if (now - host.getLastUsed() > IDLE_LIMIT_MS || !host.startProbe()) {
+        continue;
+      }
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            boolean up = isReachable(host);
+            if (host.onProbe(up)) {
+              LOGGER.info("Coordinator " + host.getHost() + ":" + host.getPort()
+                  + (up ? " is reachable again." : " is down."));
+            }
+          } finally {
+            host.endProbe();
+          }
+        }
+      });
+    }
+  }
+
+  private static boolean isReachable(CoordinatorHost host) {
+    Socket socket = new Socket();
+    try {
+      socket.connect(new InetSocketAddress(host.getHost(), host.getPort()),
+          GridSumJDBCConf.getHealthProbeTimeout());
+      return true;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // nothing to do
+      }
+    }
+  }
+}
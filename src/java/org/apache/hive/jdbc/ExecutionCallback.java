@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * ExecutionCallback.
+ *
+ * Outcome of a {@link HiveStatement#executeAsync(String, ExecutionCallback)}. The methods
+ * run on the shared status poll threads, hand longer work off to an executor of your own.
+ */
+public interface ExecutionCallback {
+
+  /**
+   * @param resultSet result of the statement, null when it has none
+   */
+  void onSuccess(ResultSet resultSet);
+
+  void onFailure(SQLException e);
+}
@@ -64,6 +64,51 @@ public abstract class HiveBaseResultSet implements ResultSet {
 
   private TableSchema schema;
 
+  // parses TIMESTAMP, DATE and DECIMAL text cells, reused for every row
+  private final TextValueParser parser = new TextValueParser();
+
+  /**
+   * Current row when rows come from a column-based batch, cells are evaluated on first
+   * access and kept until the cursor moves. decodedRows holds the rowStamp a cached
+   * value belongs to, so moving the cursor needs no clearing.
+   */
+  private ColumnarBatch batch;
+  private int batchRow;
+  private long rowStamp = 0;
+  private Object[] decodedValues;
+  private long[] decodedRows;
+
+  protected void setRow(Object[] row) {
+    this.row = row;
+    this.batch = null;
+  }
+
+  protected void setRow(ColumnarBatch batch, int batchRow) {
+    this.row = null;
+    this.batch = batch;
+    this.batchRow = batchRow;
+    rowStamp++;
+    int columnCount = batch.getColumnCount();
+    if (decodedValues == null || decodedValues.length != columnCount) {
+      decodedValues = new Object[columnCount];
+      decodedRows = new long[columnCount];
+    }
+  }
+
+  /**
+   * Column of the current row when it comes from a batch, for getters that read
+   * primitives without evaluating the cell; null otherwise
+   */
+  private ColumnVector batchColumn(int columnIndex) throws SQLException {
+    if (batch == null) {
+      return null;
+    }
+    if (columnIndex < 1 || columnIndex > batch.getColumnCount()) {
+      throw new SQLException("Invalid columnIndex: " + columnIndex);
+    }
+    return batch.getColumn(columnIndex);
+  }
+
   public boolean absolute(int row) throws SQLException {
     throw new SQLException("Method not supported");
   }
@@ -183,6 +228,11 @@ public abstract class HiveBaseResultSet implements ResultSet {
   }
 
   public boolean getBoolean(int columnIndex) throws SQLException {
+    ColumnVector column = batchColumn(columnIndex);
+    if (column != null && column.isBoolean()) {
+      wasNull = column.isNull(batchRow);
+      return column.getBoolean(batchRow);
+    }
     Object obj = getObject(columnIndex);
     if (Boolean.class.isInstance(obj)) {
       return (Boolean) obj;
@@ -256,7 +306,7 @@ public abstract class HiveBaseResultSet implements ResultSet {
     }
     try {
       if (obj instanceof String) {
-        return Date.valueOf((String)obj);
+        return parser.parseDate((String)obj);
       }
     } catch (Exception e) {
       throw new SQLException("Cannot convert column " + columnIndex
@@ -280,6 +330,11 @@ public abstract class HiveBaseResultSet implements ResultSet {
   }
 
   public double getDouble(int columnIndex) throws SQLException {
+    ColumnVector column = batchColumn(columnIndex);
+    if (column != null && (column.isFloatingPoint() || column.isIntegral())) {
+      wasNull = column.isNull(batchRow);
+      return column.getDouble(batchRow);
+    }
     try {
       Object obj = getObject(columnIndex);
       if (Number.class.isInstance(obj)) {
@@ -309,6 +364,11 @@ public abstract class HiveBaseResultSet implements ResultSet {
   }
 
   public float getFloat(int columnIndex) throws SQLException {
+    ColumnVector column = batchColumn(columnIndex);
+    if (column != null && (column.isFloatingPoint() || column.isIntegral())) {
+      wasNull = column.isNull(batchRow);
+      return (float) column.getDouble(batchRow);
+    }
     try {
       Object obj = getObject(columnIndex);
       if (Number.class.isInstance(obj)) {
@@ -334,6 +394,11 @@ public abstract class HiveBaseResultSet implements ResultSet {
   }
 
   public int getInt(int columnIndex) throws SQLException {
+    ColumnVector column = batchColumn(columnIndex);
+    if (column != null && column.isIntegral()) {
+      wasNull = column.isNull(batchRow);
+      return column.getInt(batchRow);
+    }
     try {
       Object obj = getObject(columnIndex);
       if (Number.class.isInstance(obj)) {
@@ -356,6 +421,11 @@ public abstract class HiveBaseResultSet implements ResultSet {
   }
 
   public long getLong(int columnIndex) throws SQLException {
+    ColumnVector column = batchColumn(columnIndex);
+    if (column != null && column.isIntegral()) {
+      wasNull = column.isNull(batchRow);
+      return column.getLong(batchRow);
+    }
     try {
       Object obj = getObject(columnIndex);
       if (Number.class.isInstance(obj)) {
@@ -406,6 +476,23 @@ public abstract class HiveBaseResultSet implements ResultSet {
   }
 
   private Object getColumnValue(int columnIndex) throws SQLException {
+    if (batch != null) {
+      return getBatchValue(columnIndex);
+    }
+    checkRowColumn(columnIndex);
+    Type columnType = getSchema().getColumnDescriptorAt(columnIndex - 1).getType();
+
+    try {
+      Object evaluated = evaluate(columnType, row[columnIndex - 1]);
+      wasNull = evaluated == null;
+      return evaluated;
+    } catch (Exception e) {
+      e.printStackTrace();
+      throw new SQLException("Unrecognized column type:" + columnType, e);
+    }
+  }
+
+  private void checkRowColumn(int columnIndex) throws SQLException {
     if (row == null) {
       throw new SQLException("No row found.");
     }
@@ -415,18 +502,93 @@ public abstract class HiveBaseResultSet implements ResultSet {
     if (columnIndex > row.length) {
       throw new SQLException("Invalid columnIndex: " + columnIndex);
     }
-    Type columnType = getSchema().getColumnDescriptorAt(columnIndex - 1).getType();
+  }
+
+  /**
+   * Value of the cell as sent by the server, before evaluate()
+   */
+  private Object getRawValue(int columnIndex) throws SQLException {
+    Object value;
+    if (batch != null) {
+      value = batchColumn(columnIndex).getObject(batchRow);
+    } else {
+      checkRowColumn(columnIndex);
+      value = row[columnIndex - 1];
+    }
+    wasNull = value == null;
+    return value;
+  }
 
+  /**
+   * Nanoseconds since the epoch of a TIMESTAMP or DATE column, read in the local time
+   * zone like getTimestamp, without creating a Timestamp. Returns 0 for NULL.
+   */
+  public long getEpochNanos(int columnIndex) throws SQLException {
+    Object value = getRawValue(columnIndex);
+    if (value == null) {
+      return 0;
+    }
+    if (!(value instanceof String)) {
+      throw new SQLException("Cannot convert column " + columnIndex + " to epoch nanos");
+    }
     try {
-      Object evaluated = evaluate(columnType, row[columnIndex - 1]);
-      wasNull = evaluated == null;
-      return evaluated;
-    } catch (Exception e) {
-      e.printStackTrace();
-      throw new SQLException("Unrecognized column type:" + columnType, e);
+      return parser.parseEpochNanos((String) value);
+    } catch (IllegalArgumentException e) {
+      throw new SQLException("Cannot convert column " + columnIndex
+          + " to epoch nanos: " + e.toString(), e);
+    }
+  }
+
+  public long getEpochNanos(String columnName) throws SQLException {
+    return getEpochNanos(findColumn(columnName));
+  }
+
+  /**
+   * Unscaled value of a DECIMAL column at its declared scale
+   * (ResultSetMetaData.getScale), without creating a BigDecimal. Returns 0 for NULL.
+   */
+  public long getUnscaledDecimal(int columnIndex) throws SQLException {
+    Object value = getRawValue(columnIndex);
+    if (value == null) {
+      return 0;
+    }
+    JdbcColumnAttributes attributes = columnAttributes == null
+        || columnIndex > columnAttributes.size() ? null : columnAttributes.get(columnIndex - 1);
+    if (!(value instanceof String) || attributes == null) {
+      throw new SQLException("Cannot convert column " + columnIndex + " to unscaled decimal");
+    }
+    try {
+      return parser.parseUnscaled((String) value, attributes.scale);
+    } catch (RuntimeException e) {
+      throw new SQLException("Cannot convert column " + columnIndex
+          + " to unscaled decimal: " + e.toString(), e);
     }
   }
 
+  public long getUnscaledDecimal(String columnName) throws SQLException {
+    return getUnscaledDecimal(findColumn(columnName));
+  }
+
+  private Object getBatchValue(int columnIndex) throws SQLException {
+    if (batch.getColumnCount() == 0) {
+      throw new SQLException("RowSet does not contain any columns!");
+    }
+    ColumnVector column = batchColumn(columnIndex);
+    int index = columnIndex - 1;
+    if (decodedRows[index] != rowStamp) {
+      Type columnType = getSchema().getColumnDescriptorAt(index).getType();
+      try {
+        decodedValues[index] = evaluate(columnType, column.getObject(batchRow));
+      } catch (Exception e) {
+        throw new SQLException("Unrecognized column type:" + columnType, e);
+      }
+      decodedRows[index] = rowStamp;
+    }
+    Object evaluated = decodedValues[index];
+    wasNull = evaluated == null;
+    return evaluated;
+  }
+
   private Object evaluate(Type type, Object value) {
     if (value == null) {
       return null;
@@ -438,11 +600,11 @@ public abstract class HiveBaseResultSet implements ResultSet {
         }
         return value;
       case TIMESTAMP_TYPE:
-        return Timestamp.valueOf((String) value);
+        return parser.parseTimestamp((String) value);
       case DECIMAL_TYPE:
-        return new BigDecimal((String)value);
+        return parser.parseDecimal((String) value);
       case DATE_TYPE:
-        return Date.valueOf((String) value);
+        return parser.parseDate((String) value);
       case ARRAY_TYPE:
       case MAP_TYPE:
       case STRUCT_TYPE:
@@ -498,6 +660,11 @@ public abstract class HiveBaseResultSet implements ResultSet {
   }
 
   public short getShort(int columnIndex) throws SQLException {
+    ColumnVector column = batchColumn(columnIndex);
+    if (column != null && column.isIntegral()) {
+      wasNull = column.isNull(batchRow);
+      return (short) column.getLong(batchRow);
+    }
     try {
       Object obj = getObject(columnIndex);
       if (Number.class.isInstance(obj)) {
@@ -566,7 +733,7 @@ public abstract class HiveBaseResultSet implements ResultSet {
       return (Timestamp) obj;
     }
     if (obj instanceof String) {
-      return Timestamp.valueOf((String)obj);
+      return parser.parseTimestamp((String)obj);
     }
     throw new SQLException("Illegal conversion");
   }
@@ -18,13 +18,13 @@
 
 package org.apache.hive.jdbc;
 
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.security.KeyStore;
 import java.sql.Array;
 import java.sql.Blob;
 import java.sql.CallableStatement;
@@ -44,8 +44,15 @@ import java.sql.Statement;
 import java.sql.Struct;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslException;
@@ -53,6 +60,8 @@ import javax.security.sasl.SaslException;
 import com.gridsum.impala.GridSumJDBCConf;
 import com.gridsum.impala.util.ImpalaConstants;
 import com.gridsum.impala.util.ConnectionParams;
+import com.gridsum.impala.util.DaemonThreadFactory;
+import com.gridsum.impala.util.StringUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.conf.HiveConf;
@@ -65,23 +74,39 @@ import org.apache.hive.service.cli.thrift.EmbeddedThriftBinaryCLIService;
 import org.apache.hive.service.cli.thrift.TCLIService;
 import org.apache.hive.service.cli.thrift.TCancelDelegationTokenReq;
 import org.apache.hive.service.cli.thrift.TCancelDelegationTokenResp;
+import org.apache.hive.service.cli.thrift.TCancelOperationReq;
+import org.apache.hive.service.cli.thrift.TCancelOperationResp;
+import org.apache.hive.service.cli.thrift.TCloseOperationReq;
+import org.apache.hive.service.cli.thrift.TCloseOperationResp;
 import org.apache.hive.service.cli.thrift.TCloseSessionReq;
+import org.apache.hive.service.cli.thrift.TExecuteStatementReq;
+import org.apache.hive.service.cli.thrift.TExecuteStatementResp;
 import org.apache.hive.service.cli.thrift.TGetDelegationTokenReq;
 import org.apache.hive.service.cli.thrift.TGetDelegationTokenResp;
+import org.apache.hive.service.cli.thrift.TGetInfoReq;
+import org.apache.hive.service.cli.thrift.TGetInfoResp;
+import org.apache.hive.service.cli.thrift.TGetInfoType;
 import org.apache.hive.service.cli.thrift.TOpenSessionReq;
 import org.apache.hive.service.cli.thrift.TOpenSessionResp;
+import org.apache.hive.service.cli.thrift.TOperationHandle;
 import org.apache.hive.service.cli.thrift.TProtocolVersion;
 import org.apache.hive.service.cli.thrift.TRenewDelegationTokenReq;
 import org.apache.hive.service.cli.thrift.TRenewDelegationTokenResp;
 import org.apache.hive.service.cli.thrift.TSessionHandle;
-import org.apache.http.HttpRequestInterceptor;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.ssl.SSLSocketFactory;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
 import org.apache.log4j.Logger;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.transport.THttpClient;
+import org.apache.thrift.transport.TNonblockingSocket;
+import org.apache.thrift.transport.TNonblockingTransport;
+import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 
@@ -95,6 +120,16 @@ public class HiveConnection implements java.sql.Connection {
   private static final Logger LOGGER = Logger.getLogger(HiveConnection.class);
   private static final String HIVE_VAR_PREFIX = "hivevar:";
   private static final String HIVE_CONF_PREFIX = "hiveconf:";
+  private static final String DEFAULT_FETCH_MEM_BUDGET_MB = "64";
+  private static final String DEFAULT_SCROLL_CACHE_MEM_MB = "64";
+  private static final int DEFAULT_CANCEL_TIMEOUT_MS = 5000;
+
+  /**
+   * Runs the round trip of isValid so the caller can give up after its timeout,
+   * a thread is only busy while a check waits for the client
+   */
+  private static final ExecutorService VALIDATORS =
+      Executors.newCachedThreadPool(new DaemonThreadFactory("gs-jdbc-validate"));
 
   protected String jdbcUriString;
   protected String host;
@@ -105,6 +140,12 @@ public class HiveConnection implements java.sql.Connection {
   protected JdbcConnectionParams connParams;
   private final boolean isEmbeddedMode;
   private TTransport transport;
+  /** transports besides the first one when TRANSPORT_POOL_SIZE is above 1 */
+  private final List<TTransport> pooledTransports = new ArrayList<TTransport>();
+  /** transport only used for CancelOperation, opened on the first cancel */
+  private TTransport cancelTransport;
+  private TCLIService.Iface cancelClient;
+  private final Object cancelLock = new Object();
   private boolean assumeSubject;
   // TODO should be replaced by CliServiceClient
   protected TCLIService.Iface client;
@@ -114,7 +155,16 @@ public class HiveConnection implements java.sql.Connection {
   protected final List<TProtocolVersion> supportedProtocols = new LinkedList<TProtocolVersion>();
   private int loginTimeout = 0;
   protected TProtocolVersion protocol;
-  private Map<String,Map<String,String>> backUpConfMap = null;
+  /** host, Kerberos principal and host FQDN of the Connection URL */
+  private String urlHost;
+  private String urlPrincipal;
+  private String urlKrbHostFQDN;
+  private final ConnectionMetrics metrics = new ConnectionMetrics();
+  private final SessionState sessionState = new SessionState();
+  /** cookies of the http transports, HiveServer2 authenticates them by its auth cookie */
+  private final CookieStore httpCookieStore = new BasicCookieStore();
+  /** SET-able connection parameters as opened, restored when a pooled connection is returned */
+  private Map<String, String> sessionDefaults;
 
   public HiveConnection(String uri, Properties info) throws SQLException {
     setupLoginTimeout();
@@ -147,6 +197,7 @@ public class HiveConnection implements java.sql.Connection {
       }
     }
 
+    sessionState.setBaseline(hiveConfMap, hiveVarMap, connParams.getDbName());
     isEmbeddedMode = connParams.isEmbeddedMode();
 
     // add supported protocols
@@ -158,6 +209,9 @@ public class HiveConnection implements java.sql.Connection {
     supportedProtocols.add(TProtocolVersion.HIVE_CLI_SERVICE_PROTOCOL_V6);
     supportedProtocols.add(TProtocolVersion.HIVE_CLI_SERVICE_PROTOCOL_V7);
 
+    long connectStart = System.currentTimeMillis();
+    // reConnection opened the session of a back up already
+    boolean failedOver = false;
     if (isEmbeddedMode) {
       EmbeddedThriftBinaryCLIService embeddedClient = new EmbeddedThriftBinaryCLIService();
       embeddedClient.init(new HiveConf());
@@ -175,47 +229,42 @@ public class HiveConnection implements java.sql.Connection {
         sessConfMap.put(JdbcConnectionParams.AUTH_TYPE, info.getProperty(JdbcConnectionParams.AUTH_TYPE));
       }
       /**
-       * init current coordinator and back up coordinator
+       * init current coordinator and back up coordinators
        * ready for reconnection
        */
-      if (sessConfMap.containsKey(ConnectionParams.BACK_UP)) {
-        LOGGER.info("Load back up info start.");
-        backUpConfMap = new HashMap<String, Map<String, String>>();
-        String backUpHost = sessConfMap.get(ConnectionParams.BACK_UP);
-        if (backUpHost.equals(host)) {
-            throw new SQLException("BACK_UP<" + backUpHost + "> must not equal with host<" + host + ">.");
-        }
-        String backUpKrbHostFQDN = backUpHost;
-        String backPrincipal = getPrincipal(host,backUpHost);
-        Map<String, String> backUpConf = new HashMap<String, String>();
-        backUpConf.put(ImpalaConstants.BACK_UP_KEY_HOST, backUpHost);
-        backUpConf.put(ImpalaConstants.BACK_UP_KEY_KRBHOSTFQDN, backUpKrbHostFQDN);
-        backUpConf.put(JdbcConnectionParams.AUTH_PRINCIPAL, backPrincipal);
-        String firstHost = host;
-        String firstKrbHostFQDN = getSessionValue(ImpalaConstants.BACK_UP_KEY_KRBHOSTFQDN, firstHost);
-        String firstPrincipal = getSessionValue(JdbcConnectionParams.AUTH_PRINCIPAL,null);
-        Map<String, String> firstConf = new HashMap<String, String>();
-        firstConf.put(ImpalaConstants.BACK_UP_KEY_HOST, firstHost);
-        firstConf.put(ImpalaConstants.BACK_UP_KEY_KRBHOSTFQDN, firstKrbHostFQDN);
-        firstConf.put(JdbcConnectionParams.AUTH_PRINCIPAL, firstPrincipal);
-        backUpConfMap.put(firstHost, backUpConf);
-        backUpConfMap.put(backUpHost, firstConf);
-        LOGGER.info("Load back up info over.");
+      urlHost = host;
+      urlPrincipal = sessConfMap.get(JdbcConnectionParams.AUTH_PRINCIPAL);
+      urlKrbHostFQDN = sessConfMap.get(ImpalaConstants.BACK_UP_KEY_KRBHOSTFQDN);
+      if (hasBackUp()) {
+        switchHost(getBalancer().order().get(0));
       }
+      CoordinatorProber.start();
+      CoordinatorHost.of(host, port).touch();
       // open the client transport
       Set set = connParams.getHiveConfs().entrySet();
-      openTransport();
+      failedOver = openTransport(true);
       // set up the client
       if(null == client){
-        client = new TCLIService.Client(new TBinaryProtocol(transport));
+        client = newClient(transport);
       }
     }
 
-    if(null == sessHandle){
-      // open client session
-      openSession();
+    if(!failedOver){
+      if(null == sessHandle){
+        // open client session, the http transport opened it already
+        openSession();
+      }
       // Wrap the client with a thread-safe proxy to serialize the RPC calls
-      client = newSynchronizedClient(client);
+      client = newPooledClient(client);
+      if (!isEmbeddedMode && hasBackUp()) {
+        getBalancer().onSuccess(host, System.currentTimeMillis() - connectStart);
+      }
+    }
+    sessionDefaults = new HashMap<String, String>();
+    for (String name : getSettableParameters()) {
+      if (sessConfMap.containsKey(name)) {
+        sessionDefaults.put(name, sessConfMap.get(name));
+      }
     }
   }
 
@@ -227,60 +276,193 @@ public class HiveConnection implements java.sql.Connection {
     return sessHandle;
   }
 
-  private String getPrincipal(String originalHost, String principalHost) {
-      if (sessConfMap.containsKey(JdbcConnectionParams.AUTH_PRINCIPAL)) {
-          return getSessionValue(JdbcConnectionParams.AUTH_PRINCIPAL, null).replace(originalHost, principalHost);
-      } else {
-          return null;
+  public boolean hasBackUp(){
+    return sessConfMap.containsKey(ConnectionParams.BACK_UP);
+  }
+
+  /**
+   * Coordinators of the connection, the URL host and the BACK_UP hosts
+   */
+  private CoordinatorBalancer getBalancer() throws SQLException {
+    List<String> hosts = new ArrayList<String>();
+    hosts.add(urlHost);
+    for (String backUpHost : sessConfMap.get(ConnectionParams.BACK_UP).split(",")) {
+      backUpHost = backUpHost.trim();
+      if (backUpHost.equals(urlHost)) {
+        throw new SQLException("BACK_UP<" + backUpHost + "> must not equal with host<" + urlHost + ">.");
       }
+      if (!backUpHost.isEmpty() && !hosts.contains(backUpHost)) {
+        hosts.add(backUpHost);
+      }
+    }
+    return CoordinatorBalancer.of(hosts, port, sessConfMap.get(ConnectionParams.LB_POLICY));
   }
 
-  public boolean hasBackUp(){
-    return sessConfMap.containsKey(ConnectionParams.BACK_UP);
+  /**
+   * Aim the connection at another coordinator, the Kerberos principal and host FQDN
+   * of the URL host are rewritten for it
+   */
+  private void switchHost(String newHost) {
+    if (null != urlPrincipal) {
+      sessConfMap.put(JdbcConnectionParams.AUTH_PRINCIPAL, urlPrincipal.replace(urlHost, newHost));
+    }
+    if (null != urlKrbHostFQDN) {
+      sessConfMap.put(ImpalaConstants.BACK_UP_KEY_KRBHOSTFQDN,
+          newHost.equals(urlHost) ? urlKrbHostFQDN : newHost);
+    }
+    host = newHost;
+  }
+
+  /**
+   * Kerberos principal of a coordinator, the one of the URL host rewritten for a back up
+   */
+  private String getPrincipal(String targetHost) {
+    if (targetHost.equals(host) || null == urlPrincipal) {
+      return sessConfMap.get(JdbcConnectionParams.AUTH_PRINCIPAL);
+    }
+    return urlPrincipal.replace(urlHost, targetHost);
+  }
+
+  /**
+   * Connects are raced over the coordinators when CONNECT_RACE_DELAY is set,
+   * for the binary transport with BACK_UP hosts
+   */
+  private boolean isConnectRace() {
+    return getConnectRaceDelay() > 0 && hasBackUp() && !isEmbeddedMode
+        && !isHttpTransportMode() && !isNioTransportMode() && !isZkDynamicDiscoveryMode();
+  }
+
+  private long getConnectRaceDelay() {
+    try {
+      return Long.parseLong(getSessionValue(ConnectionParams.CONNECT_RACE_DELAY, "0"));
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Invalid " + ConnectionParams.CONNECT_RACE_DELAY + " value, connects are not raced.");
+      return 0;
+    }
+  }
+
+  /**
+   * Open the transport to whichever of the coordinators answers first, the connection
+   * is aimed at it afterwards
+   *
+   * @return the coordinator connected to
+   */
+  private String raceTransport(List<String> candidates, final CoordinatorBalancer balancer)
+      throws SQLException {
+    assumeSubject =
+        JdbcConnectionParams.AUTH_KERBEROS_AUTH_TYPE_FROM_SUBJECT.equals(sessConfMap
+            .get(JdbcConnectionParams.AUTH_KERBEROS_AUTH_TYPE));
+    ConnectRace race = new ConnectRace(new ConnectRace.Connector() {
+      @Override
+      public TTransport connect(String target) throws Exception {
+        try {
+          TTransport raced = createBinaryTransport(target, loginTimeout);
+          if (!raced.isOpen()) {
+            raced.open();
+          }
+          return raced;
+        } catch (Exception e) {
+          LOGGER.warn("Could not connect to " + target + ":" + port + ". " + e.getMessage());
+          balancer.onFailure(target);
+          throw e;
+        }
+      }
+    }, getConnectRaceDelay());
+    String winner = race.run(candidates);
+    transport = race.getTransport();
+    switchHost(winner);
+    LOGGER.info("Connected to " + winner + ":" + port + " first of " + candidates + ".");
+    return winner;
   }
 
   /**
-   * when coordinator bad, reconnection back up coordinator
-   * and reset client
+   * Coordinator of the connection's queries, null in embedded mode
+   */
+  CoordinatorHost getCoordinator() {
+    if (isEmbeddedMode) {
+      return null;
+    }
+    CoordinatorHost coordinator = CoordinatorHost.of(host, port);
+    coordinator.touch();
+    return coordinator;
+  }
+
+  /**
+   * when coordinator bad, reconnection the next back up coordinator chosen by LB_POLICY
+   * and reset client; a coordinator that failed is not tried again before its cool-down
+   * ends, which starts at backup.timeout and doubles with every failure in a row
    * @throws SQLException
    */
   public void reConnection() throws SQLException {
     LOGGER.info("ReConnection start.");
-    long errorTime = new Date().getTime();
+    CoordinatorBalancer balancer = getBalancer();
     String errorHost = host;
-    Map<String, String> hostConf = backUpConfMap.get(errorHost);
-    hostConf.put(ImpalaConstants.BACK_UP_KEY_ERROR_TIME, String.valueOf(errorTime));
-    String backUpHost = hostConf.get(ImpalaConstants.BACK_UP_KEY_HOST);
-    String backUpHostErrorTimeStr = backUpConfMap.get(backUpHost).get(ImpalaConstants.BACK_UP_KEY_ERROR_TIME);
-    if (null != backUpHostErrorTimeStr) {
-      long backUpHostErrorTime = Long.valueOf(backUpHostErrorTimeStr);
-      /**
-       * when current coordinator and back up coordinator both connection failed in back_up_time_out
-       * throw two coordinator are invalid exception
-       */
-      if ((errorTime - backUpHostErrorTime) <= GridSumJDBCConf.getBackupTimeOut()) {
-        throw new SQLException("Both " + errorHost + " and " + backUpHost + " are can not connection!");
+    balancer.onFailure(errorHost);
+    Set<String> tried = new HashSet<String>();
+    tried.add(errorHost);
+    closeCancelTransport();
+    SQLException lastError = null;
+    while (true) {
+      List<String> candidates = balancer.candidates(tried);
+      if (candidates.isEmpty()) {
+        throw new SQLException("All of " + balancer.getHosts() + " are can not connection!",
+            "08S01", lastError);
       }
+      String backUpHost = candidates.get(0);
+      long start = System.currentTimeMillis();
+      boolean raced = isConnectRace() && candidates.size() > 1;
+      if (raced) {
+        try {
+          backUpHost = raceTransport(candidates, balancer);
+        } catch (SQLException e) {
+          // the attempts recorded their failures
+          tried.addAll(candidates);
+          lastError = e;
+          continue;
+        }
+      }
+      tried.add(backUpHost);
+      try {
+        if (!raced) {
+          switchHost(backUpHost);
+          LOGGER.info("Reopen transport to " + backUpHost + " start.");
+          openTransport(false);
+          LOGGER.info("Reopen transport over.");
+        }
+        // the new session is opened with the current database, options and hive variables,
+        // over http the transport opened it
+        if (!isHttpTransportMode()) {
+          client = newClient(transport);
+          LOGGER.info("Reopen session start.");
+          openSession();
+          LOGGER.info("Reopen session over.");
+        }
+      } catch (SQLException e) {
+        LOGGER.warn("Could not reconnect to " + backUpHost + ". " + e.getMessage());
+        if (null != transport && transport.isOpen()) {
+          transport.close();
+        }
+        balancer.onFailure(backUpHost);
+        lastError = e;
+        continue;
+      }
+      balancer.onSuccess(backUpHost, System.currentTimeMillis() - start);
+      client = newPooledClient(client);
+      LOGGER.info("ReConnection over.");
+      return;
     }
-    if (sessConfMap.containsKey(JdbcConnectionParams.AUTH_PRINCIPAL)) {
-      sessConfMap.put(JdbcConnectionParams.AUTH_PRINCIPAL, hostConf.get(JdbcConnectionParams.AUTH_PRINCIPAL));
-    }
-    if (sessConfMap.containsKey(ImpalaConstants.BACK_UP_KEY_KRBHOSTFQDN)) {
-      sessConfMap.put(ImpalaConstants.BACK_UP_KEY_KRBHOSTFQDN, hostConf.get(ImpalaConstants.BACK_UP_KEY_KRBHOSTFQDN));
-    }
-    host = backUpHost;
-    LOGGER.info("Reopen transport start.");
-    openTransport();
-    LOGGER.info("Reopen transport over.");
-    client = new TCLIService.Client(new TBinaryProtocol(transport));
-    LOGGER.info("Reopen session start.");
-    openSession();
-    LOGGER.info("Reopen session over.");
-    client = newSynchronizedClient(client);
-    LOGGER.info("ReConnection over.");
   }
 
-  private void openTransport() throws SQLException {
+  /**
+   * @param failover reconnect to a back up coordinator when the retries are used up
+   * @return true when it failed over, the session of the back up is open then
+   */
+  private boolean openTransport(boolean failover) throws SQLException {
+    if (failover && isConnectRace()) {
+      // every coordinator gets its chance in the race, nothing left to fail over to
+      raceTransport(getBalancer().order(), getBalancer());
+      return false;
+    }
     int numRetries = 0;
     int maxRetries = 1;
     try {
@@ -293,11 +475,17 @@ public class HiveConnection implements java.sql.Connection {
         assumeSubject =
             JdbcConnectionParams.AUTH_KERBEROS_AUTH_TYPE_FROM_SUBJECT.equals(sessConfMap
                 .get(JdbcConnectionParams.AUTH_KERBEROS_AUTH_TYPE));
-        transport = isHttpTransportMode() ? createHttpTransport() : createBinaryTransport();
+        transport = createTransport();
         if (!transport.isOpen()) {
           transport.open();
           logZkDiscoveryMessage("Connected to " + connParams.getHost() + ":" + connParams.getPort());
         }
+        if (isHttpTransportMode()) {
+          // the session is the first request over http, a server that cannot be
+          // reached fails here, in reach of the retries and the failover
+          client = newClient(transport);
+          openHttpSession();
+        }
         break;
       } catch (TTransportException e) {
         // We'll retry till we exhaust all HiveServer2 nodes from ZooKeeper
@@ -322,9 +510,12 @@ public class HiveConnection implements java.sql.Connection {
           // Retry maxRetries times
           String errMsg = "Could not open client transport with JDBC Uri: " +
               jdbcUriString + ": " + e.getMessage();
-          if (++numRetries >= maxRetries) {
-            if (hasBackUp()) {
+          // no use retrying a coordinator the health probes found down
+          boolean knownDown = hasBackUp() && failover && getCoordinator().isKnownDown();
+          if (++numRetries >= maxRetries || knownDown) {
+            if (hasBackUp() && failover) {
               reConnection();
+              return true;
             } else {
               throw new SQLException(errMsg, " 08S01", e);
             }
@@ -334,6 +525,22 @@ public class HiveConnection implements java.sql.Connection {
         }
       }
     }
+    return false;
+  }
+
+  /**
+   * Open the session over a new http transport, failing to reach the server is
+   * a TTransportException like for the other transports
+   */
+  private void openHttpSession() throws SQLException, TTransportException {
+    try {
+      openSession();
+    } catch (SQLException e) {
+      if (e.getCause() instanceof TTransportException) {
+        throw (TTransportException) e.getCause();
+      }
+      throw e;
+    }
   }
 
   private String getServerHttpUrl(boolean useSsl) {
@@ -352,97 +559,95 @@ public class HiveConnection implements java.sql.Connection {
   }
 
   private TTransport createHttpTransport() throws SQLException, TTransportException {
-    DefaultHttpClient httpClient;
+    return createHttpTransport(0);
+  }
+
+  /**
+   * @param timeout connect and read timeout of the requests, units ms, 0 for none
+   */
+  private TTransport createHttpTransport(int timeout) throws SQLException, TTransportException {
     boolean useSsl = isSslConnection();
-    // Create an http client from the configs
-    httpClient = getHttpClient(useSsl);
-    try {
-      transport = new THttpClient(getServerHttpUrl(useSsl), httpClient);
-      // We'll call an open/close here to send a test HTTP message to the server. Any
-      // TTransportException caused by trying to connect to a non-available peer are thrown here.
-      // Bubbling them up the call hierarchy so that a retry can happen in openTransport,
-      // if dynamic service discovery is configured.
-      TCLIService.Iface client = new TCLIService.Client(new TBinaryProtocol(transport));
-      TOpenSessionResp openResp = client.OpenSession(new TOpenSessionReq());
-      if (openResp != null) {
-        client.CloseSession(new TCloseSessionReq(openResp.getSessionHandle()));
-      }
-    }
-    catch (TException e) {
-      String msg =  "Could not create http connection to " +
-          jdbcUriString + ". " + e.getMessage();
-      throw new TTransportException(msg, e);
-    }
-    return transport;
+    // THttpClient connects with the first request, that is the OpenSession of openTransport
+    return new THttpClient(getServerHttpUrl(useSsl), getHttpClient(useSsl, timeout));
   }
 
-  private DefaultHttpClient getHttpClient(Boolean useSsl) throws SQLException {
-    DefaultHttpClient httpClient = new DefaultHttpClient();
+  /**
+   * Http client of the connection over the JVM wide {@link HttpTransportPool}, the
+   * transports of the connection share its cookies
+   */
+  private HttpClient getHttpClient(Boolean useSsl, int timeout) throws SQLException {
+    CookieStore cookieStore = getHttpCookieStore();
+    String cookieName = getSessionValue(JdbcConnectionParams.COOKIE_NAME,
+        JdbcConnectionParams.DEFAULT_COOKIE_NAMES_HS2);
     // Request interceptor for any request pre-processing logic
-    HttpRequestInterceptor requestInterceptor;
+    HttpRequestInterceptorBase requestInterceptor;
     // If Kerberos
     if (isKerberosAuthMode()) {
       /**
        * Add an interceptor which sets the appropriate header in the request.
        * It does the kerberos authentication and get the final service ticket,
-       * for sending to the server before every request.
+       * for sending to the server until it answers with its auth cookie.
        * In https mode, the entire information is encrypted
-       * TODO: Optimize this with a mix of kerberos + using cookie.
        */
       requestInterceptor =
           new HttpKerberosRequestInterceptor(sessConfMap.get(JdbcConnectionParams.AUTH_PRINCIPAL),
-              host, getServerHttpUrl(useSsl), assumeSubject);
+              host, getServerHttpUrl(useSsl), assumeSubject, cookieStore, cookieName);
     }
     else {
       /**
        * Add an interceptor to pass username/password in the header.
        * In https mode, the entire information is encrypted
        */
-      requestInterceptor = new HttpBasicAuthInterceptor(getUserName(), getPassword());
+      requestInterceptor = new HttpBasicAuthInterceptor(getUserName(), getPassword(),
+          cookieStore, cookieName);
     }
-    // Configure httpClient for SSL
-    if (useSsl) {
-      String sslTrustStorePath = sessConfMap.get(JdbcConnectionParams.SSL_TRUST_STORE);
-      String sslTrustStorePassword = sessConfMap.get(
-          JdbcConnectionParams.SSL_TRUST_STORE_PASSWORD);
-      KeyStore sslTrustStore;
-      SSLSocketFactory socketFactory;
-      /**
-       * The code within the try block throws:
-       * 1. SSLInitializationException
-       * 2. KeyStoreException
-       * 3. IOException
-       * 4. NoSuchAlgorithmException
-       * 5. CertificateException
-       * 6. KeyManagementException
-       * 7. UnrecoverableKeyException
-       * We don't want the client to retry on any of these, hence we catch all
-       * and throw a SQLException.
-       */
-      try {
-        if (sslTrustStorePath == null || sslTrustStorePath.isEmpty()) {
-          // Create a default socket factory based on standard JSSE trust material
-          socketFactory = SSLSocketFactory.getSocketFactory();
-        }
-        else {
-          // Pick trust store config from the given path
-          sslTrustStore = KeyStore.getInstance(JdbcConnectionParams.SSL_TRUST_STORE_TYPE);
-          sslTrustStore.load(new FileInputStream(sslTrustStorePath),
-              sslTrustStorePassword.toCharArray());
-          socketFactory = new SSLSocketFactory(sslTrustStore);
-        }
-        socketFactory.setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
-        Scheme sslScheme = new Scheme("https", 443, socketFactory);
-        httpClient.getConnectionManager().getSchemeRegistry().register(sslScheme);
-      }
-      catch (Exception e) {
-        String msg =  "Could not create an https connection to " +
-            jdbcUriString + ". " + e.getMessage();
-        throw new SQLException(msg, " 08S01", e);
-      }
+    HttpClientConnectionManager connectionManager;
+    /**
+     * Getting the pool of an https connection throws:
+     * 1. KeyStoreException
+     * 2. IOException
+     * 3. NoSuchAlgorithmException
+     * 4. CertificateException
+     * 5. KeyManagementException
+     * 6. UnrecoverableKeyException
+     * We don't want the client to retry on any of these, hence we catch all
+     * and throw a SQLException.
+     */
+    try {
+      connectionManager = HttpTransportPool.get(useSsl,
+          sessConfMap.get(JdbcConnectionParams.SSL_TRUST_STORE),
+          sessConfMap.get(JdbcConnectionParams.SSL_TRUST_STORE_PASSWORD));
+    }
+    catch (Exception e) {
+      String msg =  "Could not create an https connection to " +
+          jdbcUriString + ". " + e.getMessage();
+      throw new SQLException(msg, " 08S01", e);
+    }
+    // after the cookies are added, the interceptor sends the credentials when none matched
+    HttpClientBuilder builder = HttpClients.custom().setConnectionManager(connectionManager)
+        .addInterceptorLast(requestInterceptor);
+    if (timeout > 0) {
+      builder.setDefaultRequestConfig(RequestConfig.custom().setConnectTimeout(timeout)
+          .setSocketTimeout(timeout).build());
+    }
+    if (cookieStore != null) {
+      // a rejected auth cookie is dropped and the request sent again with the credentials
+      builder.setDefaultCookieStore(cookieStore)
+          .setServiceUnavailableRetryStrategy(requestInterceptor);
+    }
+    // never closed, closing it would shut down the shared pool
+    return builder.build();
+  }
+
+  /**
+   * Cookies of the connection, null when cookieAuth=false
+   */
+  private CookieStore getHttpCookieStore() {
+    if (JdbcConnectionParams.COOKIE_AUTH_FALSE.equalsIgnoreCase(
+        sessConfMap.get(JdbcConnectionParams.COOKIE_AUTH))) {
+      return null;
     }
-    httpClient.addRequestInterceptor(requestInterceptor);
-    return httpClient;
+    return httpCookieStore;
   }
 
   /**
@@ -451,8 +656,13 @@ public class HiveConnection implements java.sql.Connection {
    * @return TTransport
    * @throws TTransportException
    */
-  private TTransport createUnderlyingTransport() throws TTransportException {
-    TTransport transport = null;
+  private TTransport createUnderlyingTransport(int timeout) throws TTransportException {
+    return createUnderlyingTransport(host, timeout);
+  }
+
+  private TTransport createUnderlyingTransport(String host, int timeout)
+      throws TTransportException {
+    TTransport socket = null;
     // Note: Thrift returns an SSL socket that is already bound to the specified host:port
     // Therefore an open called on this would be a no-op later
     // Hence, any TTransportException related to connecting with the peer are thrown here.
@@ -465,16 +675,16 @@ public class HiveConnection implements java.sql.Connection {
         JdbcConnectionParams.SSL_TRUST_STORE_PASSWORD);
 
       if (sslTrustStore == null || sslTrustStore.isEmpty()) {
-        transport = HiveAuthFactory.getSSLSocket(host, port, loginTimeout);
+        socket = HiveAuthFactory.getSSLSocket(host, port, timeout);
       } else {
-        transport = HiveAuthFactory.getSSLSocket(host, port, loginTimeout,
+        socket = HiveAuthFactory.getSSLSocket(host, port, timeout,
             sslTrustStore, sslTrustStorePassword);
       }
     } else {
       // get non-SSL socket transport
-      transport = HiveAuthFactory.getSocketTransport(host, port, loginTimeout);
+      socket = HiveAuthFactory.getSocketTransport(host, port, timeout);
     }
-    return transport;
+    return socket;
   }
 
   /**
@@ -491,8 +701,42 @@ public class HiveConnection implements java.sql.Connection {
    * @throws SQLException, TTransportException
    */
   private TTransport createBinaryTransport() throws SQLException, TTransportException {
+    return createBinaryTransport(loginTimeout);
+  }
+
+  /**
+   * @param timeout socket timeout of the transport, units ms
+   */
+  private TTransport createBinaryTransport(int timeout) throws SQLException, TTransportException {
+    return createBinaryTransport(host, timeout);
+  }
+
+  /**
+   * Binary transport to another coordinator than the current one, the connection is not
+   * changed so attempts to several coordinators may run at the same time
+   */
+  private TTransport createBinaryTransport(String targetHost, int timeout)
+      throws SQLException, TTransportException {
+    return createSaslTransport(createUnderlyingTransport(targetHost, timeout),
+        "auth-conf,auth-int,auth", targetHost);
+  }
+
+  private TTransport createSaslTransport(TTransport socketTransport, String defaultQop)
+      throws SQLException, TTransportException {
+    return createSaslTransport(socketTransport, defaultQop, host);
+  }
+
+  /**
+   * Overlay the SASL transport of the auth options on a socket transport
+   *
+   * @param defaultQop qop offered when the URL sets none
+   * @param host coordinator the socket is connected to
+   */
+  private TTransport createSaslTransport(TTransport socketTransport, String defaultQop,
+      String host) throws SQLException, TTransportException {
+    TTransport saslTransport;
+    String principal = getPrincipal(host);
     try {
-      TTransport socketTransport = createUnderlyingTransport();
       // handle secure connection if specified
       if (!JdbcConnectionParams.AUTH_SIMPLE.equals(sessConfMap.get(JdbcConnectionParams.AUTH_TYPE))) {
         // If Kerberos
@@ -508,36 +752,100 @@ public class HiveConnection implements java.sql.Connection {
           saslProps.put(Sasl.QOP, saslQOP.toString());
         } else {
           // If the client did not specify qop then just negotiate the one supported by server
-          saslProps.put(Sasl.QOP, "auth-conf,auth-int,auth");
+          saslProps.put(Sasl.QOP, defaultQop);
         }
         saslProps.put(Sasl.SERVER_AUTH, "true");
-        if (sessConfMap.containsKey(JdbcConnectionParams.AUTH_PRINCIPAL)) {
-          transport = KerberosSaslHelper.getKerberosTransport(
-              sessConfMap.get(JdbcConnectionParams.AUTH_PRINCIPAL), host,
-              socketTransport, saslProps, assumeSubject);
+        if (principal != null) {
+          saslTransport = KerberosSaslHelper.getKerberosTransport(
+              principal, host, socketTransport, saslProps, assumeSubject);
         } else {
           // If there's a delegation token available then use token based connection
           String tokenStr = getClientDelegationToken(sessConfMap);
           if (tokenStr != null) {
-            transport = KerberosSaslHelper.getTokenTransport(tokenStr,
+            saslTransport = KerberosSaslHelper.getTokenTransport(tokenStr,
                 host, socketTransport, saslProps);
           } else {
             // we are using PLAIN Sasl connection with user/password
             String userName = getUserName();
             String passwd = getPassword();
             // Overlay the SASL transport on top of the base socket transport (SSL or non-SSL)
-            transport = PlainSaslHelper.getPlainTransport(userName, passwd, socketTransport);
+            saslTransport = PlainSaslHelper.getPlainTransport(userName, passwd, socketTransport);
           }
         }
       } else {
         // Raw socket connection (non-sasl)
-        transport = socketTransport;
+        saslTransport = socketTransport;
       }
     } catch (SaslException e) {
       throw new SQLException("Could not create secure connection to "
           + jdbcUriString + ": " + e.getMessage(), " 08S01", e);
     }
-    return transport;
+    return saslTransport;
+  }
+
+  /**
+   * Transport of transportMode=nio: the socket is connected and SASL negotiated in
+   * blocking mode, then the channel is switched to non-blocking for the event loop.
+   * The async client frames every message with its length, which is what SASL sends
+   * when the qop is auth, so nio needs a SASL auth type and falls back to the binary
+   * transport for noSasl, SSL and the auth-int/auth-conf qops.
+   */
+  private TTransport createNioTransport() throws SQLException, TTransportException {
+    String qop = sessConfMap.get(JdbcConnectionParams.AUTH_QOP);
+    if (JdbcConnectionParams.AUTH_SIMPLE.equals(sessConfMap.get(JdbcConnectionParams.AUTH_TYPE))
+        || isSslConnection() || (qop != null && !SaslQOP.AUTH.toString().equalsIgnoreCase(qop))) {
+      LOGGER.warn("transportMode=nio needs SASL with qop auth and no SSL, use the binary transport.");
+      return createBinaryTransport();
+    }
+    SocketChannel channel = null;
+    try {
+      channel = SocketChannel.open();
+      channel.socket().setSoTimeout(loginTimeout);
+      channel.socket().connect(new InetSocketAddress(host, port), loginTimeout);
+      TTransport saslTransport = createSaslTransport(new TSocket(channel.socket()),
+          SaslQOP.AUTH.toString());
+      saslTransport.open();
+      channel.socket().setSoTimeout(0);
+      return new TNonblockingSocket(channel);
+    } catch (IOException e) {
+      closeQuietly(channel);
+      throw new TTransportException("Could not connect to " + host + ":" + port + ". "
+          + e.getMessage(), e);
+    } catch (TTransportException e) {
+      closeQuietly(channel);
+      throw e;
+    }
+  }
+
+  private static void closeQuietly(SocketChannel channel) {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // nothing to do, the channel is abandoned
+      }
+    }
+  }
+
+  private TTransport createTransport() throws SQLException, TTransportException {
+    if (isHttpTransportMode()) {
+      return createHttpTransport();
+    }
+    return isNioTransportMode() ? createNioTransport() : createBinaryTransport();
+  }
+
+  /**
+   * Raw client of an open transport, not thread-safe unless it is an nio client
+   */
+  private TCLIService.Iface newClient(TTransport transport) throws SQLException {
+    if (transport instanceof TNonblockingTransport) {
+      try {
+        return NioClient.newClient((TNonblockingTransport) transport, loginTimeout);
+      } catch (TTransportException e) {
+        throw new SQLException(e.getMessage(), "08S01", e);
+      }
+    }
+    return new TCLIService.Client(new TBinaryProtocol(transport));
   }
 
   // Lookup the delegation token. First in the connection URL, then Configuration
@@ -559,16 +867,17 @@ public class HiveConnection implements java.sql.Connection {
     TOpenSessionReq openReq = new TOpenSessionReq();
 
     Map<String, String> openConf = new HashMap<String, String>();
-    // for remote JDBC client, try to set the conf var using 'set foo=bar'
-    for (Entry<String, String> hiveConf : connParams.getHiveConfs().entrySet()) {
+    // for remote JDBC client, try to set the conf var using 'set foo=bar',
+    // after a failover this replays the SETs made on the lost session as well
+    for (Entry<String, String> hiveConf : sessionState.getOptions().entrySet()) {
       openConf.put("set:hiveconf:" + hiveConf.getKey(), hiveConf.getValue());
     }
     // For remote JDBC client, try to set the hive var using 'set hivevar:key=value'
-    for (Entry<String, String> hiveVar : connParams.getHiveVars().entrySet()) {
+    for (Entry<String, String> hiveVar : sessionState.getHiveVars().entrySet()) {
       openConf.put("set:hivevar:" + hiveVar.getKey(), hiveVar.getValue());
     }
     // switch the database
-    openConf.put("use:database", connParams.getDbName());
+    openConf.put("use:database", sessionState.getDatabase());
 
     // set the session configuration
     Map<String, String> sessVars = connParams.getSessionVars();
@@ -636,6 +945,10 @@ public class HiveConnection implements java.sql.Connection {
     return false;
   }
 
+  private boolean isNioTransportMode() {
+    return "nio".equalsIgnoreCase(sessConfMap.get(JdbcConnectionParams.TRANSPORT_MODE));
+  }
+
   private boolean isZkDynamicDiscoveryMode() {
     return (sessConfMap.get(JdbcConnectionParams.SERVICE_DISCOVERY_MODE) != null)
       && (JdbcConnectionParams.SERVICE_DISCOVERY_MODE_ZOOKEEPER.equalsIgnoreCase(sessConfMap
@@ -673,6 +986,166 @@ public class HiveConnection implements java.sql.Connection {
     sessConfMap.put(varName, value);
   }
 
+  /**
+   * number of result batches a result set may fetch ahead in background,
+   * 0 means fetch on demand
+   */
+  int getPrefetchDepth() {
+    try {
+      return Math.max(0, Integer.parseInt(getSessionValue(ConnectionParams.PREFETCH_DEPTH, "0")));
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Invalid " + ConnectionParams.PREFETCH_DEPTH + " value, prefetch is disabled.");
+      return 0;
+    }
+  }
+
+  boolean isAdaptiveFetch() {
+    return Boolean.valueOf(getSessionValue(ConnectionParams.ADAPTIVE_FETCH, "false"));
+  }
+
+  /**
+   * heap budget for fetched rows when adaptive fetch is enabled, units byte
+   */
+  long getFetchMemBudget() {
+    return getMemBudget(ConnectionParams.FETCH_MEM_BUDGET, DEFAULT_FETCH_MEM_BUDGET_MB);
+  }
+
+  /**
+   * heap kept by a scrollable result set for its rows before spilling to disk, units byte
+   */
+  long getScrollCacheMemBudget() {
+    return getMemBudget(ConnectionParams.SCROLL_CACHE_MEM, DEFAULT_SCROLL_CACHE_MEM_MB);
+  }
+
+  /**
+   * Pacing of the operation status polls of one execution
+   */
+  PollingBackoff newPollingBackoff() {
+    long initial = 1;
+    long max = 1000;
+    double multiplier = 2;
+    try {
+      initial = Long.parseLong(getSessionValue(ConnectionParams.POLL_INITIAL_INTERVAL, "1"));
+      max = Long.parseLong(getSessionValue(ConnectionParams.POLL_MAX_INTERVAL, "1000"));
+      multiplier = Double.parseDouble(
+          getSessionValue(ConnectionParams.POLL_BACKOFF_MULTIPLIER, "2"));
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Invalid polling interval value, use default 1ms to 1000ms, multiplier 2.");
+      initial = 1;
+      max = 1000;
+      multiplier = 2;
+    }
+    return new PollingBackoff(initial, max, multiplier, metrics);
+  }
+
+  /**
+   * Undo the SETs of connection parameters and the USE and SET statements run since the
+   * connection was opened, for a pooled connection going back to the pool.
+   *
+   * @return false when the server session could not be brought back to the baseline,
+   * the connection can not be handed out again
+   */
+  boolean resetSessionState() {
+    for (String name : getSettableParameters()) {
+      String value = sessionDefaults.get(name);
+      if (value == null) {
+        sessConfMap.remove(name);
+      } else {
+        sessConfMap.put(name, value);
+      }
+    }
+    if (sessionState.isBaseline()) {
+      return true;
+    }
+    List<String> statements = new ArrayList<String>();
+    if (sessionState.isDatabaseChanged()) {
+      statements.add("USE " + sessionState.getBaselineDatabase());
+    }
+    for (String key : sessionState.getChangedOptions().keySet()) {
+      String value = sessionState.getBaselineOption(key);
+      String statement = value == null ? unsetStatement(key) : "SET " + key + "=" + value;
+      if (statement == null) {
+        return false;
+      }
+      statements.add(statement);
+    }
+    for (String name : sessionState.getChangedHiveVars().keySet()) {
+      String value = sessionState.getBaselineHiveVar(name);
+      if (value == null) {
+        // a hive variable can not be removed from a session
+        return false;
+      }
+      statements.add("SET hivevar:" + name + "=" + value);
+    }
+    try {
+      for (String statement : statements) {
+        executeSessionStatement(statement);
+      }
+    } catch (SQLException e) {
+      LOGGER.warn("Could not reset the session state. " + e.getMessage());
+      return false;
+    }
+    sessionState.reset();
+    return true;
+  }
+
+  /**
+   * Statement bringing an option the Connection URL does not set back to the server
+   * default, null when there is none and the session can not be reset
+   */
+  protected String unsetStatement(String key) {
+    return null;
+  }
+
+  /**
+   * Run a statement on the session outside of any Statement, for session maintenance
+   */
+  private void executeSessionStatement(String sql) throws SQLException {
+    TExecuteStatementReq execReq = new TExecuteStatementReq(sessHandle, sql);
+    try {
+      TExecuteStatementResp execResp = client.ExecuteStatement(execReq);
+      Utils.verifySuccessWithInfo(execResp.getStatus());
+      if (execResp.isSetOperationHandle()) {
+        TCloseOperationResp closeResp =
+            client.CloseOperation(new TCloseOperationReq(execResp.getOperationHandle()));
+        Utils.verifySuccessWithInfo(closeResp.getStatus());
+      }
+    } catch (TException e) {
+      throw new SQLException(e.toString(), "08S01", e);
+    }
+  }
+
+  private static List<String> getSettableParameters() {
+    List<String> names = new ArrayList<String>(ConnectionParams.PARAMETERS);
+    names.add(ConnectionParams.DB);
+    names.add(ConnectionParams.IMPALA_REQUEST_POOL);
+    return names;
+  }
+
+  /**
+   * Options set on the server session by SET statements
+   */
+  SessionState getSessionState() {
+    return sessionState;
+  }
+
+  /**
+   * RPC counters of this connection
+   */
+  public ConnectionMetrics getMetrics() {
+    return metrics;
+  }
+
+  private long getMemBudget(String name, String defaultMB) {
+    String mb = getSessionValue(name, defaultMB);
+    try {
+      return Long.parseLong(StringUtil.convertMB2Byte(mb));
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Invalid " + name + " value, use default " + defaultMB + "MB.");
+      return Long.parseLong(StringUtil.convertMB2Byte(defaultMB));
+    }
+  }
+
   // copy loginTimeout from driver manager. Thrift timeout needs to be in millis
   private void setupLoginTimeout() {
     long timeOut = TimeUnit.SECONDS.toMillis(DriverManager.getLoginTimeout());
@@ -757,6 +1230,8 @@ public class HiveConnection implements java.sql.Connection {
         if (transport != null) {
           transport.close();
         }
+        closePooledTransports();
+        closeCancelTransport();
       }
     }
   }
@@ -1053,8 +1528,55 @@ public class HiveConnection implements java.sql.Connection {
 
   @Override
   public boolean isValid(int timeout) throws SQLException {
-    // TODO Auto-generated method stub
-    throw new SQLException("Method not supported");
+    if (timeout < 0) {
+      throw new SQLException("timeout value was negative");
+    }
+    if (isClosed) {
+      return false;
+    }
+    CoordinatorHost coordinator = getCoordinator();
+    if (null != coordinator && coordinator.isKnownDown()) {
+      // the background probes could not reach the coordinator
+      return false;
+    }
+    // one cheap round trip that needs both the transport and the session, it may wait
+    // behind a fetch holding the client so it runs on a validator thread
+    final TCLIService.Iface validClient = client;
+    final TGetInfoReq infoReq = new TGetInfoReq(sessHandle, TGetInfoType.CLI_SERVER_NAME);
+    Future<TGetInfoResp> infoCall;
+    try {
+      infoCall = VALIDATORS.submit(new Callable<TGetInfoResp>() {
+        @Override
+        public TGetInfoResp call() throws Exception {
+          return validClient.GetInfo(infoReq);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      LOGGER.warn("Could not check the connection to " + host + ":" + port + ". "
+          + e.getMessage());
+      return false;
+    }
+    try {
+      // 0 means no timeout
+      TGetInfoResp infoResp = timeout == 0
+          ? infoCall.get() : infoCall.get(timeout, TimeUnit.SECONDS);
+      Utils.verifySuccess(infoResp.getStatus());
+      return true;
+    } catch (TimeoutException e) {
+      LOGGER.warn("Connection to " + host + ":" + port + " is not valid, no answer within "
+          + timeout + "s.");
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      LOGGER.warn("Connection to " + host + ":" + port + " is not valid. "
+          + e.getCause().getMessage());
+      return false;
+    } catch (Exception e) {
+      LOGGER.warn("Connection to " + host + ":" + port + " is not valid. " + e.getMessage());
+      return false;
+    }
   }
 
   /*
@@ -1370,8 +1892,7 @@ public class HiveConnection implements java.sql.Connection {
 
   @Override
   public boolean isWrapperFor(Class<?> iface) throws SQLException {
-    // TODO Auto-generated method stub
-    throw new SQLException("Method not supported");
+    return iface.isInstance(this);
   }
 
   /*
@@ -1382,14 +1903,138 @@ public class HiveConnection implements java.sql.Connection {
 
   @Override
   public <T> T unwrap(Class<T> iface) throws SQLException {
-    // TODO Auto-generated method stub
-    throw new SQLException("Method not supported");
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    throw new SQLException("Cannot unwrap to " + iface.getName());
   }
 
   public TProtocolVersion getProtocol() {
     return protocol;
   }
 
+  /**
+   * Thread-safe client of the session. With a TRANSPORT_POOL_SIZE above 1 the
+   * extra transports are opened here and the operations spread over all of them,
+   * a transport that cannot be opened just leaves the pool smaller.
+   */
+  private TCLIService.Iface newPooledClient(TCLIService.Iface primary) {
+    closePooledTransports();
+    int poolSize = getTransportPoolSize();
+    if (poolSize <= 1) {
+      return NioClient.isNioClient(primary) ? primary : newSynchronizedClient(primary);
+    }
+    List<TCLIService.Iface> clients = new ArrayList<TCLIService.Iface>(poolSize);
+    clients.add(primary);
+    for (int i = 1; i < poolSize; i++) {
+      try {
+        TTransport pooled = createTransport();
+        if (!pooled.isOpen()) {
+          pooled.open();
+        }
+        pooledTransports.add(pooled);
+        clients.add(newClient(pooled));
+      } catch (Exception e) {
+        LOGGER.warn("Could not open pooled transport to " + host + ":" + port
+            + ", use " + clients.size() + " transports. " + e.getMessage());
+        break;
+      }
+    }
+    if (clients.size() == 1) {
+      return NioClient.isNioClient(primary) ? primary : newSynchronizedClient(primary);
+    }
+    return MultiplexedClient.newClient(clients);
+  }
+
+  /**
+   * Cancel an operation over the cancel transport, so the cancel never waits behind
+   * a fetch or status poll holding the transport of the operation. Connecting and
+   * the call itself are bounded by CANCEL_TIMEOUT; if the cancel transport fails the
+   * cancel fails with its error, the next cancel opens a new transport.
+   */
+  void cancelOperation(TOperationHandle operationHandle) throws SQLException {
+    long start = System.nanoTime();
+    try {
+      TCancelOperationReq cancelReq = new TCancelOperationReq(operationHandle);
+      TCancelOperationResp cancelResp;
+      if (isEmbeddedMode) {
+        cancelResp = client.CancelOperation(cancelReq);
+      } else {
+        synchronized (cancelLock) {
+          try {
+            if (cancelClient == null) {
+              openCancelTransport();
+            }
+            cancelResp = cancelClient.CancelOperation(cancelReq);
+          } catch (Exception e) {
+            // the session client may be blocked behind a long fetch, do not wait for it
+            closeCancelTransport();
+            throw e;
+          }
+        }
+      }
+      Utils.verifySuccessWithInfo(cancelResp.getStatus());
+    } catch (SQLException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new SQLException(e.toString(), "08S01", e);
+    } finally {
+      metrics.recordCancel(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+  }
+
+  private void openCancelTransport() throws SQLException, TTransportException {
+    int timeout = getCancelTimeout();
+    TTransport cancel;
+    if (isHttpTransportMode()) {
+      cancel = createHttpTransport(timeout);
+    } else {
+      cancel = createBinaryTransport(timeout);
+    }
+    if (!cancel.isOpen()) {
+      cancel.open();
+    }
+    cancelTransport = cancel;
+    cancelClient = new TCLIService.Client(new TBinaryProtocol(cancel));
+  }
+
+  private void closeCancelTransport() {
+    synchronized (cancelLock) {
+      if (cancelTransport != null) {
+        cancelTransport.close();
+      }
+      cancelTransport = null;
+      cancelClient = null;
+    }
+  }
+
+  private int getCancelTimeout() {
+    try {
+      return Integer.parseInt(getSessionValue(ConnectionParams.CANCEL_TIMEOUT,
+          String.valueOf(DEFAULT_CANCEL_TIMEOUT_MS)));
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Invalid " + ConnectionParams.CANCEL_TIMEOUT + " value, use default "
+          + DEFAULT_CANCEL_TIMEOUT_MS + "ms.");
+      return DEFAULT_CANCEL_TIMEOUT_MS;
+    }
+  }
+
+  private void closePooledTransports() {
+    for (TTransport pooled : pooledTransports) {
+      pooled.close();
+    }
+    pooledTransports.clear();
+  }
+
+  private int getTransportPoolSize() {
+    try {
+      return Integer.parseInt(getSessionValue(ConnectionParams.TRANSPORT_POOL_SIZE, "1"));
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Invalid " + ConnectionParams.TRANSPORT_POOL_SIZE + " value, use 1 transport.");
+      return 1;
+    }
+  }
+
   public static TCLIService.Iface newSynchronizedClient(
       TCLIService.Iface client) {
     return (TCLIService.Iface) Proxy.newProxyInstance(
@@ -19,54 +19,312 @@
 package org.apache.hive.jdbc;
 
 import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
+import javax.sql.ConnectionPoolDataSource;
 import javax.sql.DataSource;
+import javax.sql.PooledConnection;
+
+import org.apache.hive.jdbc.Utils.JdbcConnectionParams;
 
 /**
  * HiveDataSource.
  *
+ * Pooling DataSource over the connection URL set with {@link #setUrl(String)}, all
+ * URL properties (BACK_UP, DelegationUID, REQUEST_POOL, ...) apply to the pooled
+ * connections. Connections are pooled per user and password; Connection.close() returns the
+ * connection, {@link #close()} closes the pools. As a ConnectionPoolDataSource it hands
+ * out unpooled PooledConnections for an application server's own pool.
  */
-public class HiveDataSource implements DataSource {
+public class HiveDataSource implements DataSource, ConnectionPoolDataSource {
+
+  private String url;
+  private String user;
+  private String password;
+  private int minIdle = 0;
+  private int maxIdle = 8;
+  private int maxTotal = 8;
+  private long maxWaitMillis = 30000;
+  private long validationInterval = 30000;
+  private int validationTimeout = 5;
+  private long leakDetectionThreshold = 0;
+
+  /** keyed by user and a digest of the password */
+  private final Map<String, ConnectionPool> pools = new ConcurrentHashMap<String, ConnectionPool>();
 
   /**
    *
    */
   public HiveDataSource() {
-    // TODO Auto-generated constructor stub
   }
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see javax.sql.DataSource#getConnection()
    */
 
   public Connection getConnection() throws SQLException {
-    return getConnection("", "");
+    return getConnection(user, password);
   }
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see javax.sql.DataSource#getConnection(java.lang.String, java.lang.String)
    */
 
   public Connection getConnection(String username, String password)
       throws SQLException {
+    String key = getPoolKey(username, password);
+    ConnectionPool pool = getPool(key, username, password);
+    try {
+      return pool.borrow();
+    } catch (SQLException e) {
+      // a wrong password must not leave a pool behind retrying it
+      synchronized (pools) {
+        if (pools.get(key) == pool && pool.isEmpty()) {
+          pools.remove(key);
+          pool.close();
+        }
+      }
+      throw e;
+    }
+  }
+
+  private ConnectionPool getPool(String key, String username, String password)
+      throws SQLException {
+    synchronized (pools) {
+      ConnectionPool pool = pools.get(key);
+      if (pool == null) {
+        checkUrl();
+        pool = new ConnectionPool(this, username, password);
+        pools.put(key, pool);
+      }
+      return pool;
+    }
+  }
+
+  /**
+   * A pooled connection is only handed to a caller giving the password it was opened
+   * with. The key holds digests of fixed length, so it keeps no password and no user
+   * and password pair can make the key of another.
+   */
+  private static String getPoolKey(String username, String password) throws SQLException {
+    return digest(username) + ":" + digest(password);
+  }
+
+  private static String digest(String value) throws SQLException {
+    if (value == null) {
+      return "-";
+    }
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256")
+          .digest(value.getBytes(Charset.forName("UTF-8")));
+      return String.format("%064x", new BigInteger(1, hash));
+    } catch (NoSuchAlgorithmException e) {
+      throw new SQLException("Could not digest the pool key", "HY000", e);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see javax.sql.ConnectionPoolDataSource#getPooledConnection()
+   */
+
+  public PooledConnection getPooledConnection() throws SQLException {
+    return getPooledConnection(user, password);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see javax.sql.ConnectionPoolDataSource#getPooledConnection(java.lang.String, java.lang.String)
+   */
+
+  public PooledConnection getPooledConnection(String username, String password)
+      throws SQLException {
+    checkUrl();
+    return new HivePooledConnection(openConnection(username, password));
+  }
+
+  /**
+   * Open a physical connection
+   */
+  HiveConnection openConnection(String username, String password) throws SQLException {
+    Properties info = new Properties();
+    if (username != null) {
+      info.setProperty(JdbcConnectionParams.AUTH_USER, username);
+      if (password != null) {
+        info.setProperty(JdbcConnectionParams.AUTH_PASSWD, password);
+      }
+    }
     try {
-      return new HiveConnection("", null);
+      return newConnection(url, info);
+    } catch (SQLException e) {
+      throw e;
     } catch (Exception ex) {
-      throw new SQLException("Error in getting HiveConnection",ex);
+      throw new SQLException("Error in getting HiveConnection", ex);
+    }
+  }
+
+  protected HiveConnection newConnection(String url, Properties info) throws SQLException {
+    return new HiveConnection(url, info);
+  }
+
+  private void checkUrl() throws SQLException {
+    if (url == null) {
+      throw new SQLException("Connection URL of the data source is not set");
     }
   }
 
+  /**
+   * Close the pools, connections in use are closed when they are returned
+   */
+  public void close() {
+    synchronized (pools) {
+      for (ConnectionPool pool : pools.values()) {
+        pool.close();
+      }
+      pools.clear();
+    }
+  }
+
+  /**
+   * Idle connections of all users
+   */
+  public int getNumIdle() {
+    int idle = 0;
+    for (ConnectionPool pool : pools.values()) {
+      idle += pool.getIdleCount();
+    }
+    return idle;
+  }
+
+  /**
+   * Borrowed connections of all users
+   */
+  public int getNumActive() {
+    int active = 0;
+    for (ConnectionPool pool : pools.values()) {
+      active += pool.getActiveCount();
+    }
+    return active;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public void setUrl(String url) {
+    this.url = url;
+  }
+
+  public String getUser() {
+    return user;
+  }
+
+  public void setUser(String user) {
+    this.user = user;
+  }
+
+  public void setPassword(String password) {
+    this.password = password;
+  }
+
+  public int getMinIdle() {
+    return minIdle;
+  }
+
+  /**
+   * Idle connections kept open in the background for every user, default 0
+   */
+  public void setMinIdle(int minIdle) {
+    this.minIdle = minIdle;
+  }
+
+  public int getMaxIdle() {
+    return maxIdle;
+  }
+
+  /**
+   * Returned connections beyond this many idle ones are closed, default 8
+   */
+  public void setMaxIdle(int maxIdle) {
+    this.maxIdle = maxIdle;
+  }
+
+  public int getMaxTotal() {
+    return maxTotal;
+  }
+
+  /**
+   * Open connections per user, idle and in use, default 8
+   */
+  public void setMaxTotal(int maxTotal) {
+    this.maxTotal = maxTotal;
+  }
+
+  public long getMaxWaitMillis() {
+    return maxWaitMillis;
+  }
+
+  /**
+   * How long getConnection() waits for a connection when maxTotal are in use, default 30000
+   */
+  public void setMaxWaitMillis(long maxWaitMillis) {
+    this.maxWaitMillis = maxWaitMillis;
+  }
+
+  public long getValidationInterval() {
+    return validationInterval;
+  }
+
+  /**
+   * An idle connection is validated with Connection.isValid before it is handed out when
+   * it was idle longer than this, units ms; 0 validates every borrow, -1 never, default 30000
+   */
+  public void setValidationInterval(long validationInterval) {
+    this.validationInterval = validationInterval;
+  }
+
+  public int getValidationTimeout() {
+    return validationTimeout;
+  }
+
+  /**
+   * Timeout passed to Connection.isValid, units second, default 5
+   */
+  public void setValidationTimeout(int validationTimeout) {
+    this.validationTimeout = validationTimeout;
+  }
+
+  public long getLeakDetectionThreshold() {
+    return leakDetectionThreshold;
+  }
+
+  /**
+   * A connection not returned this long after it was borrowed is logged with the stack
+   * of the borrower, units ms; 0 disables, default 0
+   */
+  public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+    this.leakDetectionThreshold = leakDetectionThreshold;
+  }
+
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see javax.sql.CommonDataSource#getLogWriter()
    */
 
@@ -77,7 +335,7 @@ public class HiveDataSource implements DataSource {
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see javax.sql.CommonDataSource#getLoginTimeout()
    */
 
@@ -93,7 +351,7 @@ public class HiveDataSource implements DataSource {
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see javax.sql.CommonDataSource#setLogWriter(java.io.PrintWriter)
    */
 
@@ -104,7 +362,7 @@ public class HiveDataSource implements DataSource {
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see javax.sql.CommonDataSource#setLoginTimeout(int)
    */
 
@@ -115,24 +373,25 @@ public class HiveDataSource implements DataSource {
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see java.sql.Wrapper#isWrapperFor(java.lang.Class)
    */
 
-  public boolean isWrapperFor(Class<?> arg0) throws SQLException {
-    // TODO Auto-generated method stub
-    throw new SQLException("Method not supported");
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this);
   }
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see java.sql.Wrapper#unwrap(java.lang.Class)
    */
 
-  public <T> T unwrap(Class<T> arg0) throws SQLException {
-    // TODO Auto-generated method stub
-    throw new SQLException("Method not supported");
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    throw new SQLException("Cannot unwrap to " + iface.getName());
   }
 
 }
@@ -0,0 +1,268 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.PooledConnection;
+import javax.sql.StatementEventListener;
+
+import org.apache.log4j.Logger;
+
+/**
+ * HivePooledConnection.
+ *
+ * A physical HiveConnection handed out as short lived logical connections. Closing
+ * the logical connection notifies the listeners instead of closing the session, a
+ * connection error (SQLState class 08) is reported to them as well.
+ * Statements are not pooled; those a logical connection created and left open are
+ * closed with it, together with their last result set.
+ */
+class HivePooledConnection implements PooledConnection {
+  private static final Logger LOGGER = Logger.getLogger(HivePooledConnection.class);
+
+  private final HiveConnection physical;
+  private final List<ConnectionEventListener> listeners =
+      new CopyOnWriteArrayList<ConnectionEventListener>();
+  private LogicalConnection logical;
+
+  /** set while borrowed from a pool, for leak detection */
+  private volatile long borrowedAt;
+  private volatile Throwable borrowTrace;
+  private volatile boolean leakReported;
+  /** a connection error was seen, the connection must not be reused */
+  private volatile boolean broken;
+  private long idleSince = System.currentTimeMillis();
+
+  HivePooledConnection(HiveConnection physical) {
+    this.physical = physical;
+  }
+
+  HiveConnection getPhysicalConnection() {
+    return physical;
+  }
+
+  @Override
+  public synchronized Connection getConnection() throws SQLException {
+    if (physical.isClosed()) {
+      throw new SQLException("Pooled connection is closed", "08003");
+    }
+    // only the newest logical connection is open
+    if (logical != null) {
+      logical.closed = true;
+    }
+    logical = new LogicalConnection();
+    return (Connection) Proxy.newProxyInstance(HiveConnection.class.getClassLoader(),
+        new Class [] { Connection.class }, logical);
+  }
+
+  @Override
+  public synchronized void close() throws SQLException {
+    if (logical != null) {
+      logical.closed = true;
+      logical = null;
+    }
+    physical.close();
+  }
+
+  @Override
+  public void addConnectionEventListener(ConnectionEventListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void removeConnectionEventListener(ConnectionEventListener listener) {
+    listeners.remove(listener);
+  }
+
+  @Override
+  public void addStatementEventListener(StatementEventListener listener) {
+    // statements are not pooled, no events to send
+  }
+
+  @Override
+  public void removeStatementEventListener(StatementEventListener listener) {
+  }
+
+  void onBorrow(boolean traceBorrow) {
+    borrowedAt = System.currentTimeMillis();
+    borrowTrace = traceBorrow ? new Throwable("Connection borrowed here") : null;
+    leakReported = false;
+  }
+
+  void onReturn() {
+    borrowedAt = 0;
+    borrowTrace = null;
+    idleSince = System.currentTimeMillis();
+  }
+
+  long getBorrowedAt() {
+    return borrowedAt;
+  }
+
+  Throwable getBorrowTrace() {
+    return borrowTrace;
+  }
+
+  /**
+   * @return true the first time it is called for a borrow
+   */
+  boolean markLeakReported() {
+    if (leakReported) {
+      return false;
+    }
+    leakReported = true;
+    return true;
+  }
+
+  long getIdleSince() {
+    return idleSince;
+  }
+
+  boolean isBroken() {
+    return broken;
+  }
+
+  private void fireClosed() {
+    ConnectionEvent event = new ConnectionEvent(this);
+    for (ConnectionEventListener listener : listeners) {
+      listener.connectionClosed(event);
+    }
+  }
+
+  private void fireError(SQLException e) {
+    broken = true;
+    ConnectionEvent event = new ConnectionEvent(this, e);
+    for (ConnectionEventListener listener : listeners) {
+      listener.connectionErrorOccurred(event);
+    }
+  }
+
+  private class LogicalConnection implements InvocationHandler {
+    private volatile boolean closed = false;
+    /** statements created through this logical connection and not seen closed yet */
+    private final List<Statement> statements = new ArrayList<Statement>();
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object [] args) throws Throwable {
+      String name = method.getName();
+      if ("close".equals(name) && method.getParameterTypes().length == 0) {
+        synchronized (HivePooledConnection.this) {
+          if (closed) {
+            return null;
+          }
+          closed = true;
+          if (logical == this) {
+            logical = null;
+          }
+        }
+        if (!closeStatements()) {
+          // operations of this borrower may still be open, do not hand them on
+          broken = true;
+        }
+        fireClosed();
+        return null;
+      }
+      if ("isClosed".equals(name) && method.getParameterTypes().length == 0) {
+        return closed || physical.isClosed();
+      }
+      if ("equals".equals(name) && method.getParameterTypes().length == 1) {
+        return proxy == args[0];
+      }
+      if ("hashCode".equals(name) && method.getParameterTypes().length == 0) {
+        return System.identityHashCode(proxy);
+      }
+      if ("toString".equals(name) && method.getParameterTypes().length == 0) {
+        return "Pooled " + physical.toString();
+      }
+      if (closed) {
+        throw new SQLException("Connection is closed", "08003");
+      }
+      try {
+        Object result = method.invoke(physical, args);
+        if (result instanceof Statement) {
+          track((Statement) result);
+        }
+        return result;
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getTargetException();
+        if (cause instanceof SQLException) {
+          String sqlState = ((SQLException) cause).getSQLState();
+          if (sqlState != null && sqlState.trim().startsWith("08")) {
+            fireError((SQLException) cause);
+          }
+        }
+        throw cause;
+      }
+    }
+
+    private void track(Statement statement) throws SQLException {
+      synchronized (statements) {
+        for (Iterator<Statement> it = statements.iterator(); it.hasNext();) {
+          if (it.next().isClosed()) {
+            it.remove();
+          }
+        }
+        statements.add(statement);
+      }
+    }
+
+    /**
+     * Close the statements and result sets the borrower left open, so their server
+     * side operations and prefetch threads do not pass to the next borrower
+     *
+     * @return false when one of them could not be closed
+     */
+    private boolean closeStatements() {
+      boolean closedAll = true;
+      synchronized (statements) {
+        for (Statement statement : statements) {
+          try {
+            if (!statement.isClosed()) {
+              ResultSet resultSet = statement.getResultSet();
+              if (resultSet != null) {
+                resultSet.close();
+              }
+              statement.close();
+            }
+          } catch (Exception e) {
+            LOGGER.warn("Could not close a statement left open on a pooled connection. "
+                + e.getMessage());
+            closedAll = false;
+          }
+        }
+        statements.clear();
+      }
+      return closedAll;
+    }
+  }
+}
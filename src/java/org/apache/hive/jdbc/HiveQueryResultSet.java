@@ -20,6 +20,7 @@ package org.apache.hive.jdbc;
 
 import static org.apache.hive.service.cli.thrift.TCLIServiceConstants.TYPE_NAMES;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
@@ -28,8 +29,15 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.ReentrantLock;
 
+import com.gridsum.impala.util.DaemonThreadFactory;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.common.type.HiveDecimal;
@@ -56,13 +64,14 @@ import org.apache.hive.service.cli.thrift.TTypeQualifierValue;
 import org.apache.hive.service.cli.thrift.TTypeQualifiers;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
+import org.apache.thrift.TException;
 import org.apache.thrift.transport.TTransportException;
 
 /**
  * HiveQueryResultSet.
  *
  */
-public class HiveQueryResultSet extends HiveBaseResultSet {
+public class HiveQueryResultSet extends HiveBaseResultSet implements ColumnarResultSet {
 
   public static final Log LOG = LogFactory.getLog(HiveQueryResultSet.class);
   private static final Logger logger = Logger.getLogger(HiveQueryResultSet.class);
@@ -71,15 +80,33 @@ public class HiveQueryResultSet extends HiveBaseResultSet {
   private TOperationHandle stmtHandle;
   private TSessionHandle sessHandle;
   private int maxRows;
-  private int fetchSize;
+  private volatile int fetchSize;
   private int rowsFetched = 0;
+  private int prefetchDepth = 0;
+  private Prefetcher prefetcher = null;
+  private AdaptiveFetchSizer fetchSizer = null;
+
+  /**
+   * Shared by all result sets, a thread is only busy while its result set has room to fetch ahead
+   */
+  private static final ExecutorService PREFETCH_EXECUTOR =
+      Executors.newCachedThreadPool(new DaemonThreadFactory("gs-jdbc-prefetch"));
+  private static final Object END_OF_RESULTS = new Object();
 
   private RowSet fetchedRows;
   private Iterator<Object[]> fetchedRowsItr;
+  private ColumnarBatch fetchedBatch;
+  private int fetchedBatchRow;
   private boolean isClosed = false;
   private boolean emptyResultSet = false;
   private boolean isScrollable = false;
-  private boolean fetchFirst = false;
+  private long scrollCacheBudget;
+  private ScrollableRowCache scrollCache;
+  /** scrollable cursor, 0 is before the first row and cached rows + 1 after the last */
+  private int cursor = 0;
+  private boolean allCached = false;
+  private boolean rowAccess = false;
+  private boolean columnarAccess = false;
 
   private final TProtocolVersion protocol;
 
@@ -105,6 +132,10 @@ public class HiveQueryResultSet extends HiveBaseResultSet {
     private boolean emptyResultSet = false;
     private boolean isScrollable = false;
     private ReentrantLock transportLock = null;
+    private int prefetchDepth = 0;
+    private boolean adaptiveFetch = false;
+    private long fetchMemBudget = 0;
+    private long scrollCacheMemBudget = 64L * 1024 * 1024;
 
     public Builder(Statement statement) throws SQLException {
       this.statement = statement;
@@ -178,6 +209,33 @@ public class HiveQueryResultSet extends HiveBaseResultSet {
       return this;
     }
 
+    /**
+     * Number of batches fetched ahead in background while the current one is read,
+     * 0 fetches on demand. Ignored for scrollable result sets.
+     */
+    public Builder setPrefetchDepth(int prefetchDepth) {
+      this.prefetchDepth = prefetchDepth;
+      return this;
+    }
+
+    /**
+     * Size each fetch from the measured latency and row width, starting from the fetch size.
+     * memBudget is the heap in bytes all batches held by this result set may use.
+     */
+    public Builder setAdaptiveFetch(boolean adaptiveFetch, long memBudget) {
+      this.adaptiveFetch = adaptiveFetch;
+      this.fetchMemBudget = memBudget;
+      return this;
+    }
+
+    /**
+     * Heap in bytes a scrollable result set keeps its rows in before spilling them to disk
+     */
+    public Builder setScrollCacheMemBudget(long memBudget) {
+      this.scrollCacheMemBudget = memBudget;
+      return this;
+    }
+
     public HiveQueryResultSet build() throws SQLException {
       return new HiveQueryResultSet(this);
     }
@@ -209,6 +267,13 @@ public class HiveQueryResultSet extends HiveBaseResultSet {
       this.maxRows = builder.maxRows;
     }
     this.isScrollable = builder.isScrollable;
+    this.prefetchDepth = builder.prefetchDepth;
+    this.scrollCacheBudget = builder.scrollCacheMemBudget;
+    if (builder.adaptiveFetch) {
+      // the batch being read and the prefetched ones share the budget
+      int batchesInHeap = (isScrollable ? 0 : prefetchDepth) + 1;
+      fetchSizer = new AdaptiveFetchSizer(fetchSize, builder.fetchMemBudget / batchesInHeap);
+    }
     this.protocol = builder.getProtocolVersion();
   }
 
@@ -307,6 +372,28 @@ public class HiveQueryResultSet extends HiveBaseResultSet {
 
   @Override
   public void close() throws SQLException {
+    if (prefetcher != null) {
+      // the background fetch must be done with the handle before it is closed
+      prefetcher.stop();
+      prefetcher = null;
+    }
+    if (scrollCache != null) {
+      scrollCache.close();
+      scrollCache = null;
+    }
+    if (fetchSizer != null && !isClosed && LOG.isDebugEnabled()) {
+      LOG.debug("Adaptive fetch finished: " + fetchSizer);
+    }
+    closeOperation();
+
+    // Need reset during re-open when needed
+    client = null;
+    stmtHandle = null;
+    sessHandle = null;
+    isClosed = true;
+  }
+
+  private void closeOperation() throws SQLException {
     if (this.statement != null && (this.statement instanceof HiveStatement)) {
       HiveStatement s = (HiveStatement) this.statement;
       s.closeClientOperation();
@@ -314,12 +401,22 @@ public class HiveQueryResultSet extends HiveBaseResultSet {
       // for those stmtHandle passed from HiveDatabaseMetaData instead of Statement
       closeOperationHandle(stmtHandle);
     }
+  }
 
-    // Need reset during re-open when needed
-    client = null;
+  /**
+   * All maxRows rows are fetched, free the server side operation and the resources it
+   * holds right away instead of at close(). Fetched rows stay readable.
+   */
+  private void releaseOperation() throws SQLException {
+    if (stmtHandle == null) {
+      return;
+    }
+    if (prefetcher != null) {
+      prefetcher.stop();
+      prefetcher = null;
+    }
+    closeOperation();
     stmtHandle = null;
-    sessHandle = null;
-    isClosed = true;
   }
 
   private void closeOperationHandle(TOperationHandle stmtHandle) throws SQLException {
@@ -347,39 +444,64 @@ public class HiveQueryResultSet extends HiveBaseResultSet {
     if (isClosed) {
       throw new SQLException("Resultset is closed");
     }
+    if (columnarAccess) {
+      throw new SQLException("Resultset is read by batches, next() is not available");
+    }
+    rowAccess = true;
+    if (isScrollable) {
+      return scrollTo(cursor + 1);
+    }
     if (emptyResultSet || (maxRows > 0 && rowsFetched >= maxRows)) {
       return false;
     }
 
     try {
       TFetchOrientation orientation = TFetchOrientation.FETCH_NEXT;
-      if (fetchFirst) {
-        // If we are asked to start from begining, clear the current fetched resultset
-        orientation = TFetchOrientation.FETCH_FIRST;
-        fetchedRows = null;
-        fetchedRowsItr = null;
-        fetchFirst = false;
-      }
-      if (fetchedRows == null || !fetchedRowsItr.hasNext()) {
-        TFetchResultsReq fetchReq = new TFetchResultsReq(stmtHandle,
-            orientation, fetchSize);
-        TFetchResultsResp fetchResp;
-        fetchResp = client.FetchResults(fetchReq);
-        Utils.verifySuccessWithInfo(fetchResp.getStatus());
-
-        TRowSet results = fetchResp.getResults();
-        fetchedRows = RowSetFactory.create(results, protocol);
-        fetchedRowsItr = fetchedRows.iterator();
+      if (prefetcher == null && prefetchDepth > 0) {
+        prefetcher = new Prefetcher(prefetchDepth, isColumnBased());
+        prefetcher.start();
       }
 
       String rowStr = "";
-      if (fetchedRowsItr.hasNext()) {
-        row = fetchedRowsItr.next();
+      if (isColumnBased()) {
+        // cells are decoded from the batch when a getter reads them
+        if (fetchedBatch == null || fetchedBatchRow + 1 >= fetchedBatch.getNumRows()) {
+          if (prefetcher != null) {
+            fetchedBatch = (ColumnarBatch) prefetcher.take();
+          } else {
+            fetchedBatch = fetchBatch(orientation);
+          }
+          fetchedBatchRow = -1;
+          if (fetchedBatch == null || fetchedBatch.getNumRows() == 0) {
+            return false;
+          }
+        }
+        setRow(fetchedBatch, ++fetchedBatchRow);
       } else {
-        return false;
+        if (fetchedRows == null || !fetchedRowsItr.hasNext()) {
+          if (prefetcher != null) {
+            RowSet prefetched = (RowSet) prefetcher.take();
+            if (prefetched == null) {
+              return false;
+            }
+            fetchedRows = prefetched;
+          } else {
+            fetchedRows = fetchRowSet(orientation);
+          }
+          fetchedRowsItr = fetchedRows.iterator();
+        }
+
+        if (fetchedRowsItr.hasNext()) {
+          setRow(fetchedRowsItr.next());
+        } else {
+          return false;
+        }
       }
 
       rowsFetched++;
+      if (maxRows > 0 && rowsFetched >= maxRows) {
+        releaseOperation();
+      }
       if (LOG.isDebugEnabled()) {
         LOG.debug("Fetched row string: " + rowStr);
       }
@@ -394,6 +516,232 @@ public class HiveQueryResultSet extends HiveBaseResultSet {
     return true;
   }
 
+  @Override
+  public ColumnarBatch nextBatch() throws SQLException {
+    if (isClosed) {
+      throw new SQLException("Resultset is closed");
+    }
+    if (rowAccess) {
+      throw new SQLException("Resultset is read by next(), batches are not available");
+    }
+    if (isScrollable) {
+      throw new SQLException("Columnar access is not supported for scrollable resultset");
+    }
+    if (!isColumnBased()) {
+      throw new SQLException("Columnar access requires protocol "
+          + TProtocolVersion.HIVE_CLI_SERVICE_PROTOCOL_V6 + ", server uses " + protocol);
+    }
+    columnarAccess = true;
+    if (emptyResultSet || (maxRows > 0 && rowsFetched >= maxRows)) {
+      return null;
+    }
+
+    ColumnarBatch batch;
+    try {
+      if (prefetcher == null && prefetchDepth > 0) {
+        prefetcher = new Prefetcher(prefetchDepth, true);
+        prefetcher.start();
+      }
+      if (prefetcher != null) {
+        batch = (ColumnarBatch) prefetcher.take();
+      } else {
+        batch = fetchBatch(TFetchOrientation.FETCH_NEXT);
+      }
+    } catch (SQLException eS) {
+      throw eS;
+    } catch (Exception ex) {
+      throw new SQLException("Error retrieving next batch", ex);
+    }
+    if (batch == null || batch.getNumRows() == 0) {
+      return null;
+    }
+    if (maxRows > 0) {
+      batch.limit(maxRows - rowsFetched);
+    }
+    rowsFetched += batch.getNumRows();
+    if (maxRows > 0 && rowsFetched >= maxRows) {
+      releaseOperation();
+    }
+    return batch;
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this);
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    throw new SQLException("Cannot unwrap to " + iface.getName());
+  }
+
+  /**
+   * Protocol V6 and later send rows by column, which are read from ColumnarBatches
+   */
+  private boolean isColumnBased() {
+    return protocol.getValue() >= TProtocolVersion.HIVE_CLI_SERVICE_PROTOCOL_V6.getValue();
+  }
+
+  /**
+   * Fetch the next batch of rows from the server and decode it
+   */
+  private RowSet fetchRowSet(TFetchOrientation orientation) throws SQLException, TException {
+    return RowSetFactory.create(fetchResults(orientation), protocol);
+  }
+
+  /**
+   * Fetch the next batch of rows from the server as column vectors
+   */
+  private ColumnarBatch fetchBatch(TFetchOrientation orientation)
+      throws SQLException, TException {
+    TRowSet results = fetchResults(orientation);
+    if (!results.isSetColumns()) {
+      throw new SQLException("Server did not return column-based rows");
+    }
+    return new ColumnarBatch(results, columnTypes);
+  }
+
+  private TRowSet fetchResults(TFetchOrientation orientation) throws SQLException, TException {
+    int requested = fetchSizer != null ? fetchSizer.getFetchSize() : fetchSize;
+    TFetchResultsReq fetchReq = new TFetchResultsReq(stmtHandle, orientation, requested);
+    long start = System.nanoTime();
+    TFetchResultsResp fetchResp = client.FetchResults(fetchReq);
+    long elapsed = System.nanoTime() - start;
+    Utils.verifySuccessWithInfo(fetchResp.getStatus());
+
+    TRowSet results = fetchResp.getResults();
+    if (fetchSizer != null) {
+      fetchSizer.onBatch(requested, AdaptiveFetchSizer.numRows(results),
+          AdaptiveFetchSizer.estimateBytes(results), elapsed);
+    }
+    return results;
+  }
+
+  /**
+   * Fetches and decodes the following batches on a background thread
+   * while the application reads the current one.
+   * The queue holds decoded RowSets or ColumnarBatches, followed by END_OF_RESULTS
+   * or the fetch error.
+   */
+  private class Prefetcher implements Runnable {
+    private final BlockingQueue<Object> queue;
+    private final boolean columnar;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile boolean stopped = false;
+    private Thread runner = null;
+
+    Prefetcher(int depth, boolean columnar) {
+      this.queue = new ArrayBlockingQueue<Object>(depth);
+      this.columnar = columnar;
+    }
+
+    void start() {
+      PREFETCH_EXECUTOR.execute(this);
+    }
+
+    @Override
+    public void run() {
+      synchronized (this) {
+        runner = Thread.currentThread();
+      }
+      long rowsPrefetched = 0;
+      try {
+        while (!stopped) {
+          Object batch;
+          int numRows;
+          if (columnar) {
+            ColumnarBatch columns = fetchBatch(TFetchOrientation.FETCH_NEXT);
+            numRows = columns.getNumRows();
+            batch = columns;
+          } else {
+            RowSet rows = fetchRowSet(TFetchOrientation.FETCH_NEXT);
+            numRows = rows.numRows();
+            batch = rows;
+          }
+          if (numRows == 0) {
+            queue.put(END_OF_RESULTS);
+            return;
+          }
+          queue.put(batch);
+          rowsPrefetched += numRows;
+          // the consumer never reads past maxRows
+          if (maxRows > 0 && rowsPrefetched >= maxRows) {
+            queue.put(END_OF_RESULTS);
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        // stopped by close()
+      } catch (Throwable e) {
+        if (!stopped) {
+          try {
+            queue.put(e);
+          } catch (InterruptedException ie) {
+            // stopped by close()
+          }
+        }
+      } finally {
+        synchronized (this) {
+          runner = null;
+          // do not leak a late interrupt into the next pooled task
+          Thread.interrupted();
+        }
+        done.countDown();
+      }
+    }
+
+    /**
+     * Next prefetched batch, or null when the results are exhausted
+     */
+    Object take() throws SQLException {
+      Object next;
+      try {
+        next = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted while waiting for the next batch", e);
+      }
+      if (next != END_OF_RESULTS && !(next instanceof Throwable)) {
+        return next;
+      }
+      // keep the terminal element for the following calls, the producer has exited
+      queue.offer(next);
+      if (next instanceof SQLException) {
+        throw (SQLException) next;
+      } else if (next instanceof Throwable) {
+        throw new SQLException("Error retrieving next row", (Throwable) next);
+      }
+      return null;
+    }
+
+    void stop() {
+      stopped = true;
+      // unblock a producer waiting for room
+      queue.clear();
+      synchronized (this) {
+        if (runner != null) {
+          runner.interrupt();
+        }
+      }
+      boolean interrupted = false;
+      while (true) {
+        try {
+          done.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      queue.clear();
+    }
+  }
+
   @Override
   public ResultSetMetaData getMetaData() throws SQLException {
     if (isClosed) {
@@ -408,6 +756,9 @@ public class HiveQueryResultSet extends HiveBaseResultSet {
       throw new SQLException("Resultset is closed");
     }
     fetchSize = rows;
+    if (fetchSizer != null) {
+      fetchSizer.setFetchSize(rows);
+    }
   }
 
   @Override
@@ -427,7 +778,8 @@ public class HiveQueryResultSet extends HiveBaseResultSet {
     if (isClosed) {
       throw new SQLException("Resultset is closed");
     }
-    return fetchSize;
+    // in adaptive mode report the size currently chosen
+    return fetchSizer != null ? fetchSizer.getFetchSize() : fetchSize;
   }
 
   public <T> T getObject(String columnLabel, Class<T> type)  throws SQLException {
@@ -449,14 +801,48 @@ public class HiveQueryResultSet extends HiveBaseResultSet {
    */
   @Override
   public void beforeFirst() throws SQLException {
-    if (isClosed) {
-      throw new SQLException("Resultset is closed");
-    }
-    if (!isScrollable) {
-      throw new SQLException("Method not supported for TYPE_FORWARD_ONLY resultset");
+    checkScrollable();
+    scrollTo(0);
+  }
+
+  @Override
+  public void afterLast() throws SQLException {
+    checkScrollable();
+    scrollTo(cacheRows(Integer.MAX_VALUE) + 1);
+  }
+
+  @Override
+  public boolean first() throws SQLException {
+    checkScrollable();
+    return scrollTo(1);
+  }
+
+  @Override
+  public boolean last() throws SQLException {
+    checkScrollable();
+    return scrollTo(cacheRows(Integer.MAX_VALUE));
+  }
+
+  @Override
+  public boolean previous() throws SQLException {
+    checkScrollable();
+    return scrollTo(cursor - 1);
+  }
+
+  @Override
+  public boolean absolute(int row) throws SQLException {
+    checkScrollable();
+    if (row < 0) {
+      // -1 is the last row
+      return scrollTo(Math.max(0, cacheRows(Integer.MAX_VALUE) + 1 + row));
     }
-    fetchFirst = true;
-    rowsFetched = 0;
+    return scrollTo(row);
+  }
+
+  @Override
+  public boolean relative(int rows) throws SQLException {
+    checkScrollable();
+    return scrollTo(Math.max(0, cursor + rows));
   }
 
   @Override
@@ -464,11 +850,121 @@ public class HiveQueryResultSet extends HiveBaseResultSet {
     if (isClosed) {
       throw new SQLException("Resultset is closed");
     }
+    if (isScrollable) {
+      return cursor == 0 && cacheRows(1) > 0;
+    }
     return (rowsFetched == 0);
   }
 
+  @Override
+  public boolean isAfterLast() throws SQLException {
+    checkScrollable();
+    return cursor > 0 && cursor > cacheRows(cursor);
+  }
+
+  @Override
+  public boolean isFirst() throws SQLException {
+    checkScrollable();
+    return cursor == 1;
+  }
+
+  @Override
+  public boolean isLast() throws SQLException {
+    checkScrollable();
+    return cursor > 0 && cacheRows(cursor + 1) == cursor;
+  }
+
   @Override
   public int getRow() throws SQLException {
+    if (isScrollable) {
+      return scrollCache != null && cursor <= scrollCache.size() ? cursor : 0;
+    }
     return rowsFetched;
   }
+
+  private void checkScrollable() throws SQLException {
+    if (isClosed) {
+      throw new SQLException("Resultset is closed");
+    }
+    if (!isScrollable) {
+      throw new SQLException("Method not supported for TYPE_FORWARD_ONLY resultset");
+    }
+  }
+
+  /**
+   * Move the scrollable cursor to a 1-based row, 0 is before the first row.
+   * Rows come from the scroll cache, only rows never seen before are fetched.
+   */
+  private boolean scrollTo(int position) throws SQLException {
+    if (position <= 0) {
+      cursor = 0;
+      setRow((Object[]) null);
+      return false;
+    }
+    int available = cacheRows(position);
+    if (position > available) {
+      cursor = available + 1;
+      setRow((Object[]) null);
+      return false;
+    }
+    try {
+      setRow(scrollCache.get(position - 1));
+    } catch (IOException e) {
+      throw new SQLException("Error reading row " + position + " from scroll cache", e);
+    }
+    cursor = position;
+    return true;
+  }
+
+  /**
+   * Fetch into the scroll cache until it holds upTo rows or the results are exhausted
+   *
+   * @return number of cached rows
+   */
+  private int cacheRows(int upTo) throws SQLException {
+    if (scrollCache == null) {
+      scrollCache = new ScrollableRowCache(scrollCacheBudget);
+    }
+    try {
+      while (scrollCache.size() < upTo && !allCached) {
+        if (emptyResultSet) {
+          allCached = true;
+          break;
+        }
+        int before = scrollCache.size();
+        if (isColumnBased()) {
+          ColumnarBatch batch = fetchBatch(TFetchOrientation.FETCH_NEXT);
+          Object[] values = new Object[batch.getColumnCount()];
+          for (int i = 0; i < batch.getNumRows() && !isCacheFull(); i++) {
+            for (int j = 0; j < values.length; j++) {
+              values[j] = batch.getColumn(j + 1).getObject(i);
+            }
+            scrollCache.add(values);
+          }
+        } else {
+          for (Object[] values : fetchRowSet(TFetchOrientation.FETCH_NEXT)) {
+            if (isCacheFull()) {
+              break;
+            }
+            scrollCache.add(values);
+          }
+        }
+        if (scrollCache.size() == before) {
+          allCached = true;
+        } else if (isCacheFull()) {
+          allCached = true;
+          releaseOperation();
+        }
+      }
+    } catch (SQLException eS) {
+      throw eS;
+    } catch (Exception ex) {
+      throw new SQLException("Error retrieving next row", ex);
+    }
+    return scrollCache.size();
+  }
+
+  private boolean isCacheFull() {
+    return maxRows > 0 && scrollCache.size() >= maxRows;
+  }
 }
@@ -19,23 +19,24 @@
 package org.apache.hive.jdbc;
 
 import com.gridsum.impala.util.ImpalaConstants;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.sql.SQLWarning;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.gridsum.impala.util.ConnectionParams;
 import com.gridsum.impala.util.StringUtil;
 import org.apache.hive.service.cli.RowSet;
 import org.apache.hive.service.cli.RowSetFactory;
 import org.apache.hive.service.cli.thrift.TCLIService;
-import org.apache.hive.service.cli.thrift.TCancelOperationReq;
-import org.apache.hive.service.cli.thrift.TCancelOperationResp;
 import org.apache.hive.service.cli.thrift.TCloseOperationReq;
 import org.apache.hive.service.cli.thrift.TCloseOperationResp;
 import org.apache.hive.service.cli.thrift.TExecuteStatementReq;
@@ -58,7 +59,7 @@ public class HiveStatement implements java.sql.Statement {
   private static final Logger LOGGER = Logger.getLogger(HiveStatement.class);
   protected final HiveConnection connection;
   protected TCLIService.Iface client;
-  protected TOperationHandle stmtHandle = null;
+  protected volatile TOperationHandle stmtHandle = null;
   protected TSessionHandle sessHandle;
   Map<String,String> sessConf = new HashMap<String,String>();
   protected int fetchSize = 50;
@@ -70,7 +71,7 @@ public class HiveStatement implements java.sql.Statement {
    * statement.getResultSet();
    * </code>.
    */
-  protected ResultSet resultSet = null;
+  protected volatile ResultSet resultSet = null;
 
   /**
    * Sets the limit for the maximum number of rows that any ResultSet object produced by this
@@ -78,6 +79,7 @@ public class HiveStatement implements java.sql.Statement {
    * are silently dropped. The value must be >= 0, and 0 means there is not limit.
    */
   protected int maxRows = 0;
+  protected volatile int statusPollCount = 0;
 
   /**
    * Add SQLWarnings to the warningChain if needed.
@@ -87,7 +89,7 @@ public class HiveStatement implements java.sql.Statement {
   /**
    * Keep state so we can fail certain calls made after close().
    */
-  private boolean isClosed = false;
+  private volatile boolean isClosed = false;
 
   /**
    * Keep state so we can fail certain calls made after cancel().
@@ -102,7 +104,7 @@ public class HiveStatement implements java.sql.Statement {
   /**
    * Keep this state so we can know whether the query logs are being generated in HS2.
    */
-  protected boolean isLogBeingGenerated = true;
+  protected volatile boolean isLogBeingGenerated = true;
 
   /**
    * Keep this state so we can know whether the statement is submitted to HS2 and start execution
@@ -110,6 +112,16 @@ public class HiveStatement implements java.sql.Statement {
    */
   protected boolean isExecuteStatementFailed = false;
 
+  /**
+   * Coordinator running the current operation, counts it as outstanding while it is open.
+   */
+  private CoordinatorHost coordinator;
+
+  /**
+   * Statements of addBatch, run by executeBatch
+   */
+  private final List<String> batch = new ArrayList<String>();
+
   public HiveStatement(HiveConnection connection, TCLIService.Iface client,
       TSessionHandle sessHandle) {
     this(connection, client, sessHandle, false);
@@ -131,7 +143,8 @@ public class HiveStatement implements java.sql.Statement {
 
   @Override
   public void addBatch(String sql) throws SQLException {
-    throw new SQLException("Method not supported");
+    checkConnection("addBatch");
+    batch.add(sql);
   }
 
   /*
@@ -149,9 +162,7 @@ public class HiveStatement implements java.sql.Statement {
 
     try {
       if (stmtHandle != null) {
-        TCancelOperationReq cancelReq = new TCancelOperationReq(stmtHandle);
-        TCancelOperationResp cancelResp = client.CancelOperation(cancelReq);
-        Utils.verifySuccessWithInfo(cancelResp.getStatus());
+        connection.cancelOperation(stmtHandle);
       }
     } catch (SQLException e) {
       throw e;
@@ -169,7 +180,7 @@ public class HiveStatement implements java.sql.Statement {
 
   @Override
   public void clearBatch() throws SQLException {
-    throw new SQLException("Method not supported");
+    batch.clear();
   }
 
   /*
@@ -184,6 +195,7 @@ public class HiveStatement implements java.sql.Statement {
   }
 
   void closeClientOperation() throws SQLException {
+    releaseCoordinator();
     try {
       if (stmtHandle != null) {
         TCloseOperationReq closeReq = new TCloseOperationReq(stmtHandle);
@@ -233,6 +245,7 @@ public class HiveStatement implements java.sql.Statement {
       this.client = this.connection.getClient();
       this.sessHandle = this.connection.getSessHandle();
       this.stmtHandle = null;
+      releaseCoordinator();
       LOGGER.info("Reinitialize stmt over.");
     }
   }
@@ -246,8 +259,9 @@ public class HiveStatement implements java.sql.Statement {
   public boolean execute(String sql) throws SQLException {
     checkConnection("execute");
 
+    String[] setStatementKeyValue = null;
     if (StringUtil.isSet(sql)) {
-      String[] setStatementKeyValue = StringUtil.getStatementProperty(sql);
+      setStatementKeyValue = StringUtil.getStatementProperty(sql);
       if (null != setStatementKeyValue) {
         String key = setStatementKeyValue[0];
         String value = setStatementKeyValue[1];
@@ -257,18 +271,70 @@ public class HiveStatement implements java.sql.Statement {
             return true;
           }
         }
+        if (skipRedundantSet(setStatementKeyValue)) {
+          return false;
+        }
       }
     }
+    submitStatement(StringUtil.addLimit(sql, maxRows), null);
+
+    TGetOperationStatusReq statusReq = new TGetOperationStatusReq(stmtHandle);
+    boolean operationComplete = false;
+    TGetOperationStatusResp statusResp;
+    PollingBackoff backoff = connection.newPollingBackoff();
+    connection.getMetrics().recordExecution();
+
+    // Poll on the operation status, till the operation is complete
     try {
-      closeClientOperation();
-    } catch (SQLException eS) {
-      if (eS.toString().contains(ImpalaConstants.TTRANSPORT_EXCEPTION)) {
-        LOGGER.info("Catch close operation error.");
-        reInitializeStmt();
+      while (!operationComplete) {
+        try {
+          /**
+           * For an async SQLOperation, GetOperationStatus will use the long polling approach
+           * It will essentially return after the HIVE_SERVER2_LONG_POLLING_TIMEOUT (a server config) expires
+           */
+          statusResp = client.GetOperationStatus(statusReq);
+          backoff.onPoll();
+          operationComplete = isOperationComplete(statusResp);
+          if (!operationComplete) {
+            backoff.await(statusResp.getOperationState());
+          }
+        } catch (SQLException e) {
+          isLogBeingGenerated = false;
+          throw e;
+        } catch (InterruptedException e) {
+          isLogBeingGenerated = false;
+          Thread.currentThread().interrupt();
+          throw new SQLException("Interrupted while waiting for the query", "HY008", e);
+        } catch (Exception e) {
+          isLogBeingGenerated = false;
+          throw new SQLException(e.toString(), "08S01", e);
+        }
+      }
+    } finally {
+      if (!operationComplete) {
+        releaseCoordinator();
       }
-      isExecuteStatementFailed = true;
-      throw eS;
     }
+    isLogBeingGenerated = false;
+    statusPollCount = backoff.getPolls();
+    recordSessionChange(sql, setStatementKeyValue);
+
+    // The query should be completed by now
+    if (!stmtHandle.isHasResultSet()) {
+      return false;
+    }
+    resultSet = newResultSetBuilder().build();
+    return true;
+  }
+
+  /**
+   * Start the statement on the server, stmtHandle is the running operation afterwards
+   *
+   * @param queryOptions options for this statement only, sent in the overlay, may be null
+   */
+  protected void submitStatement(String sql, Map<String, String> queryOptions)
+      throws SQLException {
+    closePreviousOperation();
     initFlags();
 
     TExecuteStatementReq execReq = new TExecuteStatementReq(sessHandle, sql);
@@ -279,13 +345,14 @@ public class HiveStatement implements java.sql.Statement {
      * Compilation is synchronous and execution is asynchronous
      */
     execReq.setRunAsync(true);
-    execReq.setConfOverlay(sessConf);
+    execReq.setConfOverlay(newConfOverlay(queryOptions));
 
     try {
       TExecuteStatementResp execResp = client.ExecuteStatement(execReq);
       Utils.verifySuccessWithInfo(execResp.getStatus());
       stmtHandle = execResp.getOperationHandle();
       isExecuteStatementFailed = false;
+      trackCoordinator();
     } catch (SQLException eS) {
       if (eS.toString().contains(ImpalaConstants.CATALOG_UPDATE_EXCEPTION)) {
         LOGGER.info("Catch waiting catalog update error.");
@@ -302,62 +369,286 @@ public class HiveStatement implements java.sql.Statement {
       isExecuteStatementFailed = true;
       throw new SQLException(ex.toString(), "08S01", ex);
     }
+  }
 
-    TGetOperationStatusReq statusReq = new TGetOperationStatusReq(stmtHandle);
-    boolean operationComplete = false;
-    TGetOperationStatusResp statusResp;
+  /**
+   * Count the operation just started as outstanding on the connection's coordinator
+   */
+  private synchronized void trackCoordinator() {
+    coordinator = connection.getCoordinator();
+    if (coordinator != null) {
+      coordinator.queryStarted();
+    }
+  }
 
-    // Poll on the operation status, till the operation is complete
-    while (!operationComplete) {
+  /**
+   * The current operation no longer runs, whether it finished, failed or was dropped.
+   * Stops counting it on its coordinator, a no-op when it is not counted.
+   */
+  protected synchronized void releaseCoordinator() {
+    if (coordinator != null) {
+      coordinator.queryFinished();
+      coordinator = null;
+    }
+  }
+
+  /**
+   * Close the operation of the previous execution, a no-op when it is closed already
+   */
+  protected void closePreviousOperation() throws SQLException {
+    try {
+      closeClientOperation();
+    } catch (SQLException eS) {
+      if (eS.toString().contains(ImpalaConstants.TTRANSPORT_EXCEPTION)) {
+        LOGGER.info("Catch close operation error.");
+        reInitializeStmt();
+      }
+      isExecuteStatementFailed = true;
+      throw eS;
+    }
+  }
+
+  /**
+   * Overlay of the execute request, the session conf plus the given options
+   */
+  protected Map<String, String> newConfOverlay(Map<String, String> queryOptions) {
+    if (queryOptions == null || queryOptions.isEmpty()) {
+      return sessConf;
+    }
+    Map<String, String> confOverlay = new HashMap<String, String>(sessConf);
+    confOverlay.putAll(queryOptions);
+    return confOverlay;
+  }
+
+  /**
+   * Evaluate one GetOperationStatus response
+   *
+   * @return true when the operation finished, false while it is still running
+   * @throws SQLException when the operation failed or was cancelled
+   */
+  protected boolean isOperationComplete(TGetOperationStatusResp statusResp) throws SQLException {
+    Utils.verifySuccessWithInfo(statusResp.getStatus());
+    if (statusResp.isSetOperationState()) {
+      switch (statusResp.getOperationState()) {
+      case CLOSED_STATE:
+      case FINISHED_STATE:
+        return true;
+      case CANCELED_STATE:
+        // 01000 -> warning
+        throw new SQLException("Query was cancelled", "01000");
+      case ERROR_STATE:
+        // Get the error details from the underlying exception
+        throw new SQLException(statusResp.getErrorMessage(),
+            statusResp.getSqlState(), statusResp.getErrorCode());
+      case UKNOWN_STATE:
+        throw new SQLException("Unknown query", "HY000");
+      case INITIALIZED_STATE:
+      case PENDING_STATE:
+      case RUNNING_STATE:
+        break;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Execute without blocking the caller. The statement is submitted on the calling
+   * thread, its status is then polled on a scheduler shared by all connections and the
+   * callback runs there once the result set is ready. SET and USE statements are executed
+   * at once.
+   * Only one execution of a statement may be in flight, the previous result set is closed.
+   *
+   * @param callback notified of the outcome, may be null
+   * @return handle of the execution, its value is the ResultSet or null for statements
+   * without a result set
+   */
+  public AsyncExecution executeAsync(String sql, ExecutionCallback callback) throws SQLException {
+    checkConnection("executeAsync");
+    AsyncExecution execution = new AsyncExecution(this, callback);
+    if (StringUtil.isSet(sql) || null != StringUtil.getUseDatabase(sql)) {
+      // changes the session, run in order with the statements that follow
+      try {
+        execute(sql);
+        execution.complete(resultSet);
+      } catch (SQLException e) {
+        execution.fail(e);
+      }
+      return execution;
+    }
+    try {
+      submitAsync(sql);
+    } catch (SQLException e) {
+      execution.fail(e);
+      return execution;
+    }
+    connection.getMetrics().recordExecution();
+    new StatusPoller(execution, stmtHandle, connection.newPollingBackoff()).schedule(0);
+    return execution;
+  }
+
+  /**
+   * Submit step of {@link #executeAsync(String, ExecutionCallback)}
+   */
+  protected void submitAsync(String sql) throws SQLException {
+    submitStatement(StringUtil.addLimit(sql, maxRows), null);
+  }
+
+  /**
+   * Polls the operation of one asynchronous execution, rescheduling itself after
+   * the backoff wait until the operation is done. With an nio client no thread
+   * waits for the status answer. The statement fields it sets are volatile, the
+   * caller may read them from another thread.
+   */
+  private class StatusPoller implements Runnable, NioClient.ResponseCallback {
+    private final AsyncExecution execution;
+    private final TOperationHandle operationHandle;
+    private final PollingBackoff backoff;
+
+    StatusPoller(AsyncExecution execution, TOperationHandle operationHandle,
+        PollingBackoff backoff) {
+      this.execution = execution;
+      this.operationHandle = operationHandle;
+      this.backoff = backoff;
+    }
+
+    void schedule(long delayMillis) {
+      try {
+        AsyncExecution.schedule(this, delayMillis);
+      } catch (RejectedExecutionException e) {
+        onError(new SQLException("Could not schedule the status poll", "HY000", e));
+      }
+    }
+
+    @Override
+    public void run() {
+      if (execution.isDone()) {
+        return;
+      }
+      TGetOperationStatusReq statusReq = new TGetOperationStatusReq(operationHandle);
+      if (NioClient.invokeAsync(client, "GetOperationStatus", statusReq, this)) {
+        return;
+      }
       try {
-        /**
-         * For an async SQLOperation, GetOperationStatus will use the long polling approach
-         * It will essentially return after the HIVE_SERVER2_LONG_POLLING_TIMEOUT (a server config) expires
-         */
-        statusResp = client.GetOperationStatus(statusReq);
-        Utils.verifySuccessWithInfo(statusResp.getStatus());
-        if (statusResp.isSetOperationState()) {
-          switch (statusResp.getOperationState()) {
-          case CLOSED_STATE:
-          case FINISHED_STATE:
-            operationComplete = true;
-            break;
-          case CANCELED_STATE:
-            // 01000 -> warning
-            throw new SQLException("Query was cancelled", "01000");
-          case ERROR_STATE:
-            // Get the error details from the underlying exception
-            throw new SQLException(statusResp.getErrorMessage(),
-                statusResp.getSqlState(), statusResp.getErrorCode());
-          case UKNOWN_STATE:
-            throw new SQLException("Unknown query", "HY000");
-          case INITIALIZED_STATE:
-          case PENDING_STATE:
-          case RUNNING_STATE:
-            break;
+        onStatus(client.GetOperationStatus(statusReq));
+      } catch (Exception e) {
+        onError(e);
+      }
+    }
+
+    @Override
+    public void onResponse(final Object response) {
+      // called on the selector thread, building the result set makes more RPCs
+      try {
+        AsyncExecution.schedule(new Runnable() {
+          @Override
+          public void run() {
+            onStatus((TGetOperationStatusResp) response);
           }
+        }, 0);
+      } catch (RejectedExecutionException e) {
+        onError(new SQLException("Could not schedule the status poll", "HY000", e));
+      }
+    }
+
+    @Override
+    public void onError(Exception e) {
+      isLogBeingGenerated = false;
+      if (stmtHandle == operationHandle) {
+        releaseCoordinator();
+      }
+      if (e instanceof SQLException) {
+        execution.fail((SQLException) e);
+      } else {
+        execution.fail(new SQLException(e.toString(), "08S01", e));
+      }
+    }
+
+    private void onStatus(TGetOperationStatusResp statusResp) {
+      try {
+        backoff.onPoll();
+        if (!isOperationComplete(statusResp)) {
+          schedule(backoff.nextDelay(statusResp.getOperationState()));
+          return;
+        }
+        if (isClosed || stmtHandle != operationHandle) {
+          // the statement was closed or ran another statement meanwhile
+          execution.fail(new SQLException("Statement was closed or reused before the query"
+              + " finished", "HY000"));
+          return;
         }
-      } catch (SQLException e) {
         isLogBeingGenerated = false;
-        throw e;
+        statusPollCount = backoff.getPolls();
+        ResultSet rs = operationHandle.isHasResultSet()
+            ? newResultSetBuilder(operationHandle).build() : null;
+        resultSet = rs;
+        execution.complete(rs);
       } catch (Exception e) {
-        isLogBeingGenerated = false;
-        throw new SQLException(e.toString(), "08S01", e);
+        onError(e);
       }
     }
-    isLogBeingGenerated = false;
+  }
 
-    // The query should be completed by now
-    if (!stmtHandle.isHasResultSet()) {
+  /**
+   * Keep the connection's view of the session up to date after a successful execution
+   */
+  protected void recordSessionChange(String sql, String[] setStatementKeyValue) {
+    if (null != setStatementKeyValue) {
+      connection.getSessionState().recordSet(setStatementKeyValue[0], setStatementKeyValue[1]);
+      return;
+    }
+    String db = StringUtil.getUseDatabase(sql);
+    if (null != db) {
+      connection.getSessionState().recordUse(db);
+    }
+  }
+
+  /**
+   * A SET of a value the session already has is answered locally,
+   * it only ends the previous operation like any execution.
+   *
+   * @return true when the SET was skipped
+   */
+  protected boolean skipRedundantSet(String[] setStatementKeyValue) throws SQLException {
+    if (!connection.getSessionState().isInEffect(setStatementKeyValue[0], setStatementKeyValue[1])) {
       return false;
     }
-    resultSet =  new HiveQueryResultSet.Builder(this).setClient(client).setSessionHandle(sessHandle)
-        .setStmtHandle(stmtHandle).setMaxRows(maxRows).setFetchSize(fetchSize)
-        .setScrollable(isScrollableResultset)
-        .build();
+    closeClientOperation();
+    resultSet = null;
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Skip SET " + setStatementKeyValue[0] + ", value already in effect.");
+    }
     return true;
   }
 
+  /**
+   * Number of GetOperationStatus calls made by the last execution,
+   * see {@link HiveConnection#getMetrics()} for the connection totals.
+   */
+  public int getStatusPollCount() {
+    return statusPollCount;
+  }
+
+  /**
+   * Builder for the result set of the current operation,
+   * carries the statement and connection level fetch settings.
+   */
+  protected HiveQueryResultSet.Builder newResultSetBuilder() throws SQLException {
+    return newResultSetBuilder(stmtHandle);
+  }
+
+  /**
+   * Builder for the result set of the given operation
+   */
+  protected HiveQueryResultSet.Builder newResultSetBuilder(TOperationHandle operationHandle)
+      throws SQLException {
+    return new HiveQueryResultSet.Builder(this).setClient(client).setSessionHandle(sessHandle)
+        .setStmtHandle(operationHandle).setMaxRows(maxRows).setFetchSize(fetchSize)
+        .setScrollable(isScrollableResultset)
+        .setPrefetchDepth(connection.getPrefetchDepth())
+        .setAdaptiveFetch(connection.isAdaptiveFetch(), connection.getFetchMemBudget())
+        .setScrollCacheMemBudget(connection.getScrollCacheMemBudget());
+  }
+
   protected void checkConnection(String action) throws SQLException {
     if (isClosed) {
       throw new SQLException("Can't " + action + " after statement has been closed");
@@ -412,7 +703,45 @@ public class HiveStatement implements java.sql.Statement {
 
   @Override
   public int[] executeBatch() throws SQLException {
-    throw new SQLException("Method not supported");
+    checkConnection("executeBatch");
+    List<String> statements = new ArrayList<String>(batch);
+    batch.clear();
+    return executeBatch(statements);
+  }
+
+  /**
+   * Execute the statements one after the other, the server reports no update counts.
+   * A batch holding a query fails before any statement runs. The first statement that
+   * fails, or returns a result set all the same, ends the batch with a
+   * BatchUpdateException.
+   */
+  protected int[] executeBatch(List<String> statements) throws SQLException {
+    for (int i = 0; i < statements.size(); i++) {
+      if (StringUtil.isQuery(statements.get(i))) {
+        throw new BatchUpdateException("Statement " + (i + 1) + " of the batch is a query,"
+            + " a batch can not return result sets", "HY000", new int[0]);
+      }
+    }
+    int[] updateCounts = new int[statements.size()];
+    for (int i = 0; i < statements.size(); i++) {
+      try {
+        // a SET answered locally returns true without a result set
+        resultSet = null;
+        if (execute(statements.get(i)) && resultSet != null) {
+          // SHOW, DESCRIBE and the like
+          ResultSet rs = resultSet;
+          resultSet = null;
+          rs.close();
+          throw new SQLException("Statement " + (i + 1) + " of the batch returned a result set",
+              "HY000");
+        }
+      } catch (SQLException e) {
+        throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(),
+            Arrays.copyOf(updateCounts, i), e);
+      }
+      updateCounts[i] = SUCCESS_NO_INFO;
+    }
+    return updateCounts;
   }
 
   /*
@@ -781,7 +1110,7 @@ public class HiveStatement implements java.sql.Statement {
 
   @Override
   public boolean isWrapperFor(Class<?> iface) throws SQLException {
-    return false;
+    return iface.isInstance(this);
   }
 
   /*
@@ -792,6 +1121,9 @@ public class HiveStatement implements java.sql.Statement {
 
   @Override
   public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
     throw new SQLException("Cannot unwrap to " + iface);
   }
 
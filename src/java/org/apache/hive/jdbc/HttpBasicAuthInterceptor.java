@@ -18,13 +18,10 @@
 
 package org.apache.hive.jdbc;
 
-import java.io.IOException;
-
 import org.apache.http.Header;
-import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
-import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CookieStore;
 import org.apache.http.impl.auth.AuthSchemeBase;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.protocol.HttpContext;
@@ -34,11 +31,13 @@ import org.apache.http.protocol.HttpContext;
  * used to add header with these credentials to HTTP requests
  *
  */
-public class HttpBasicAuthInterceptor implements HttpRequestInterceptor {
+public class HttpBasicAuthInterceptor extends HttpRequestInterceptorBase {
   UsernamePasswordCredentials credentials;
   AuthSchemeBase authScheme;
 
-  public HttpBasicAuthInterceptor(String username, String password) {
+  public HttpBasicAuthInterceptor(String username, String password, CookieStore cookieStore,
+      String cookieName) {
+    super(cookieStore, cookieName);
     if(username != null){
       credentials = new UsernamePasswordCredentials(username, password);
     }
@@ -46,8 +45,8 @@ public class HttpBasicAuthInterceptor implements HttpRequestInterceptor {
   }
 
   @Override
-  public void process(HttpRequest httpRequest, HttpContext httpContext)
-      throws HttpException, IOException {
+  protected void addHttpAuthHeader(HttpRequest httpRequest, HttpContext httpContext)
+      throws Exception {
     Header basicAuthHeader = authScheme.authenticate(
         credentials, httpRequest, httpContext);
     httpRequest.addHeader(basicAuthHeader);
@@ -18,13 +18,11 @@
 
 package org.apache.hive.jdbc;
 
-import java.io.IOException;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.hive.service.auth.HttpAuthUtils;
-import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
-import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.CookieStore;
 import org.apache.http.protocol.HttpContext;
 
 /**
@@ -34,7 +32,7 @@ import org.apache.http.protocol.HttpContext;
  * to the outgoing http request header.
  *
  */
-public class HttpKerberosRequestInterceptor implements HttpRequestInterceptor {
+public class HttpKerberosRequestInterceptor extends HttpRequestInterceptorBase {
 
   String principal;
   String host;
@@ -45,7 +43,8 @@ public class HttpKerberosRequestInterceptor implements HttpRequestInterceptor {
   private static ReentrantLock kerberosLock = new ReentrantLock(true);
 
   public HttpKerberosRequestInterceptor(String principal, String host,
-      String serverHttpUrl, boolean assumeSubject) {
+      String serverHttpUrl, boolean assumeSubject, CookieStore cookieStore, String cookieName) {
+    super(cookieStore, cookieName);
     this.principal = principal;
     this.host = host;
     this.serverHttpUrl = serverHttpUrl;
@@ -53,22 +52,18 @@ public class HttpKerberosRequestInterceptor implements HttpRequestInterceptor {
   }
 
   @Override
-  public void process(HttpRequest httpRequest, HttpContext httpContext)
-      throws HttpException, IOException {
-    String kerberosAuthHeader;
+  protected void addHttpAuthHeader(HttpRequest httpRequest, HttpContext httpContext)
+      throws Exception {
     try {
       // Generate the service ticket for sending to the server.
       // Locking ensures the tokens are unique in case of concurrent requests
       kerberosLock.lock();
-      kerberosAuthHeader = HttpAuthUtils.getKerberosServiceTicket(
+      String kerberosAuthHeader = HttpAuthUtils.getKerberosServiceTicket(
           principal, host, serverHttpUrl, assumeSubject);
       // Set the session key token (Base64 encoded) in the headers
       httpRequest.addHeader(HttpAuthUtils.AUTHORIZATION + ": " +
           HttpAuthUtils.NEGOTIATE + " ", kerberosAuthHeader);
-    } catch (Exception e) {
-      throw new HttpException(e.getMessage(), e);
-    }
-    finally {
+    } finally {
       kerberosLock.unlock();
     }
   }
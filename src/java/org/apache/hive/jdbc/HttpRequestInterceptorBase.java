@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.io.IOException;
+import java.util.Date;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.ServiceUnavailableRetryStrategy;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.cookie.CookieOrigin;
+import org.apache.http.cookie.CookieSpec;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * HttpRequestInterceptorBase.
+ *
+ * Authenticates the requests of the http transport mode. Once HiveServer2 answered with
+ * its auth cookie the requests carry only the cookie, the credentials are sent again when
+ * the server rejects it: the 401 response is retried once without the cookie. Only a cookie
+ * the request target would be sent counts, after a switch of the coordinator the cookie of
+ * the previous one does not hold back the credentials.
+ */
+public abstract class HttpRequestInterceptorBase
+    implements HttpRequestInterceptor, ServiceUnavailableRetryStrategy {
+  /** cookies of the connection, null when cookieAuth=false */
+  CookieStore cookieStore;
+  String cookieName;
+
+  public HttpRequestInterceptorBase(CookieStore cookieStore, String cookieName) {
+    this.cookieStore = cookieStore;
+    this.cookieName = cookieName;
+  }
+
+  /**
+   * Set the credentials of the request
+   */
+  protected abstract void addHttpAuthHeader(HttpRequest httpRequest, HttpContext httpContext)
+      throws Exception;
+
+  @Override
+  public void process(HttpRequest httpRequest, HttpContext httpContext)
+      throws HttpException, IOException {
+    if (getAuthCookie(httpContext) != null) {
+      return;
+    }
+    try {
+      addHttpAuthHeader(httpRequest, httpContext);
+    } catch (HttpException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new HttpException(e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public boolean retryRequest(HttpResponse response, int executionCount, HttpContext context) {
+    if (executionCount > 1
+        || response.getStatusLine().getStatusCode() != HttpStatus.SC_UNAUTHORIZED) {
+      return false;
+    }
+    Cookie rejected = getAuthCookie(context);
+    if (rejected == null) {
+      // the credentials themselves were rejected
+      return false;
+    }
+    // adding an expired copy removes the cookie from the store
+    BasicClientCookie expired = new BasicClientCookie(rejected.getName(), rejected.getValue());
+    expired.setDomain(rejected.getDomain());
+    expired.setPath(rejected.getPath());
+    expired.setExpiryDate(new Date(0));
+    cookieStore.addCookie(expired);
+    return true;
+  }
+
+  @Override
+  public long getRetryInterval() {
+    return 0;
+  }
+
+  /**
+   * @param httpContext context of the request, holds its cookie origin and spec
+   * @return the auth cookie the request is sent with, null when there is none
+   */
+  private Cookie getAuthCookie(HttpContext httpContext) {
+    if (cookieStore == null) {
+      return null;
+    }
+    HttpClientContext clientContext = HttpClientContext.adapt(httpContext);
+    CookieOrigin origin = clientContext.getCookieOrigin();
+    CookieSpec cookieSpec = clientContext.getCookieSpec();
+    if (origin == null || cookieSpec == null) {
+      // no cookie was added to the request
+      return null;
+    }
+    Date now = new Date();
+    for (Cookie cookie : cookieStore.getCookies()) {
+      // the spec matches host, path and, for a secure cookie, the scheme
+      if (cookie.getName().equals(cookieName) && !cookie.isExpired(now)
+          && cookieSpec.match(cookie, origin)) {
+        return cookie;
+      }
+    }
+    return null;
+  }
+}
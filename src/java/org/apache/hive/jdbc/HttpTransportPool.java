@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.hive.jdbc.Utils.JdbcConnectionParams;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLContexts;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * HttpTransportPool.
+ *
+ * HTTP connections of the http transport mode, shared by all JDBC connections of the JVM:
+ * a Thrift call reuses a kept alive connection to its HiveServer2 instead of opening one.
+ * There is one pool per trust store, the SSL socket factory belongs to the pool. The pools
+ * live as long as the JVM, an http client over one of them must never be closed.
+ */
+class HttpTransportPool {
+  private static final int MAX_PER_ROUTE = 64;
+  private static final int MAX_TOTAL = 256;
+
+  private static final Map<String, HttpClientConnectionManager> POOLS =
+      new HashMap<String, HttpClientConnectionManager>();
+
+  private HttpTransportPool() {
+  }
+
+  /**
+   * @param trustStorePath null or empty for the standard JSSE trust material
+   */
+  static synchronized HttpClientConnectionManager get(boolean useSsl, String trustStorePath,
+      String trustStorePassword) throws GeneralSecurityException, IOException {
+    String key = useSsl ? "https|" + (trustStorePath == null ? "" : trustStorePath) : "http";
+    HttpClientConnectionManager pool = POOLS.get(key);
+    if (pool == null) {
+      RegistryBuilder<ConnectionSocketFactory> registry = RegistryBuilder
+          .<ConnectionSocketFactory>create()
+          .register("http", PlainConnectionSocketFactory.getSocketFactory());
+      if (useSsl) {
+        registry.register("https", newSocketFactory(trustStorePath, trustStorePassword));
+      }
+      PoolingHttpClientConnectionManager created =
+          new PoolingHttpClientConnectionManager(registry.build());
+      created.setMaxTotal(MAX_TOTAL);
+      created.setDefaultMaxPerRoute(MAX_PER_ROUTE);
+      pool = created;
+      POOLS.put(key, pool);
+    }
+    return pool;
+  }
+
+  private static SSLConnectionSocketFactory newSocketFactory(String trustStorePath,
+      String trustStorePassword) throws GeneralSecurityException, IOException {
+    SSLContext sslContext;
+    if (trustStorePath == null || trustStorePath.isEmpty()) {
+      // Create a default socket factory based on standard JSSE trust material
+      sslContext = SSLContexts.createDefault();
+    } else {
+      // Pick trust store config from the given path
+      KeyStore trustStore = KeyStore.getInstance(JdbcConnectionParams.SSL_TRUST_STORE_TYPE);
+      FileInputStream in = new FileInputStream(trustStorePath);
+      try {
+        trustStore.load(in, trustStorePassword.toCharArray());
+      } finally {
+        in.close();
+      }
+      sslContext = SSLContexts.custom().loadTrustMaterial(trustStore).build();
+    }
+    return new SSLConnectionSocketFactory(sslContext,
+        SSLConnectionSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+  }
+}
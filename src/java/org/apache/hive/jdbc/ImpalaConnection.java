@@ -23,6 +23,7 @@ import com.cloudera.api.ClouderaManagerClientBuilder;
 import com.cloudera.api.v11.ServicesResourceV11;
 import com.cloudera.api.v12.RootResourceV12;
 import com.gridsum.impala.GridSumJDBCConf;
+import com.gridsum.impala.util.CircuitBreaker;
 import com.gridsum.impala.util.ConnectionParams;
 import com.gridsum.impala.util.HttpUtil;
 import com.gridsum.impala.util.ImpalaConstants;
@@ -51,24 +52,56 @@ public class ImpalaConnection extends HiveConnection {
 
     private static final Logger LOGGER = Logger.getLogger(ImpalaConnection.class);
 
+    /**
+     * database of the Connection URL, SET DB changes the current one
+     */
+    private final String initialDbName;
+
+    /**
+     * Cloudera Manager API client, built for the CM_API_URL and credentials in apiRootKey
+     */
+    private RootResourceV12 apiRoot;
+    private String apiRootKey;
+
     public ImpalaConnection(String uri, Properties info) throws SQLException {
         super(uri, info);
+        initialDbName = connParams.getDbName();
+    }
+
+    @Override
+    boolean resetSessionState() {
+        connParams.setDbName(initialDbName);
+        return super.resetSessionState();
+    }
+
+    /**
+     * An empty value restores the default of an Impala query option
+     */
+    @Override
+    protected String unsetStatement(String key) {
+        return "SET " + key + "=\"\"";
     }
 
     protected void openSession() throws SQLException {
         TOpenSessionReq openReq = new TOpenSessionReq();
 
         Map<String, String> openConf = new HashMap<String, String>();
+        SessionState sessionState = getSessionState();
+        Map<String, String> changedOptions = sessionState.getChangedOptions();
         // for remote JDBC client, try to set the conf var using 'set foo=bar'
-        for (Map.Entry<String, String> hiveConf : connParams.getHiveConfs().entrySet()) {
-            openConf.put("set:hiveconf:" + hiveConf.getKey(), hiveConf.getValue());
+        for (Map.Entry<String, String> hiveConf : sessionState.getOptions().entrySet()) {
+            if (!changedOptions.containsKey(hiveConf.getKey())) {
+                openConf.put("set:hiveconf:" + hiveConf.getKey(), hiveConf.getValue());
+            }
         }
+        // query options SET on a lost session, Impala takes them as they are
+        openConf.putAll(changedOptions);
         // For remote JDBC client, try to set the hive var using 'set hivevar:key=value'
-        for (Map.Entry<String, String> hiveVar : connParams.getHiveVars().entrySet()) {
+        for (Map.Entry<String, String> hiveVar : sessionState.getHiveVars().entrySet()) {
             openConf.put("set:hivevar:" + hiveVar.getKey(), hiveVar.getValue());
         }
         // switch the database
-        openConf.put("use:database", connParams.getDbName());
+        openConf.put("use:database", sessionState.getDatabase());
 
         // set the session configuration
         Map<String, String> sessVars = connParams.getSessionVars();
@@ -131,17 +164,22 @@ public class ImpalaConnection extends HiveConnection {
         return hasPredictMemAuto;
     }
 
-    //get CM API root
-    private RootResourceV12 getApiRoot() throws MalformedURLException {
+    //get CM API root, built again only when CM_API_URL, CM_API_USERNAME or CM_API_PASSWORD changed
+    private synchronized RootResourceV12 getApiRoot() throws MalformedURLException {
         if (sessConfMap.containsKey(ConnectionParams.CM_API_URL)) {
-            LOGGER.info("Get cm root start.");
-            RootResourceV12 root = new ClouderaManagerClientBuilder()
-                    .withBaseURL(new URL(sessConfMap.get(ConnectionParams.CM_API_URL)))
-                    .withUsernamePassword(this.getSessionValue(ConnectionParams.CM_API_USERNAME, GridSumJDBCConf.getCmApiUsername()),
-                            this.getSessionValue(ConnectionParams.CM_API_PASSWORD, GridSumJDBCConf.getCmApiPassword()))
-                    .build().getRootV12();
-            LOGGER.info("Get cm root over.");
-            return root;
+            String username = this.getSessionValue(ConnectionParams.CM_API_USERNAME, GridSumJDBCConf.getCmApiUsername());
+            String password = this.getSessionValue(ConnectionParams.CM_API_PASSWORD, GridSumJDBCConf.getCmApiPassword());
+            String key = sessConfMap.get(ConnectionParams.CM_API_URL) + "|" + username + "|" + password;
+            if (null == apiRoot || !key.equals(apiRootKey)) {
+                LOGGER.info("Get cm root start.");
+                apiRoot = new ClouderaManagerClientBuilder()
+                        .withBaseURL(new URL(sessConfMap.get(ConnectionParams.CM_API_URL)))
+                        .withUsernamePassword(username, password)
+                        .build().getRootV12();
+                apiRootKey = key;
+                LOGGER.info("Get cm root over.");
+            }
+            return apiRoot;
         } else {
             throw new RuntimeException("CM_API_URL must be set in URL.");
         }
@@ -213,6 +251,11 @@ public class ImpalaConnection extends HiveConnection {
      */
     private String getQueryDetailByCM(String queryId) {
         String queryDetail = null;
+        CircuitBreaker breaker = CircuitBreaker.of("cm:" + sessConfMap.get(ConnectionParams.CM_API_URL));
+        if (!breaker.allowRequest()) {
+            LOGGER.error("CM_API is not available, circuit breaker " + breaker.getName() + " is open.");
+            return null;
+        }
         try {
             LOGGER.info("Get query detail from cm api start.");
             ServicesResourceV11 servicesResource = getApiRoot().getClustersResource().
@@ -220,7 +263,9 @@ public class ImpalaConnection extends HiveConnection {
             queryDetail = servicesResource.getImpalaQueriesResource(this.getSessionValue(ConnectionParams.CM_API_IMPALA_SERVICE_NAME, GridSumJDBCConf.getCmApiImpalaServiceName()))
                     .getQueryDetails(queryId, "text").getDetails();
             LOGGER.info("Get query detail from cm api over.");
+            breaker.onSuccess();
         } catch (Exception e) {
+            breaker.onFailure();
             LOGGER.error("CM_API is not available.Please check parameter <CM_API_URL;CM_API_USERNAME;CM_API_PASSWORD;CM_API_CLUSTER_NAME;CM_API_IMPALA_SERVICE_NAME> in URL. Cause by:"
                     + e.toString());
         }
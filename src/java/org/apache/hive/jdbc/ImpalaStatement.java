@@ -32,6 +32,16 @@ import org.apache.thrift.transport.TTransportException;
 
 import java.nio.ByteBuffer;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Impala Statement
@@ -41,6 +51,11 @@ public class ImpalaStatement extends HiveStatement {
 
     private static final Logger LOGGER = Logger.getLogger(HiveStatement.class);
 
+    /**
+     * Predictions of the queries given to predictQueries not executed yet, by sql, db and pool
+     */
+    private Map<String, Future<String>> batchPredictions;
+
     public ImpalaStatement(HiveConnection connection, TCLIService.Iface client, TSessionHandle sessHandle) {
         super(connection, client, sessHandle);
     }
@@ -76,149 +91,110 @@ public class ImpalaStatement extends HiveStatement {
      * execute sql donot need return resutlSet
      *
      * @param sql
+     * @param queryOptions query options for this statement only, e.g. MEM_LIMIT, may be null
      * @return
      * @throws SQLException
      */
-    private boolean executeSQL(String sql) throws SQLException {
+    private boolean executeSQL(String sql, Map<String, String> queryOptions) throws SQLException {
         checkConnection("execute");
 
-        try {
-            closeClientOperation();
-        } catch (SQLException eS) {
-            if (eS.toString().contains(ImpalaConstants.TTRANSPORT_EXCEPTION)) {
-                LOGGER.info("Catch close operation error.");
-                reInitializeStmt();
-            }
-            isExecuteStatementFailed = true;
-            throw eS;
-        }
-        initFlags();
-
-        TExecuteStatementReq execReq = new TExecuteStatementReq(sessHandle, sql);
-        /**
-         * Run asynchronously whenever possible
-         * Currently only a SQLOperation can be run asynchronously,
-         * in a background operation thread
-         * Compilation is synchronous and execution is asynchronous
-         */
-        execReq.setRunAsync(true);
-        execReq.setConfOverlay(sessConf);
-
-        try {
-            TExecuteStatementResp execResp = client.ExecuteStatement(execReq);
-            Utils.verifySuccessWithInfo(execResp.getStatus());
-            stmtHandle = execResp.getOperationHandle();
-            isExecuteStatementFailed = false;
-        } catch (SQLException eS) {
-            if (eS.toString().contains(ImpalaConstants.CATALOG_UPDATE_EXCEPTION)) {
-                LOGGER.info("Catch waiting catalog update error.");
-                reInitializeStmt();
-            }
-            isExecuteStatementFailed = true;
-            throw eS;
-        } catch (TTransportException te) {
-            LOGGER.info("Catch execute sql error.");
-            reInitializeStmt();
-            isExecuteStatementFailed = true;
-            throw new SQLException(te.toString(), "08S01", te);
-        } catch (Exception ex) {
-            isExecuteStatementFailed = true;
-            throw new SQLException(ex.toString(), "08S01", ex);
-        }
+        submitStatement(sql, queryOptions);
 
         TGetOperationStatusReq statusReq = new TGetOperationStatusReq(stmtHandle);
         boolean operationComplete = false;
         TGetOperationStatusResp statusResp;
+        PollingBackoff backoff = connection.newPollingBackoff();
+        connection.getMetrics().recordExecution();
 
         // Poll on the operation status, till the operation is complete
-        while (!operationComplete) {
-            try {
-                /**
-                 * For an async SQLOperation, GetOperationStatus will use the long polling approach
-                 * It will essentially return after the HIVE_SERVER2_LONG_POLLING_TIMEOUT (a server config) expires
-                 */
-                statusResp = client.GetOperationStatus(statusReq);
-                Utils.verifySuccessWithInfo(statusResp.getStatus());
-                if (statusResp.isSetOperationState()) {
-                    switch (statusResp.getOperationState()) {
-                        case CLOSED_STATE:
-                        case FINISHED_STATE:
-                            operationComplete = true;
-                            break;
-                        case CANCELED_STATE:
-                            // 01000 -> warning
-                            throw new SQLException("Query was cancelled", "01000");
-                        case ERROR_STATE:
-                            int retryCount = ((ImpalaConnection) this.connection).getRetryCount();
-                            if (retryCount > 0) {
-                                LOGGER.info("Ready for retry.");
-                                String queryId = this.getQueryId();
-                                String queryDetail = ((ImpalaConnection) this.connection).getQueryDetail(queryId);
-                                String queryStatus = StringUtil.getQueryStatus(queryDetail);
-                                if (null != queryStatus && StringUtil.isOOM(queryStatus)) {
-                                    String queryStatement = StringUtil.getQueryStatement(queryDetail);
-                                    if (null != queryStatement) {
-                                        int currentRetryCount = StringUtil.getRetryCountFromStatement(queryStatement) + 1;
-                                        String retrySQL = StringUtil.getRetryStatement(queryStatement, currentRetryCount);
-                                        if (StringUtil.isQuery(retrySQL)) {
-                                            Long memLimit = StringUtil.getQueryMemLimit(queryDetail);
-                                            memLimit = memLimit * GridSumJDBCConf.getImpalaRetryMemoryMultiple();
-                                            //when retry count less than max retry count and retry mem_limit less than max retry mem_limit , it will execute the sql again.
-                                            if (currentRetryCount <= GridSumJDBCConf.getImpalaRetryMaxCount() && memLimit <= ((ImpalaConnection) this.connection).getMaxRetryMem()) {
-                                                LOGGER.info("Set retry memory start.");
-                                                executeSQL(String.format(ImpalaConstants.MEM_LIMIT, memLimit.toString()));
-                                                LOGGER.info("Set retry memory over.");
-                                                LOGGER.info("Execute retry sql start.");
-                                                executeSQL(retrySQL);
-                                                LOGGER.info("Execute retry sql over.");
-                                                operationComplete = true;
-                                                break;
+        try {
+            while (!operationComplete) {
+                try {
+                    /**
+                     * For an async SQLOperation, GetOperationStatus will use the long polling approach
+                     * It will essentially return after the HIVE_SERVER2_LONG_POLLING_TIMEOUT (a server config) expires
+                     */
+                    statusResp = client.GetOperationStatus(statusReq);
+                    backoff.onPoll();
+                    Utils.verifySuccessWithInfo(statusResp.getStatus());
+                    if (statusResp.isSetOperationState()) {
+                        switch (statusResp.getOperationState()) {
+                            case CLOSED_STATE:
+                            case FINISHED_STATE:
+                                operationComplete = true;
+                                break;
+                            case CANCELED_STATE:
+                                // 01000 -> warning
+                                throw new SQLException("Query was cancelled", "01000");
+                            case ERROR_STATE:
+                                int retryCount = ((ImpalaConnection) this.connection).getRetryCount();
+                                if (retryCount > 0) {
+                                    LOGGER.info("Ready for retry.");
+                                    String queryId = this.getQueryId();
+                                    String queryDetail = ((ImpalaConnection) this.connection).getQueryDetail(queryId);
+                                    String queryStatus = StringUtil.getQueryStatus(queryDetail);
+                                    if (null != queryStatus && StringUtil.isOOM(queryStatus)) {
+                                        String queryStatement = StringUtil.getQueryStatement(queryDetail);
+                                        if (null != queryStatement) {
+                                            int currentRetryCount = StringUtil.getRetryCountFromStatement(queryStatement) + 1;
+                                            String retrySQL = StringUtil.getRetryStatement(queryStatement, currentRetryCount);
+                                            if (StringUtil.isQuery(retrySQL)) {
+                                                Long memLimit = StringUtil.getQueryMemLimit(queryDetail);
+                                                memLimit = memLimit * GridSumJDBCConf.getImpalaRetryMemoryMultiple();
+                                                //when retry count less than max retry count and retry mem_limit less than max retry mem_limit , it will execute the sql again.
+                                                if (currentRetryCount <= GridSumJDBCConf.getImpalaRetryMaxCount() && memLimit <= ((ImpalaConnection) this.connection).getMaxRetryMem()) {
+                                                    Map<String, String> retryOptions = new HashMap<String, String>();
+                                                    if (null != queryOptions) {
+                                                        retryOptions.putAll(queryOptions);
+                                                    }
+                                                    retryOptions.put(ImpalaConstants.MEM_LIMIT_OPTION, memLimit.toString());
+                                                    LOGGER.info("Execute retry sql start.");
+                                                    executeSQL(retrySQL, retryOptions);
+                                                    LOGGER.info("Execute retry sql over.");
+                                                    operationComplete = true;
+                                                    break;
+                                                }
                                             }
                                         }
                                     }
                                 }
-                            }
-                            if (null == statusResp.getErrorMessage()) {
-                                LOGGER.info("Original error message is null.Get query status start.");
-                                String queryId = this.getQueryId();
-                                String queryDetail = ((ImpalaConnection) this.connection).getQueryDetail(queryId);
-                                String queryStatus = StringUtil.getQueryStatus(queryDetail);
-                                LOGGER.info("Get query status over.");
-                                if (null != queryStatus) {
-                                    throw new SQLException(queryStatus,
-                                            statusResp.getSqlState(), statusResp.getErrorCode());
-                                } else {
-                                    LOGGER.info("QueryStatus is null.QueryDetail is " + queryDetail);
-                                    throw new SQLException("query has already canceled, please contact administrator.",
-                                            statusResp.getSqlState(), statusResp.getErrorCode());
-                                }
-                            }
-                            // Get the error details from the underlying exception
-                            throw new SQLException(statusResp.getErrorMessage(),
-                                    statusResp.getSqlState(), statusResp.getErrorCode());
-                        case UKNOWN_STATE:
-                            throw new SQLException("Unknown query", "HY000");
-                        case INITIALIZED_STATE:
-                        case PENDING_STATE:
-                        case RUNNING_STATE:
-                            break;
+                                throw queryError(statusResp);
+                            case UKNOWN_STATE:
+                                throw new SQLException("Unknown query", "HY000");
+                            case INITIALIZED_STATE:
+                            case PENDING_STATE:
+                            case RUNNING_STATE:
+                                break;
+                        }
                     }
+                    if (!operationComplete) {
+                        backoff.await(statusResp.getOperationState());
+                    }
+                } catch (SQLException e) {
+                    isLogBeingGenerated = false;
+                    throw e;
+                } catch (TTransportException te) {
+                    LOGGER.info("Catch executing sql error.");
+                    reInitializeStmt();
+                    isExecuteStatementFailed = true;
+                    throw new SQLException(te.toString(), "08S01", te);
+                } catch (InterruptedException e) {
+                    isLogBeingGenerated = false;
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for the query", "HY008", e);
+                } catch (Exception e) {
+                    isLogBeingGenerated = false;
+                    throw new SQLException(e.toString(), "08S01", e);
                 }
-            } catch (SQLException e) {
-                isLogBeingGenerated = false;
-                throw e;
-            } catch (TTransportException te) {
-                LOGGER.info("Catch executing sql error.");
-                reInitializeStmt();
-                isExecuteStatementFailed = true;
-                throw new SQLException(te.toString(), "08S01", te);
-            } catch (Exception e) {
-                isLogBeingGenerated = false;
-                throw new SQLException(e.toString(), "08S01", e);
+            }
+        } finally {
+            if (!operationComplete) {
+                releaseCoordinator();
             }
         }
 
         isLogBeingGenerated = false;
+        statusPollCount = backoff.getPolls();
 
         // The query should be completed by now
         if (!stmtHandle.isHasResultSet()) {
@@ -228,10 +204,254 @@ public class ImpalaStatement extends HiveStatement {
         return true;
     }
 
+    /**
+     * Error of a failed query, looked up from the query detail when Impala sends no message
+     */
+    private SQLException queryError(TGetOperationStatusResp statusResp) {
+        if (null == statusResp.getErrorMessage()) {
+            LOGGER.info("Original error message is null.Get query status start.");
+            String queryId = this.getQueryId();
+            String queryDetail = ((ImpalaConnection) this.connection).getQueryDetail(queryId);
+            String queryStatus = StringUtil.getQueryStatus(queryDetail);
+            LOGGER.info("Get query status over.");
+            if (null != queryStatus) {
+                return new SQLException(queryStatus,
+                        statusResp.getSqlState(), statusResp.getErrorCode());
+            } else {
+                LOGGER.info("QueryStatus is null.QueryDetail is " + queryDetail);
+                return new SQLException("query has already canceled, please contact administrator.",
+                        statusResp.getSqlState(), statusResp.getErrorCode());
+            }
+        }
+        // Get the error details from the underlying exception
+        return new SQLException(statusResp.getErrorMessage(),
+                statusResp.getSqlState(), statusResp.getErrorCode());
+    }
+
+    @Override
+    protected Map<String, String> newConfOverlay(Map<String, String> queryOptions) {
+        // Impala applies the overlay as query options of this statement, no SET round trip needed
+        Map<String, String> confOverlay = new HashMap<String, String>(sessConf);
+        String requestPool = this.connection.getSessionValue(ConnectionParams.IMPALA_REQUEST_POOL, null);
+        if (null != requestPool) {
+            confOverlay.put(ImpalaConstants.REQUEST_POOL_OPTION, requestPool);
+        }
+        if (null != queryOptions) {
+            confOverlay.putAll(queryOptions);
+        }
+        return confOverlay;
+    }
+
+    /**
+     * Asynchronous executions get the same memory setting as execute(),
+     * a query failing for lack of memory is not retried.
+     */
+    @Override
+    protected boolean isOperationComplete(TGetOperationStatusResp statusResp) throws SQLException {
+        if (statusResp.getOperationState() == TOperationState.ERROR_STATE) {
+            Utils.verifySuccessWithInfo(statusResp.getStatus());
+            throw queryError(statusResp);
+        }
+        return super.isOperationComplete(statusResp);
+    }
+
+    @Override
+    protected void submitAsync(String sql) throws SQLException {
+        sql = StringUtil.addLimit(sql, maxRows);
+        Prediction prediction = startPrediction(sql);
+        closePreviousOperation();
+        Map<String, String> queryOptions = new HashMap<String, String>();
+        String str = prepareQuery(sql, prediction, queryOptions);
+        submitStatement(str, queryOptions);
+    }
+
+    /**
+     * Memory prediction of a query, running while the statement gets ready to submit it
+     */
+    private static class Prediction {
+        private final Future<String> response;
+        private final long deadline;
+
+        private Prediction(Future<String> response, long deadline) {
+            this.response = response;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Ask the memory predict service in the background
+     *
+     * @return null when the sql gets no prediction
+     */
+    private Prediction startPrediction(String sql) {
+        if (!StringUtil.isQuery(sql) || !((ImpalaConnection) this.connection).hasPredictMemAuto()) {
+            return null;
+        }
+        QueryParam queryParam = newQueryParam(sql);
+        long deadline = System.currentTimeMillis() + GridSumJDBCConf.getPredictTimeout();
+        if (null != batchPredictions) {
+            Future<String> response = batchPredictions.remove(getPredictionKey(queryParam));
+            if (null != response && !isFailed(response)) {
+                return new Prediction(response, deadline);
+            }
+        }
+        LOGGER.info("Ready for get predict memory.");
+        return new Prediction(PredictService.getPredictResponseAsync(queryParam), deadline);
+    }
+
+    private QueryParam newQueryParam(String sql) {
+        QueryParam queryParam = new QueryParam();
+        String db = ((ImpalaConnection) this.connection).getDbName();
+        queryParam.setSql(sql).setDb(db).setPool(((ImpalaConnection) this.connection).getPredictMemPool());
+        return queryParam;
+    }
+
+    private static String getPredictionKey(QueryParam queryParam) {
+        return queryParam.getSql() + "\u0001" + queryParam.getDb() + "\u0001" + queryParam.getPool();
+    }
+
+    /**
+     * A batch prediction that failed is asked again for the query on its own. One still
+     * pending is waited for like any prediction, up to 'impala.predict.timeout', rather
+     * than sent a second time.
+     */
+    private static boolean isFailed(Future<String> response) {
+        if (!response.isDone()) {
+            return false;
+        }
+        try {
+            response.get();
+            return false;
+        } catch (ExecutionException e) {
+            LOGGER.warn("Batch prediction failed, predict the query on its own. " + e.getCause());
+            return true;
+        } catch (CancellationException e) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+
+    /**
+     * Predict the memory of the queries this statement is about to execute, e.g. the queries
+     * of a report or a script, one after another in the background or in requests to
+     * 'impala.predict.batch.url'. Executing one of them uses its prediction. A query whose
+     * prediction failed, or whose database or pool changed meanwhile, is predicted on its
+     * own. Predictions not used are dropped by the next call and by close().
+     *
+     * @param sqls the queries, other statements are ignored
+     */
+    public void predictQueries(List<String> sqls) throws SQLException {
+        checkConnection("predictQueries");
+        cancelPredictions();
+        if (!((ImpalaConnection) this.connection).hasPredictMemAuto()) {
+            return;
+        }
+        Map<String, QueryParam> queries = new LinkedHashMap<String, QueryParam>();
+        for (String sql : sqls) {
+            // the same sql execute() predicts
+            String query = StringUtil.addLimit(sql, maxRows);
+            if (StringUtil.isQuery(query)) {
+                QueryParam queryParam = newQueryParam(query);
+                queries.put(getPredictionKey(queryParam), queryParam);
+            }
+        }
+        LOGGER.info("Ready for get predict memory of " + queries.size() + " queries.");
+        List<String> keys = new ArrayList<String>(queries.keySet());
+        List<Future<String>> responses =
+                PredictService.getPredictResponsesAsync(new ArrayList<QueryParam>(queries.values()));
+        batchPredictions = new HashMap<String, Future<String>>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (null != responses.get(i)) {
+                batchPredictions.put(keys.get(i), responses.get(i));
+            }
+        }
+    }
+
+    /**
+     * Stop predicting the queries of predictQueries that were not executed
+     */
+    private void cancelPredictions() {
+        if (null != batchPredictions) {
+            for (Future<String> response : batchPredictions.values()) {
+                response.cancel(false);
+            }
+            batchPredictions = null;
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        cancelPredictions();
+        super.close();
+    }
+
+    /**
+     * Wait for the memory prediction until its deadline and annotate the sql with it. A query
+     * whose prediction failed or came too late gets the MEM_LIMIT of the connection or
+     * 'impala.predict.fallback.mem_limit', the annotation records the fallback.
+     *
+     * @param prediction   from {@link #startPrediction(String)}
+     * @param queryOptions receives the MEM_LIMIT of the query
+     * @return sql to send
+     */
+    private String prepareQuery(String sql, Prediction prediction, Map<String, String> queryOptions)
+            throws SQLException {
+        JSONObject memBody = null;
+        String memSetting = null;
+        if (null != prediction) {
+            try {
+                long wait = Math.max(0, prediction.deadline - System.currentTimeMillis());
+                memBody = JSON.parseObject(prediction.response.get(wait, TimeUnit.MILLISECONDS));
+                memSetting = PredictService.getPredictMemory(memBody);
+            } catch (TimeoutException e) {
+                // the late prediction still fills the cache for the next query of this shape
+                LOGGER.warn("Predict memory not back within " + GridSumJDBCConf.getPredictTimeout() + "ms.");
+                memBody = fallback("predict memory timed out after " + GridSumJDBCConf.getPredictTimeout() + "ms",
+                        queryOptions);
+            } catch (ExecutionException e) {
+                LOGGER.error("Get predict memory exception:", e.getCause());
+                memBody = fallback(e.getCause().toString(), queryOptions);
+            } catch (RuntimeException e) {
+                LOGGER.error("Get predict memory exception:", e);
+                memBody = fallback(e.toString(), queryOptions);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for the memory prediction", "HY008", e);
+            }
+            if (null != memSetting) {
+                queryOptions.put(ImpalaConstants.MEM_LIMIT_OPTION, StringUtil.convertMB2Byte(memSetting));
+            }
+        } else if (StringUtil.isQuery(sql) && !((ImpalaConnection) this.connection).hasPredictMemAuto()) {
+            memSetting = ((ImpalaConnection) this.connection).getMemLimit();
+            if (null != memSetting) {
+                queryOptions.put(ImpalaConstants.MEM_LIMIT_OPTION, memSetting);
+            }
+        }
+        return StringUtil.addAnnotation(sql, memBody);
+    }
+
+    private JSONObject fallback(String error, Map<String, String> queryOptions) {
+        connection.getMetrics().recordPredictFallback();
+        JSONObject memBody = new JSONObject();
+        memBody.put(ImpalaConstants.ERROR_KEY, error);
+        String memLimit = ((ImpalaConnection) this.connection).getMemLimit();
+        if (null == memLimit) {
+            memLimit = GridSumJDBCConf.getPredictFallbackMemLimit();
+        }
+        if (null != memLimit) {
+            queryOptions.put(ImpalaConstants.MEM_LIMIT_OPTION, memLimit);
+            memBody.put(ImpalaConstants.FALLBACK_KEY, memLimit);
+        }
+        return memBody;
+    }
+
     @Override
     public boolean execute(String sql) throws SQLException {
+        String[] setStatementKeyValue = null;
         if (StringUtil.isSet(sql)) {
-            String[] setStatementKeyValue = StringUtil.getStatementProperty(sql);
+            setStatementKeyValue = StringUtil.getStatementProperty(sql);
             if (null != setStatementKeyValue) {
                 String key = setStatementKeyValue[0];
                 String value = setStatementKeyValue[1];
@@ -246,45 +466,29 @@ public class ImpalaStatement extends HiveStatement {
                     return true;
                 }
                 if (key.toUpperCase().equals(ConnectionParams.IMPALA_REQUEST_POOL)) {
+                    // sent with every following statement in the execute request
                     this.connection.putSessionValue(ConnectionParams.IMPALA_REQUEST_POOL, value);
+                    return true;
                 }
-            }
-        }
-        // set mem when need
-        JSONObject memBody = null;
-        String memSetting = null;
-        if (StringUtil.isQuery(sql)) {
-            if (((ImpalaConnection) this.connection).hasPredictMemAuto()) {
-                QueryParam queryParam = new QueryParam();
-                String db = ((ImpalaConnection) this.connection).getDbName();
-                queryParam.setSql(sql).setDb(db).setPool(((ImpalaConnection) this.connection).getPredictMemPool());
-                try {
-                    LOGGER.info("Ready for get predict memory.");
-                    memBody = JSON.parseObject(PredictService.getPredictResponse(queryParam));
-                    memSetting = PredictService.getPredictMemory(memBody);
-                } catch (RuntimeException e) {
-                    LOGGER.error("Get predict memory exception:", e);
-                    memBody = new JSONObject();
-                    memBody.put(ImpalaConstants.ERROR_KEY, e.toString());
-                }
-                if (null != memSetting) {
-                    executeSQL(String.format(ImpalaConstants.MEM_LIMIT, StringUtil.convertMB2Byte(memSetting)));
-                }
-            } else {
-                memSetting = ((ImpalaConnection) this.connection).getMemLimit();
-                if (null != memSetting) {
-                    executeSQL(String.format(ImpalaConstants.MEM_LIMIT, memSetting));
+                if (skipRedundantSet(setStatementKeyValue)) {
+                    return false;
                 }
             }
         }
-        String str = StringUtil.addAnnotation(sql, memBody);
-        if (!executeSQL(str)) {
+        // let the server stop at maxRows, the prediction then sees the capped query as well
+        sql = StringUtil.addLimit(sql, maxRows);
+        // the previous operation is closed while the memory is predicted
+        Prediction prediction = startPrediction(sql);
+        closePreviousOperation();
+        // set mem when need
+        Map<String, String> queryOptions = new HashMap<String, String>();
+        String str = prepareQuery(sql, prediction, queryOptions);
+        boolean hasResultSet = executeSQL(str, queryOptions);
+        recordSessionChange(sql, setStatementKeyValue);
+        if (!hasResultSet) {
             return false;
         }
-        resultSet = new HiveQueryResultSet.Builder(this).setClient(client).setSessionHandle(sessHandle)
-                .setStmtHandle(stmtHandle).setMaxRows(maxRows).setFetchSize(fetchSize)
-                .setScrollable(isScrollableResultset)
-                .build();
+        resultSet = newResultSetBuilder().build();
         return true;
     }
 }
@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hive.service.cli.thrift.TCLIService;
+import org.apache.hive.service.cli.thrift.TOperationHandle;
+import org.apache.thrift.TException;
+
+/**
+ * MultiplexedClient.
+ *
+ * Thread-safe TCLIService client over several transports that share one session.
+ * Each transport still carries one RPC at a time, but calls of different operations
+ * no longer wait for each other. A call that starts an operation goes to an idle
+ * transport, and every later call on that operation handle is sent over the same
+ * transport until CloseOperation.
+ */
+class MultiplexedClient implements InvocationHandler {
+
+  private static final String CLOSE_OPERATION = "CloseOperation";
+  private static final String CANCEL_OPERATION = "CancelOperation";
+  private static final String CLOSE_SESSION = "CloseSession";
+
+  private final List<TCLIService.Iface> clients;
+  private final List<ReentrantLock> locks;
+  private final AtomicInteger next = new AtomicInteger();
+  /**
+   * transport index of every open operation, keyed by operation guid. An entry is
+   * dropped when the operation is closed or cancelled, whether the call succeeds
+   * or not, and all are dropped when the session is closed.
+   */
+  private final Map<ByteBuffer, Integer> pinned = new ConcurrentHashMap<ByteBuffer, Integer>();
+  /** getOperationHandle() of request and response classes, null when they have none */
+  private final Map<Class<?>, Method> handleGetters = new ConcurrentHashMap<Class<?>, Method>();
+  private final Map<Class<?>, Boolean> noHandle = new ConcurrentHashMap<Class<?>, Boolean>();
+
+  private MultiplexedClient(List<TCLIService.Iface> clients) {
+    this.clients = clients;
+    this.locks = new ArrayList<ReentrantLock>(clients.size());
+    for (int i = 0; i < clients.size(); i++) {
+      locks.add(new ReentrantLock());
+    }
+  }
+
+  /**
+   * @param clients raw clients, one per open transport, all on the same session
+   */
+  static TCLIService.Iface newClient(List<TCLIService.Iface> clients) {
+    return (TCLIService.Iface) Proxy.newProxyInstance(
+        HiveConnection.class.getClassLoader(),
+        new Class [] { TCLIService.Iface.class },
+        new MultiplexedClient(clients));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object [] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return method.invoke(this, args);
+    }
+    Object request = args == null || args.length == 0 ? null : args[0];
+    ByteBuffer operation = operationKey(request);
+    int index;
+    if (operation != null) {
+      Integer pin = pinned.get(operation);
+      index = pin == null ? 0 : pin;
+    } else {
+      index = pickIdle();
+    }
+
+    Object response;
+    try {
+      response = call(index, method, args);
+    } finally {
+      String name = method.getName();
+      if (operation != null
+          && (CLOSE_OPERATION.equals(name) || CANCEL_OPERATION.equals(name))) {
+        // the handle is session wide, a later call may go over any transport
+        pinned.remove(operation);
+      } else if (CLOSE_SESSION.equals(name)) {
+        pinned.clear();
+      }
+    }
+
+    if (operation == null) {
+      ByteBuffer started = operationKey(response);
+      if (started != null) {
+        pinned.put(started, index);
+      }
+    }
+    return response;
+  }
+
+  private Object call(int index, Method method, Object [] args) throws TException {
+    ReentrantLock lock = locks.get(index);
+    lock.lock();
+    try {
+      return method.invoke(clients.get(index), args);
+    } catch (InvocationTargetException e) {
+      // all IFace APIs throw TException
+      if (e.getTargetException() instanceof TException) {
+        throw (TException) e.getTargetException();
+      } else {
+        // should not happen
+        throw new TException("Error in calling method " + method.getName(),
+            e.getTargetException());
+      }
+    } catch (Exception e) {
+      throw new TException("Error in calling method " + method.getName(), e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * First transport nobody is using, starting after the last pick so the
+   * operations spread evenly; when all are busy wait on the next one in turn
+   */
+  private int pickIdle() {
+    int size = clients.size();
+    int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+    for (int i = 0; i < size; i++) {
+      int index = (start + i) % size;
+      if (!locks.get(index).isLocked()) {
+        return index;
+      }
+    }
+    return start;
+  }
+
+  /**
+   * Guid of the operation handle a request or response carries, null if it has none
+   */
+  private ByteBuffer operationKey(Object message) {
+    if (message == null) {
+      return null;
+    }
+    Class<?> type = message.getClass();
+    if (noHandle.containsKey(type)) {
+      return null;
+    }
+    Method getter = handleGetters.get(type);
+    if (getter == null) {
+      try {
+        getter = type.getMethod("getOperationHandle");
+      } catch (NoSuchMethodException e) {
+        noHandle.put(type, Boolean.TRUE);
+        return null;
+      }
+      handleGetters.put(type, getter);
+    }
+    try {
+      TOperationHandle handle = (TOperationHandle) getter.invoke(message);
+      if (handle == null || handle.getOperationId() == null) {
+        return null;
+      }
+      return ByteBuffer.wrap(handle.getOperationId().getGuid());
+    } catch (Exception e) {
+      return null;
+    }
+  }
+}
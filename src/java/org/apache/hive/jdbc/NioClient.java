@@ -0,0 +1,269 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.gridsum.impala.GridSumJDBCConf;
+import org.apache.hive.service.cli.thrift.TCLIService;
+import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.apache.thrift.async.TAsyncClientManager;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TNonblockingTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * NioClient.
+ *
+ * TCLIService client of transportMode=nio. The RPCs of all such connections in the JVM
+ * are driven by a few selector threads (TAsyncClientManager, "nio.event.loops" in
+ * conf.properties), so an open connection holds no thread of its own and a status poll
+ * of an asynchronous execution holds none while waiting for the server.
+ *
+ * The proxy returned by {@link #newClient} is a thread-safe blocking TCLIService.Iface,
+ * calls on one connection are sent one at a time. {@link #invokeAsync} starts a call
+ * without waiting for it.
+ */
+class NioClient implements InvocationHandler {
+
+  /**
+   * Outcome of a call started by {@link #invokeAsync}. Runs on a selector thread, which
+   * must not block, so hand any further RPC off to another thread.
+   */
+  interface ResponseCallback {
+    void onResponse(Object response);
+
+    void onError(Exception e);
+  }
+
+  private static TAsyncClientManager[] eventLoops;
+  private static final AtomicInteger nextEventLoop = new AtomicInteger();
+  /** AsyncClient method of every Iface method name */
+  private static final Map<String, Method> asyncMethods = new ConcurrentHashMap<String, Method>();
+  /** getResult() of every AsyncClient call class */
+  private static final Map<Class<?>, Method> resultGetters = new ConcurrentHashMap<Class<?>, Method>();
+
+  private final TCLIService.AsyncClient client;
+  /** the async client carries one call at a time */
+  private final Semaphore inFlight = new Semaphore(1);
+
+  private NioClient(TNonblockingTransport transport, int timeout) throws IOException {
+    client = new TCLIService.AsyncClient(new TBinaryProtocol.Factory(), eventLoop(), transport);
+    if (timeout > 0) {
+      client.setTimeout(timeout);
+    }
+  }
+
+  /**
+   * @param transport connected transport, SASL negotiation done
+   * @param timeout limit of one call, units ms, 0 waits forever
+   */
+  static TCLIService.Iface newClient(TNonblockingTransport transport, int timeout)
+      throws TTransportException {
+    try {
+      return (TCLIService.Iface) Proxy.newProxyInstance(
+          HiveConnection.class.getClassLoader(),
+          new Class [] { TCLIService.Iface.class },
+          new NioClient(transport, timeout));
+    } catch (IOException e) {
+      throw new TTransportException("Could not start the nio event loop: " + e.getMessage(), e);
+    }
+  }
+
+  static boolean isNioClient(TCLIService.Iface client) {
+    return Proxy.isProxyClass(client.getClass())
+        && Proxy.getInvocationHandler(client) instanceof NioClient;
+  }
+
+  /**
+   * Start a call on a client made by {@link #newClient} without waiting for the answer.
+   *
+   * @return false when the client is not an nio client or is busy with another call,
+   * the caller then makes the call the blocking way
+   */
+  static boolean invokeAsync(TCLIService.Iface client, String method, Object request,
+      ResponseCallback callback) {
+    if (!isNioClient(client)) {
+      return false;
+    }
+    NioClient nio = (NioClient) Proxy.getInvocationHandler(client);
+    if (!nio.inFlight.tryAcquire()) {
+      return false;
+    }
+    try {
+      nio.start(method, request, callback);
+    } catch (TException e) {
+      callback.onError(e);
+    }
+    return true;
+  }
+
+  private static synchronized TAsyncClientManager eventLoop() throws IOException {
+    if (eventLoops == null) {
+      TAsyncClientManager[] loops =
+          new TAsyncClientManager[Math.max(1, GridSumJDBCConf.getNioEventLoops())];
+      for (int i = 0; i < loops.length; i++) {
+        loops[i] = new TAsyncClientManager();
+      }
+      eventLoops = loops;
+    }
+    return eventLoops[(nextEventLoop.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length];
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object [] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return method.invoke(this, args);
+    }
+    BlockingCallback callback = new BlockingCallback();
+    inFlight.acquireUninterruptibly();
+    start(method.getName(), args[0], callback);
+    return callback.await(method.getName());
+  }
+
+  /**
+   * Send a call, the caller holds the in flight permit which is released when it ends
+   */
+  private void start(final String method, Object request, final ResponseCallback callback)
+      throws TException {
+    AsyncMethodCallback<Object> resultHandler = new AsyncMethodCallback<Object>() {
+      @Override
+      public void onComplete(Object call) {
+        inFlight.release();
+        Object response;
+        try {
+          response = resultOf(call);
+        } catch (Exception e) {
+          callback.onError(e);
+          return;
+        }
+        callback.onResponse(response);
+      }
+
+      @Override
+      public void onError(Exception e) {
+        inFlight.release();
+        callback.onError(e);
+      }
+    };
+    try {
+      asyncMethod(method).invoke(client, request, resultHandler);
+    } catch (InvocationTargetException e) {
+      inFlight.release();
+      if (e.getTargetException() instanceof TException) {
+        throw (TException) e.getTargetException();
+      }
+      throw new TException("Error in calling method " + method, e.getTargetException());
+    } catch (Exception e) {
+      inFlight.release();
+      throw new TException("Error in calling method " + method, e);
+    }
+  }
+
+  private static Method asyncMethod(String name) throws NoSuchMethodException {
+    Method method = asyncMethods.get(name);
+    if (method == null) {
+      for (Method candidate : TCLIService.AsyncClient.class.getMethods()) {
+        if (candidate.getName().equals(name) && candidate.getParameterTypes().length == 2) {
+          method = candidate;
+          break;
+        }
+      }
+      if (method == null) {
+        throw new NoSuchMethodException("TCLIService.AsyncClient." + name);
+      }
+      asyncMethods.put(name, method);
+    }
+    return method;
+  }
+
+  /**
+   * Response of a completed call, the server's exceptions are thrown
+   */
+  private static Object resultOf(Object call) throws Exception {
+    Method getter = resultGetters.get(call.getClass());
+    if (getter == null) {
+      getter = call.getClass().getMethod("getResult");
+      resultGetters.put(call.getClass(), getter);
+    }
+    try {
+      return getter.invoke(call);
+    } catch (InvocationTargetException e) {
+      if (e.getTargetException() instanceof Exception) {
+        throw (Exception) e.getTargetException();
+      }
+      throw e;
+    }
+  }
+
+  private static class BlockingCallback implements ResponseCallback {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Object response;
+    private volatile Exception error;
+
+    @Override
+    public void onResponse(Object response) {
+      this.response = response;
+      done.countDown();
+    }
+
+    @Override
+    public void onError(Exception e) {
+      this.error = e;
+      done.countDown();
+    }
+
+    /**
+     * Wait for the answer; an interrupt is kept for the caller, the call cannot be
+     * abandoned half way without breaking the connection
+     */
+    Object await(String method) throws TException {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          done.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (error instanceof TException) {
+        throw (TException) error;
+      }
+      if (error != null) {
+        // IOException or TimeoutException of the event loop, the connection is broken
+        throw new TTransportException("Error in calling method " + method + ": " + error, error);
+      }
+      return response;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import org.apache.hive.service.cli.thrift.TOperationState;
+
+/**
+ * PollingBackoff.
+ *
+ * Paces the GetOperationStatus calls of one execution. The wait starts at the initial
+ * interval, is multiplied after every poll that sees the same state and starts over when
+ * the state changes, never exceeding the maximum. Impala answers status calls at once,
+ * unlike the HiveServer2 long polling, so without a pause the loop would spin; the initial
+ * interval is therefore at least {@link #MIN_INTERVAL_MILLIS}, a zero wait could never grow.
+ */
+class PollingBackoff {
+
+  static final long MIN_INTERVAL_MILLIS = 1;
+
+  private final long initialMillis;
+  private final long maxMillis;
+  private final double multiplier;
+  private final ConnectionMetrics metrics;
+
+  private TOperationState lastState = null;
+  private long delayMillis = 0;
+  private int polls = 0;
+
+  PollingBackoff(long initialMillis, long maxMillis, double multiplier,
+      ConnectionMetrics metrics) {
+    this.initialMillis = Math.max(MIN_INTERVAL_MILLIS, initialMillis);
+    this.maxMillis = Math.max(this.initialMillis, maxMillis);
+    this.multiplier = Math.max(1, multiplier);
+    this.metrics = metrics;
+  }
+
+  /**
+   * Wait before polling again, state is the one the last poll returned
+   */
+  void await(TOperationState state) throws InterruptedException {
+    long delay = nextDelay(state);
+    if (delay > 0) {
+      Thread.sleep(delay);
+    }
+  }
+
+  /**
+   * Wait before polling again without sleeping, for callers that schedule the next poll
+   *
+   * @return the wait, units ms
+   */
+  long nextDelay(TOperationState state) {
+    if (state != lastState) {
+      lastState = state;
+      delayMillis = initialMillis;
+    } else {
+      delayMillis = Math.min(maxMillis, (long) Math.ceil(delayMillis * multiplier));
+    }
+    if (delayMillis > 0 && metrics != null) {
+      metrics.recordPollWait(delayMillis);
+    }
+    return delayMillis;
+  }
+
+  /**
+   * Record a GetOperationStatus call
+   */
+  void onPoll() {
+    polls++;
+    if (metrics != null) {
+      metrics.recordStatusPoll();
+    }
+  }
+
+  /**
+   * GetOperationStatus calls made so far
+   */
+  int getPolls() {
+    return polls;
+  }
+}
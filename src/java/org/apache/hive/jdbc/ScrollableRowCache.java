@@ -0,0 +1,285 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * ScrollableRowCache.
+ *
+ * Client side copy of the rows a scrollable result set has fetched, so repositioning the
+ * cursor never goes back to the server. Rows are serialized compactly into a heap buffer
+ * until it reaches the budget, then everything moves to a temp file which is read through
+ * memory-mapped windows. The file is deleted on close.
+ *
+ * Values are the wire values of a row: null, Boolean, Byte, Short, Integer, Long, Double,
+ * String, byte[] or ByteBuffer, the latter read back as byte[].
+ */
+class ScrollableRowCache {
+  public static final Log LOG = LogFactory.getLog(ScrollableRowCache.class);
+
+  private static final byte TAG_NULL = 0;
+  private static final byte TAG_TRUE = 1;
+  private static final byte TAG_FALSE = 2;
+  private static final byte TAG_BYTE = 3;
+  private static final byte TAG_SHORT = 4;
+  private static final byte TAG_INT = 5;
+  private static final byte TAG_LONG = 6;
+  private static final byte TAG_DOUBLE = 7;
+  private static final byte TAG_STRING = 8;
+  private static final byte TAG_BYTES = 9;
+
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+  private static final int MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private final long heapBudget;
+  private int rowCount = 0;
+  /** start of row i, offsets[rowCount] is the end of the data */
+  private long[] offsets = new long[1024];
+
+  /** serialized rows while in heap */
+  private byte[] heap = new byte[4096];
+  /** the row being serialized */
+  private ByteBuffer record = ByteBuffer.allocate(256);
+
+  private File spillFile;
+  private RandomAccessFile spillAccess;
+  private FileChannel spillChannel;
+  private ByteBuffer writeBuffer;
+  /** bytes of the spill file already written through the channel */
+  private long flushed;
+  private MappedByteBuffer window;
+  private long windowStart;
+
+  /**
+   * @param heapBudget bytes of serialized rows kept in heap before spilling to disk
+   */
+  ScrollableRowCache(long heapBudget) {
+    this.heapBudget = Math.min(heapBudget, Integer.MAX_VALUE - 8);
+  }
+
+  int size() {
+    return rowCount;
+  }
+
+  void add(Object[] row) throws IOException {
+    record.clear();
+    ensureRecord(5);
+    record.putInt(row.length);
+    for (Object value : row) {
+      writeValue(value);
+    }
+    record.flip();
+    int length = record.remaining();
+
+    long end = offsets[rowCount];
+    if (spillChannel == null && end + length > heapBudget) {
+      spill();
+    }
+    if (spillChannel == null) {
+      if (end + length > heap.length) {
+        heap = Arrays.copyOf(heap, (int) Math.min(Math.max(heap.length * 2L, end + length),
+            Integer.MAX_VALUE - 8));
+      }
+      record.get(heap, (int) end, length);
+    } else {
+      if (writeBuffer.remaining() < length) {
+        flush();
+      }
+      if (length > writeBuffer.capacity()) {
+        writeFully(record);
+        flushed += length;
+      } else {
+        writeBuffer.put(record);
+      }
+    }
+
+    if (rowCount + 1 >= offsets.length) {
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+    }
+    rowCount++;
+    offsets[rowCount] = end + length;
+  }
+
+  /**
+   * @param index 0-based row number, less than size()
+   */
+  Object[] get(int index) throws IOException {
+    long start = offsets[index];
+    int length = (int) (offsets[index + 1] - start);
+    ByteBuffer buffer;
+    int position;
+    if (spillChannel == null) {
+      buffer = ByteBuffer.wrap(heap);
+      position = (int) start;
+    } else {
+      if (start + length > flushed) {
+        flush();
+      }
+      if (window == null || start < windowStart
+          || start + length > windowStart + window.capacity()) {
+        long size = Math.min(Math.max(MAP_WINDOW_SIZE, length), flushed - start);
+        window = spillChannel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        windowStart = start;
+      }
+      buffer = window.duplicate();
+      position = (int) (start - windowStart);
+    }
+    buffer.position(position);
+    Object[] row = new Object[buffer.getInt()];
+    for (int i = 0; i < row.length; i++) {
+      row[i] = readValue(buffer);
+    }
+    return row;
+  }
+
+  void close() {
+    heap = null;
+    window = null;
+    if (spillAccess != null) {
+      try {
+        spillAccess.close();
+      } catch (IOException e) {
+        LOG.warn("Error closing scroll cache file " + spillFile, e);
+      }
+      spillAccess = null;
+      spillChannel = null;
+    }
+    // a still mapped file cannot be removed on some platforms, it goes on exit then
+    if (spillFile != null && !spillFile.delete()) {
+      spillFile.deleteOnExit();
+    }
+    spillFile = null;
+  }
+
+  private void spill() throws IOException {
+    spillFile = File.createTempFile("gs-jdbc-scroll", ".rows");
+    spillAccess = new RandomAccessFile(spillFile, "rw");
+    spillChannel = spillAccess.getChannel();
+    writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    long used = offsets[rowCount];
+    writeFully(ByteBuffer.wrap(heap, 0, (int) used));
+    flushed = used;
+    heap = null;
+    LOG.info("Scroll cache exceeded " + heapBudget + " bytes at " + rowCount
+        + " rows, spilling to " + spillFile);
+  }
+
+  private void flush() throws IOException {
+    writeBuffer.flip();
+    flushed += writeBuffer.remaining();
+    writeFully(writeBuffer);
+    writeBuffer.clear();
+  }
+
+  private void writeFully(ByteBuffer buffer) throws IOException {
+    long position = spillChannel.size();
+    while (buffer.hasRemaining()) {
+      position += spillChannel.write(buffer, position);
+    }
+  }
+
+  private void writeValue(Object value) {
+    if (value == null) {
+      ensureRecord(1);
+      record.put(TAG_NULL);
+    } else if (value instanceof Boolean) {
+      ensureRecord(1);
+      record.put((Boolean) value ? TAG_TRUE : TAG_FALSE);
+    } else if (value instanceof Byte) {
+      ensureRecord(2);
+      record.put(TAG_BYTE).put((Byte) value);
+    } else if (value instanceof Short) {
+      ensureRecord(3);
+      record.put(TAG_SHORT).putShort((Short) value);
+    } else if (value instanceof Integer) {
+      ensureRecord(5);
+      record.put(TAG_INT).putInt((Integer) value);
+    } else if (value instanceof Long) {
+      ensureRecord(9);
+      record.put(TAG_LONG).putLong((Long) value);
+    } else if (value instanceof Double) {
+      ensureRecord(9);
+      record.put(TAG_DOUBLE).putDouble((Double) value);
+    } else if (value instanceof byte[]) {
+      writeBytes(TAG_BYTES, (byte[]) value);
+    } else if (value instanceof ByteBuffer) {
+      ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      writeBytes(TAG_BYTES, bytes);
+    } else {
+      writeBytes(TAG_STRING, value.toString().getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private void writeBytes(byte tag, byte[] bytes) {
+    ensureRecord(5 + bytes.length);
+    record.put(tag).putInt(bytes.length).put(bytes);
+  }
+
+  private void ensureRecord(int bytes) {
+    if (record.remaining() < bytes) {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(record.capacity() * 2,
+          record.position() + bytes));
+      record.flip();
+      larger.put(record);
+      record = larger;
+    }
+  }
+
+  private static Object readValue(ByteBuffer buffer) {
+    byte tag = buffer.get();
+    switch (tag) {
+      case TAG_NULL:
+        return null;
+      case TAG_TRUE:
+        return Boolean.TRUE;
+      case TAG_FALSE:
+        return Boolean.FALSE;
+      case TAG_BYTE:
+        return buffer.get();
+      case TAG_SHORT:
+        return buffer.getShort();
+      case TAG_INT:
+        return buffer.getInt();
+      case TAG_LONG:
+        return buffer.getLong();
+      case TAG_DOUBLE:
+        return buffer.getDouble();
+      case TAG_STRING:
+      case TAG_BYTES:
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return tag == TAG_STRING ? new String(bytes, StandardCharsets.UTF_8) : bytes;
+      default:
+        throw new IllegalStateException("Corrupt scroll cache record, tag " + tag);
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SessionState.
+ *
+ * Client side view of the server session: current database, options and hive variables.
+ * The baseline is what a new session gets from the Connection URL; USE and SET statements
+ * move the current state away from it. The difference tells what to undo before a pooled
+ * connection is reused, the current state is what a replacement session is opened with
+ * after a failover. Option keys are case insensitive, hive variable names are not.
+ */
+class SessionState {
+  private static final String HIVE_VAR_PREFIX = "hivevar:";
+  private static final String HIVE_CONF_PREFIX = "hiveconf:";
+
+  /** normalized key -> {key as set, value} */
+  private final Map<String, String[]> baselineOptions = new LinkedHashMap<String, String[]>();
+  private final Map<String, String[]> options = new LinkedHashMap<String, String[]>();
+  private final Map<String, String> baselineHiveVars = new HashMap<String, String>();
+  private final Map<String, String> hiveVars = new LinkedHashMap<String, String>();
+  private String baselineDatabase;
+  private String database;
+
+  /**
+   * State of a newly opened session, the current state is set to it
+   */
+  synchronized void setBaseline(Map<String, String> hiveConfs, Map<String, String> vars,
+      String dbName) {
+    baselineOptions.clear();
+    for (Map.Entry<String, String> conf : hiveConfs.entrySet()) {
+      baselineOptions.put(normalize(conf.getKey()),
+          new String[] { conf.getKey().trim(), conf.getValue().trim() });
+    }
+    baselineHiveVars.clear();
+    baselineHiveVars.putAll(vars);
+    baselineDatabase = dbName;
+    reset();
+  }
+
+  synchronized boolean isInEffect(String key, String value) {
+    if (key.trim().startsWith(HIVE_VAR_PREFIX)) {
+      String current = hiveVars.get(key.trim().substring(HIVE_VAR_PREFIX.length()));
+      return current != null && current.equals(value.trim());
+    }
+    String[] current = options.get(normalize(key));
+    return current != null && current[1].equals(value.trim());
+  }
+
+  /**
+   * A SET statement succeeded, "hivevar:" keys set a hive variable,
+   * "hiveconf:" or no prefix an option
+   */
+  synchronized void recordSet(String key, String value) {
+    String name = key.trim();
+    if (name.startsWith(HIVE_VAR_PREFIX)) {
+      hiveVars.put(name.substring(HIVE_VAR_PREFIX.length()), value.trim());
+      return;
+    }
+    if (name.startsWith(HIVE_CONF_PREFIX)) {
+      name = name.substring(HIVE_CONF_PREFIX.length());
+    }
+    options.put(normalize(name), new String[] { name, value.trim() });
+  }
+
+  /**
+   * A USE statement succeeded
+   */
+  synchronized void recordUse(String dbName) {
+    database = dbName;
+  }
+
+  synchronized String getDatabase() {
+    return database;
+  }
+
+  synchronized boolean isDatabaseChanged() {
+    return database == null ? baselineDatabase != null : !database.equals(baselineDatabase);
+  }
+
+  synchronized String getBaselineDatabase() {
+    return baselineDatabase;
+  }
+
+  /**
+   * Current options, key as set -> value
+   */
+  synchronized Map<String, String> getOptions() {
+    Map<String, String> current = new LinkedHashMap<String, String>();
+    for (String[] option : options.values()) {
+      current.put(option[0], option[1]);
+    }
+    return current;
+  }
+
+  /**
+   * Options set to another value than the baseline, key as set -> current value
+   */
+  synchronized Map<String, String> getChangedOptions() {
+    Map<String, String> changed = new LinkedHashMap<String, String>();
+    for (Map.Entry<String, String[]> option : options.entrySet()) {
+      String[] base = baselineOptions.get(option.getKey());
+      if (base == null || !base[1].equals(option.getValue()[1])) {
+        changed.put(option.getValue()[0], option.getValue()[1]);
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Baseline value of an option, null when the Connection URL does not set it
+   */
+  synchronized String getBaselineOption(String key) {
+    String[] base = baselineOptions.get(normalize(key));
+    return base == null ? null : base[1];
+  }
+
+  synchronized Map<String, String> getHiveVars() {
+    return new LinkedHashMap<String, String>(hiveVars);
+  }
+
+  /**
+   * Hive variables set to another value than the baseline, name -> current value
+   */
+  synchronized Map<String, String> getChangedHiveVars() {
+    Map<String, String> changed = new LinkedHashMap<String, String>();
+    for (Map.Entry<String, String> var : hiveVars.entrySet()) {
+      if (!var.getValue().equals(baselineHiveVars.get(var.getKey()))) {
+        changed.put(var.getKey(), var.getValue());
+      }
+    }
+    return changed;
+  }
+
+  synchronized String getBaselineHiveVar(String name) {
+    return baselineHiveVars.get(name);
+  }
+
+  /**
+   * @return true when the current state is the baseline
+   */
+  synchronized boolean isBaseline() {
+    return !isDatabaseChanged() && getChangedOptions().isEmpty() && getChangedHiveVars().isEmpty();
+  }
+
+  /**
+   * Back to the baseline, after the server session was reset or a new one opened
+   */
+  synchronized void reset() {
+    options.clear();
+    options.putAll(baselineOptions);
+    hiveVars.clear();
+    hiveVars.putAll(baselineHiveVars);
+    database = baselineDatabase;
+  }
+
+  private static String normalize(String key) {
+    return key.trim().toLowerCase();
+  }
+}
@@ -0,0 +1,276 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.jdbc;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.TimeZone;
+
+/**
+ * TextValueParser.
+ *
+ * Parses the TIMESTAMP, DATE and DECIMAL text the server sends, "yyyy-MM-dd HH:mm:ss[.f...]",
+ * "yyyy-MM-dd" and plain decimals, into the fields of this object, which are reused for
+ * every value. Timestamp.valueOf and Date.valueOf split the string and go through a
+ * Calendar, new BigDecimal(String) always builds a BigInteger-backed value; here the
+ * result is computed directly and the JDK parsers are only used for text outside the
+ * expected shape, so the accepted input and the errors stay the same.
+ *
+ * Dates before 1600 are left to the JDK because java.sql uses the Julian calendar there.
+ * Not thread safe, one instance per result set.
+ */
+class TextValueParser {
+
+  private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+  private static final int MAX_LONG_DIGITS = 18;
+  private static final long[] POWERS_OF_TEN = new long[MAX_LONG_DIGITS + 1];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private final TimeZone timeZone = TimeZone.getDefault();
+
+  // last parsed timestamp or date
+  private int year;
+  private int month;
+  private int day;
+  private int hour;
+  private int minute;
+  private int second;
+  private int nanos;
+
+  // last parsed decimal
+  private long unscaled;
+  private int scale;
+
+  Timestamp parseTimestamp(String text) {
+    if (!readTimestamp(text)) {
+      return Timestamp.valueOf(text);
+    }
+    Timestamp timestamp = new Timestamp(epochSecondMillis());
+    timestamp.setNanos(nanos);
+    return timestamp;
+  }
+
+  Date parseDate(String text) {
+    if (!readDate(text)) {
+      return Date.valueOf(text);
+    }
+    return new Date(epochSecondMillis());
+  }
+
+  BigDecimal parseDecimal(String text) {
+    if (!readDecimal(text)) {
+      return new BigDecimal(text);
+    }
+    return BigDecimal.valueOf(unscaled, scale);
+  }
+
+  /**
+   * Nanoseconds since the epoch of a TIMESTAMP or DATE text in the local time zone,
+   * the instant parseTimestamp/parseDate would return
+   */
+  long parseEpochNanos(String text) {
+    if (!readTimestamp(text) && !readDate(text)) {
+      if (text.length() == 10) {
+        return Date.valueOf(text).getTime() * 1000000L;
+      }
+      Timestamp timestamp = Timestamp.valueOf(text);
+      int fraction = timestamp.getNanos();
+      return (timestamp.getTime() - fraction / 1000000) * 1000000L + fraction;
+    }
+    return epochSecondMillis() * 1000000L + nanos;
+  }
+
+  /**
+   * Unscaled value of a DECIMAL text at the given scale
+   *
+   * @throws ArithmeticException if the value has more fraction digits than scale
+   *     or does not fit a long at that scale
+   */
+  long parseUnscaled(String text, int targetScale) {
+    long value;
+    int valueScale;
+    if (readDecimal(text)) {
+      value = unscaled;
+      valueScale = scale;
+    } else {
+      return unscaledExact(text, targetScale);
+    }
+    if (valueScale > targetScale) {
+      // trailing zeros may be dropped without losing the value
+      while (valueScale > targetScale && value % 10 == 0) {
+        value /= 10;
+        valueScale--;
+      }
+      if (valueScale > targetScale) {
+        throw new ArithmeticException("Rounding necessary for " + text + " at scale " + targetScale);
+      }
+    }
+    int shift = targetScale - valueScale;
+    if (shift > MAX_LONG_DIGITS || Math.abs(value) > Long.MAX_VALUE / POWERS_OF_TEN[shift]) {
+      return unscaledExact(text, targetScale);
+    }
+    return value * POWERS_OF_TEN[shift];
+  }
+
+  private static long unscaledExact(String text, int targetScale) {
+    return new BigDecimal(text).setScale(targetScale).movePointRight(targetScale)
+        .longValueExact();
+  }
+
+  private boolean readTimestamp(String text) {
+    int length = text.length();
+    if (length < 19 || text.charAt(10) != ' ' || !readDatePart(text)) {
+      return false;
+    }
+    hour = readDigits(text, 11, 2);
+    minute = readDigits(text, 14, 2);
+    second = readDigits(text, 17, 2);
+    if (hour < 0 || hour > 23 || text.charAt(13) != ':' || minute < 0 || minute > 59
+        || text.charAt(16) != ':' || second < 0 || second > 59) {
+      return false;
+    }
+    nanos = 0;
+    if (length > 19) {
+      int fractionDigits = length - 20;
+      if (text.charAt(19) != '.' || fractionDigits < 1 || fractionDigits > 9) {
+        return false;
+      }
+      int fraction = readDigits(text, 20, fractionDigits);
+      if (fraction < 0) {
+        return false;
+      }
+      nanos = fraction * (int) POWERS_OF_TEN[9 - fractionDigits];
+    }
+    return true;
+  }
+
+  private boolean readDate(String text) {
+    if (text.length() != 10 || !readDatePart(text)) {
+      return false;
+    }
+    hour = 0;
+    minute = 0;
+    second = 0;
+    nanos = 0;
+    return true;
+  }
+
+  /**
+   * Read the leading "yyyy-MM-dd" of text
+   */
+  private boolean readDatePart(String text) {
+    year = readDigits(text, 0, 4);
+    month = readDigits(text, 5, 2);
+    day = readDigits(text, 8, 2);
+    return year >= 1600 && text.charAt(4) == '-' && text.charAt(7) == '-'
+        && month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month);
+  }
+
+  private boolean readDecimal(String text) {
+    int length = text.length();
+    int pos = 0;
+    boolean negative = false;
+    if (length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+      negative = text.charAt(0) == '-';
+      pos++;
+    }
+    long value = 0;
+    int digits = 0;
+    int pointAt = -1;
+    for (; pos < length; pos++) {
+      char c = text.charAt(pos);
+      if (c >= '0' && c <= '9') {
+        if (++digits > MAX_LONG_DIGITS) {
+          return false;
+        }
+        value = value * 10 + (c - '0');
+      } else if (c == '.' && pointAt < 0) {
+        pointAt = pos;
+      } else {
+        return false;
+      }
+    }
+    if (digits == 0) {
+      return false;
+    }
+    unscaled = negative ? -value : value;
+    scale = pointAt < 0 ? 0 : length - pointAt - 1;
+    return true;
+  }
+
+  /**
+   * Value of count decimal digits at offset, -1 if any of them is not a digit
+   */
+  private static int readDigits(String text, int offset, int count) {
+    int value = 0;
+    for (int i = offset; i < offset + count; i++) {
+      char c = text.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  private static int daysInMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        return leap ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  /**
+   * Days since 1970-01-01 of a proleptic Gregorian date
+   */
+  private static long epochDay(int year, int month, int day) {
+    long y = month <= 2 ? year - 1 : year;
+    long era = (y >= 0 ? y : y - 399) / 400;
+    long yearOfEra = y - era * 400;
+    long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  /**
+   * Epoch millis of the parsed fields without the fraction, read in the local time zone
+   */
+  private long epochSecondMillis() {
+    long local = epochDay(year, month, day) * MILLIS_PER_DAY
+        + ((hour * 60L + minute) * 60 + second) * 1000;
+    // the offset at the instant itself, which differs from the one at local around DST changes
+    long guess = local - timeZone.getOffset(local);
+    return local - timeZone.getOffset(guess);
+  }
+}
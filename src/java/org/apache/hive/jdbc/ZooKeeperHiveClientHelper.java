@@ -19,8 +19,15 @@
 package org.apache.hive.jdbc;
 
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,14 +35,23 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.CuratorWatcher;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.hive.jdbc.Utils.JdbcConnectionParams;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 
 class ZooKeeperHiveClientHelper {
   static final Log LOG = LogFactory.getLog(ZooKeeperHiveClientHelper.class.getName());
   // Pattern for key1=value1;key2=value2
   private static final Pattern kvPattern = Pattern.compile("([^=;]*)=([^;]*)[;]?");
+  /** ensemble -> shared client */
+  private static final Map<String, CuratorFramework> clients =
+      new HashMap<String, CuratorFramework>();
+  /** ensemble/namespace -> watched server list */
+  private static final ConcurrentMap<String, ServerList> serverLists =
+      new ConcurrentHashMap<String, ServerList>();
   /**
    * A no-op watcher class
    */
@@ -53,14 +69,10 @@ class ZooKeeperHiveClientHelper {
       zooKeeperNamespace = JdbcConnectionParams.ZOOKEEPER_DEFAULT_NAMESPACE;
     }
     List<String> serverHosts;
-    Random randomizer = new Random();
     String serverNode;
-    CuratorFramework zooKeeperClient =
-        CuratorFrameworkFactory.builder().connectString(zooKeeperEnsemble)
-            .retryPolicy(new ExponentialBackoffRetry(1000, 3)).build();
     try {
-      zooKeeperClient.start();
-      serverHosts = zooKeeperClient.getChildren().forPath("/" + zooKeeperNamespace);
+      Map<String, String> servers = getServerList(zooKeeperEnsemble, zooKeeperNamespace).get();
+      serverHosts = new ArrayList<String>(servers.keySet());
       // Remove the znodes we've already tried from this list
       serverHosts.removeAll(connParams.getRejectedHostZnodePaths());
       if (serverHosts.isEmpty()) {
@@ -68,21 +80,139 @@ class ZooKeeperHiveClientHelper {
             "Tried all existing HiveServer2 uris from ZooKeeper.");
       }
       // Now pick a server node randomly
-      serverNode = serverHosts.get(randomizer.nextInt(serverHosts.size()));
+      serverNode = serverHosts.get(ThreadLocalRandom.current().nextInt(serverHosts.size()));
       connParams.setCurrentHostZnodePath(serverNode);
-      // Read config string from the znode for this server node
-      String serverConfStr =
-          new String(
-              zooKeeperClient.getData().forPath("/" + zooKeeperNamespace + "/" + serverNode),
-              Charset.forName("UTF-8"));
-      applyConfs(serverConfStr, connParams);
+      // Config string of the znode for this server node
+      applyConfs(servers.get(serverNode), connParams);
+    } catch (ZooKeeperHiveClientException e) {
+      throw e;
     } catch (Exception e) {
       throw new ZooKeeperHiveClientException("Unable to read HiveServer2 configs from ZooKeeper", e);
-    } finally {
-      // Close the client connection with ZooKeeper
-      if (zooKeeperClient != null) {
-        zooKeeperClient.close();
+    }
+  }
+
+  private static ServerList getServerList(String zooKeeperEnsemble, String zooKeeperNamespace) {
+    String key = zooKeeperEnsemble + "/" + zooKeeperNamespace;
+    ServerList serverList = serverLists.get(key);
+    if (serverList == null) {
+      ServerList created = new ServerList(getClient(zooKeeperEnsemble), "/" + zooKeeperNamespace);
+      serverList = serverLists.putIfAbsent(key, created);
+      if (serverList == null) {
+        serverList = created;
+      }
+    }
+    return serverList;
+  }
+
+  /**
+   * One ZooKeeper client per ensemble for the life of the JVM, ZooKeeper's threads are
+   * daemon threads
+   */
+  private static synchronized CuratorFramework getClient(String zooKeeperEnsemble) {
+    CuratorFramework zooKeeperClient = clients.get(zooKeeperEnsemble);
+    if (zooKeeperClient == null) {
+      zooKeeperClient =
+          CuratorFrameworkFactory.builder().connectString(zooKeeperEnsemble)
+              .retryPolicy(new ExponentialBackoffRetry(1000, 3)).build();
+      zooKeeperClient.start();
+      clients.put(zooKeeperEnsemble, zooKeeperClient);
+    }
+    return zooKeeperClient;
+  }
+
+  /**
+   * The server znodes of a namespace with their config strings. Children and data are
+   * read with watches; any event on them, or on the ZooKeeper connection, marks the
+   * snapshot stale and the next connection attempt reads it again. The data of a znode
+   * is read, and its watch set, only when the znode is new or its watch has fired.
+   * While ZooKeeper cannot be read the last snapshot is used.
+   */
+  static class ServerList implements CuratorWatcher {
+    private final CuratorFramework zooKeeperClient;
+    private final String path;
+    /** null until the first successful read */
+    private volatile Map<String, String> servers;
+    private volatile boolean stale = true;
+    /** znodes with a pending data watch, their config string in servers is current */
+    private final Set<String> watched =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    ServerList(CuratorFramework zooKeeperClient, String path) {
+      this.zooKeeperClient = zooKeeperClient;
+      this.path = path;
+    }
+
+    Map<String, String> get() throws Exception {
+      if (stale) {
+        refresh();
+      }
+      return servers;
+    }
+
+    private synchronized void refresh() throws Exception {
+      if (!stale) {
+        return;
+      }
+      // cleared first, an event during the read makes the next call read again
+      stale = false;
+      try {
+        Map<String, String> previous =
+            servers == null ? Collections.<String, String>emptyMap() : servers;
+        Map<String, String> current = new HashMap<String, String>();
+        for (String serverNode : zooKeeperClient.getChildren().usingWatcher(this).forPath(path)) {
+          String data = previous.get(serverNode);
+          if (data == null || !watched.contains(serverNode)) {
+            data = readData(serverNode);
+            if (data == null) {
+              continue;
+            }
+          }
+          current.put(serverNode, data);
+        }
+        watched.retainAll(current.keySet());
+        servers = Collections.unmodifiableMap(current);
+        LOG.debug("Read " + current.size() + " HiveServer2 znodes under " + path);
+      } catch (Exception e) {
+        stale = true;
+        if (servers == null) {
+          throw e;
+        }
+        LOG.warn("Unable to read HiveServer2 znodes under " + path
+            + ", use the last " + servers.size() + " servers. " + e.getMessage());
+      }
+    }
+
+    /**
+     * Config string of a server znode, setting a data watch on it
+     *
+     * @return null when the znode was deleted after the children were read,
+     *         as it is when a server deregisters in a rolling restart
+     */
+    private String readData(String serverNode) throws Exception {
+      // marked before the read, a watch firing meanwhile unmarks it
+      watched.add(serverNode);
+      try {
+        byte[] data = zooKeeperClient.getData().usingWatcher(this).forPath(path + "/" + serverNode);
+        return new String(data, Charset.forName("UTF-8"));
+      } catch (KeeperException.NoNodeException e) {
+        watched.remove(serverNode);
+        return null;
+      } catch (Exception e) {
+        watched.remove(serverNode);
+        throw e;
+      }
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+      String eventPath = event.getPath();
+      if (eventPath != null && eventPath.startsWith(path + "/")) {
+        watched.remove(eventPath.substring(path.length() + 1));
+      } else if (event.getState() == Watcher.Event.KeeperState.Expired) {
+        // the watches are gone with the session
+        watched.clear();
       }
+      stale = true;
     }
   }
 
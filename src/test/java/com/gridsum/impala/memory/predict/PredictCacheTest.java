@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gridsum.impala.memory.predict;
+
+import com.gridsum.impala.GridSumJDBCConf;
+import com.gridsum.impala.memory.predict.parameter.QueryParam;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PredictCacheTest {
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        // 3 entries living 1 second
+        GridSumJDBCConf.reLoad("predict-cache.properties");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        GridSumJDBCConf.reLoad("conf.properties");
+    }
+
+    @Before
+    public void setUp() {
+        PredictCache.clear();
+    }
+
+    @Test
+    public void keyIgnoresLiteralsOnly() {
+        String key = PredictCache.getKey(newQueryParam("select a from t where x = 1", "db1", "pool1"));
+        assertEquals(key, PredictCache.getKey(newQueryParam("SELECT a FROM t WHERE x = 2;", "db1", "pool1")));
+        assertNotEquals(key, PredictCache.getKey(newQueryParam("select a from t where x = 1", "db2", "pool1")));
+        assertNotEquals(key, PredictCache.getKey(newQueryParam("select a from t where x = 1", "db1", "pool2")));
+        assertNotEquals(key, PredictCache.getKey(newQueryParam("select b from t where x = 1", "db1", "pool1")));
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        long hits = PredictCache.getHits();
+        long misses = PredictCache.getMisses();
+        assertNull(PredictCache.get("a"));
+        PredictCache.put("a", "{\"mem\":\"512\"}");
+        assertEquals("{\"mem\":\"512\"}", PredictCache.get("a"));
+        assertEquals("{\"mem\":\"512\"}", PredictCache.get("a"));
+        assertEquals(hits + 2, PredictCache.getHits());
+        assertEquals(misses + 1, PredictCache.getMisses());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedBeyondSize() {
+        long evictions = PredictCache.getEvictions();
+        PredictCache.put("a", "1");
+        PredictCache.put("b", "2");
+        PredictCache.put("c", "3");
+        // a is used after b, b is evicted first
+        assertEquals("1", PredictCache.get("a"));
+        PredictCache.put("d", "4");
+        assertEquals(3, PredictCache.size());
+        assertEquals(evictions + 1, PredictCache.getEvictions());
+        assertNull(PredictCache.get("b"));
+        assertEquals("1", PredictCache.get("a"));
+        assertEquals("3", PredictCache.get("c"));
+        assertEquals("4", PredictCache.get("d"));
+    }
+
+    @Test
+    public void expiresAfterTtl() throws Exception {
+        PredictCache.put("a", "1");
+        assertEquals("1", PredictCache.get("a"));
+        long misses = PredictCache.getMisses();
+        Thread.sleep(1100);
+        assertNull(PredictCache.get("a"));
+        assertEquals(misses + 1, PredictCache.getMisses());
+        assertEquals(0, PredictCache.size());
+    }
+
+    @Test
+    public void enabledBySizeAndTtl() {
+        assertTrue(PredictCache.isEnabled());
+    }
+
+    private static QueryParam newQueryParam(String sql, String db, String pool) {
+        QueryParam queryParam = new QueryParam().setSql(sql).setDb(db);
+        queryParam.setPool(pool);
+        return queryParam;
+    }
+}
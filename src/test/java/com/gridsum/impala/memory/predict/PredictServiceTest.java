@@ -0,0 +1,308 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gridsum.impala.memory.predict;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.gridsum.impala.GridSumJDBCConf;
+import com.gridsum.impala.memory.predict.parameter.QueryParam;
+import com.gridsum.impala.util.CircuitBreaker;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * PredictService against {@link StubPredictServer}, a new server per test so every test gets
+ * its own circuit breaker.
+ */
+public class PredictServiceTest {
+
+    private StubPredictServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubPredictServer();
+        PredictCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        PredictCache.clear();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        GridSumJDBCConf.reLoad("conf.properties");
+    }
+
+    @Test
+    public void requestCarriesSqlDbAndPool() {
+        load(false);
+        server.predict("select a from t", "512");
+        String response = PredictService.getPredictResponse(newQueryParam("select a from t"));
+        assertEquals("512", PredictService.getPredictMemory(JSON.parseObject(response)));
+        assertEquals(1, server.getRequests().size());
+        JSONObject request = server.getRequests().get(0);
+        assertEquals("select a from t", request.getString("sql"));
+        assertEquals("db1", request.getString("db"));
+        assertEquals("pool1", request.getString("pool"));
+    }
+
+    @Test
+    public void errorCodeFailsThePrediction() {
+        load(false);
+        server.fail("select a from t", "no model");
+        try {
+            PredictService.getPredictResponse(newQueryParam("select a from t"));
+            fail("the error_code was not checked");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("no model"));
+        }
+        assertEquals(0, PredictCache.size());
+    }
+
+    @Test
+    public void cachedPredictionIsNotRequestedAgain() {
+        load(false);
+        long hits = PredictCache.getHits();
+        PredictService.getPredictResponse(newQueryParam("select a from t where x = 1"));
+        String response = PredictService.getPredictResponse(newQueryParam("select a from t where x = 2"));
+        assertEquals(StubPredictServer.DEFAULT_MEM, PredictService.getPredictMemory(JSON.parseObject(response)));
+        assertEquals(1, server.getRequests().size());
+        assertEquals(hits + 1, PredictCache.getHits());
+    }
+
+    @Test
+    public void batchRequestCarriesQueriesInOrder() throws Exception {
+        load(true);
+        server.predict("select c1 from t", "100");
+        server.predict("select c2 from t", "200");
+        server.predict("select c3 from t", "300");
+        List<Future<String>> responses = PredictService.getPredictResponsesAsync(
+                newQueryParams("select c1 from t", "select c2 from t", "select c3 from t"));
+        assertEquals("100", getMem(responses.get(0)));
+        assertEquals("200", getMem(responses.get(1)));
+        assertEquals("300", getMem(responses.get(2)));
+        assertEquals(0, server.getRequests().size());
+        assertEquals(1, server.getBatchRequests().size());
+        JSONArray queries = server.getBatchRequests().get(0).getJSONArray("queries");
+        assertEquals(3, queries.size());
+        assertEquals("select c2 from t", queries.getJSONObject(1).getString("sql"));
+        assertEquals("db1", queries.getJSONObject(1).getString("db"));
+        assertEquals("pool1", queries.getJSONObject(1).getString("pool"));
+    }
+
+    @Test
+    public void batchesAreSplitBySize() throws Exception {
+        Properties conf = server.newConf(true);
+        conf.setProperty("impala.predict.batch.size", "2");
+        GridSumJDBCConf.reLoadProperties(conf);
+        List<Future<String>> responses = PredictService.getPredictResponsesAsync(
+                newQueryParams("select c1 from t", "select c2 from t", "select c3 from t", "select c4 from t",
+                        "select c5 from t"));
+        for (Future<String> response : responses) {
+            assertEquals(StubPredictServer.DEFAULT_MEM, getMem(response));
+        }
+        assertEquals(3, server.getBatchRequests().size());
+        assertEquals(2, server.getBatchRequests().get(0).getJSONArray("queries").size());
+        assertEquals(1, server.getBatchRequests().get(2).getJSONArray("queries").size());
+    }
+
+    @Test
+    public void batchErrorEntryFailsOnlyItsQuery() throws Exception {
+        load(true);
+        server.fail("select c2 from t", "no model");
+        List<Future<String>> responses = PredictService.getPredictResponsesAsync(
+                newQueryParams("select c1 from t", "select c2 from t", "select c3 from t"));
+        assertEquals(StubPredictServer.DEFAULT_MEM, getMem(responses.get(0)));
+        try {
+            responses.get(1).get(5, TimeUnit.SECONDS);
+            fail("the error entry was not checked");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("no model"));
+        }
+        assertEquals(StubPredictServer.DEFAULT_MEM, getMem(responses.get(2)));
+        // the successful predictions are cached, the failed one is not
+        assertEquals(2, PredictCache.size());
+        assertNull(PredictCache.get(PredictCache.getKey(newQueryParam("select c2 from t"))));
+    }
+
+    @Test
+    public void batchRequestsOnlyQueriesNotCached() throws Exception {
+        load(true);
+        PredictService.getPredictResponse(newQueryParam("select c1 from t"));
+        List<Future<String>> responses = PredictService.getPredictResponsesAsync(
+                newQueryParams("select c1 from t", "select c2 from t"));
+        assertTrue(responses.get(0).isDone());
+        assertEquals(StubPredictServer.DEFAULT_MEM, getMem(responses.get(1)));
+        assertEquals(1, server.getBatchRequests().size());
+        assertEquals(1, server.getBatchRequests().get(0).getJSONArray("queries").size());
+    }
+
+    @Test
+    public void queriesWithoutBatchUrlAreNotRejected() throws Exception {
+        load(false);
+        String[] sqls = new String[3 * GridSumJDBCConf.getPredictThreads()];
+        for (int i = 0; i < sqls.length; i++) {
+            sqls[i] = "select c" + i + " from t";
+        }
+        List<Future<String>> responses = PredictService.getPredictResponsesAsync(newQueryParams(sqls));
+        for (Future<String> response : responses) {
+            assertEquals(StubPredictServer.DEFAULT_MEM, getMem(response));
+        }
+        assertEquals(sqls.length, server.getRequests().size());
+    }
+
+    @Test
+    public void cancelledQueryIsSkipped() throws Exception {
+        load(false);
+        List<Future<String>> responses = PredictService.getPredictResponsesAsync(
+                newQueryParams("select c1 from t", "select c2 from t", "select c3 from t", "select c4 from t",
+                        "select c5 from t", "select c6 from t"));
+        boolean cancelled = responses.get(5).cancel(false);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(StubPredictServer.DEFAULT_MEM, getMem(responses.get(i)));
+        }
+        // a prediction is asked for unless it was already running or done when cancelled
+        assertEquals(cancelled ? 5 : 6, server.getRequests().size());
+    }
+
+    @Test
+    public void serverErrorsOpenTheBreaker() {
+        loadWithBreaker(true);
+        server.setStatus(500);
+        requestFailing("select c1 from t");
+        requestFailing("select c2 from t");
+        CircuitBreaker breaker = CircuitBreaker.of("predict:" + server.getUrl());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        // an open breaker fails at once without asking the service
+        requestFailing("select c3 from t");
+        assertEquals(2, server.getRequests().size());
+        assertEquals(1, breaker.getRejected());
+        // and the queries of a batch are left to be predicted one by one
+        List<Future<String>> responses = PredictService.getPredictResponsesAsync(newQueryParams("select c4 from t"));
+        assertNull(responses.get(0));
+        assertEquals(0, server.getBatchRequests().size());
+    }
+
+    @Test
+    public void rejectedQueriesDoNotOpenTheBreaker() {
+        loadWithBreaker(false);
+        server.setStatus(400);
+        requestFailing("select c1 from t");
+        requestFailing("select c2 from t");
+        requestFailing("select c3 from t");
+        assertEquals(3, server.getRequests().size());
+        assertEquals(CircuitBreaker.State.CLOSED, CircuitBreaker.of("predict:" + server.getUrl()).getState());
+    }
+
+    @Test
+    public void cachedPredictionIsServedWhileTheBreakerIsOpen() throws Exception {
+        loadWithBreaker(false);
+        PredictService.getPredictResponse(newQueryParam("select a from t where x = 1"));
+        server.setStatus(500);
+        // 1 of 2 calls failed, the breaker opens
+        requestFailing("select c1 from t");
+        assertTrue(CircuitBreaker.of("predict:" + server.getUrl()).isOpen());
+        String response = PredictService.getPredictResponse(newQueryParam("select a from t where x = 2"));
+        assertEquals(StubPredictServer.DEFAULT_MEM, PredictService.getPredictMemory(JSON.parseObject(response)));
+        Future<String> async = PredictService.getPredictResponseAsync(newQueryParam("select a from t where x = 3"));
+        assertTrue(async.isDone());
+        assertEquals(StubPredictServer.DEFAULT_MEM, getMem(async));
+        assertEquals(2, server.getRequests().size());
+    }
+
+    @Test
+    public void halfOpenProbeClosesTheBreaker() throws Exception {
+        loadWithBreaker(false);
+        server.setStatus(500);
+        requestFailing("select c1 from t");
+        requestFailing("select c2 from t");
+        CircuitBreaker breaker = CircuitBreaker.of("predict:" + server.getUrl());
+        assertTrue(breaker.isOpen());
+        server.setStatus(200);
+        Thread.sleep(300);
+        assertNotNull(PredictService.getPredictResponse(newQueryParam("select c3 from t")));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getClosed());
+    }
+
+    /**
+     * Point the conf at the stub server
+     */
+    private void load(boolean batch) {
+        GridSumJDBCConf.reLoadProperties(server.newConf(batch));
+    }
+
+    /**
+     * Point the conf at the stub server, the breaker opens once 2 of the last 4 calls failed
+     * and stays open 200ms
+     */
+    private void loadWithBreaker(boolean batch) {
+        Properties conf = server.newConf(batch);
+        conf.setProperty("circuit.breaker.window", "4");
+        conf.setProperty("circuit.breaker.minimum.calls", "2");
+        conf.setProperty("circuit.breaker.failure.rate", "50");
+        conf.setProperty("circuit.breaker.open.time", "200");
+        GridSumJDBCConf.reLoadProperties(conf);
+    }
+
+    private static void requestFailing(String sql) {
+        try {
+            PredictService.getPredictResponse(newQueryParam(sql));
+            fail("the prediction of " + sql + " did not fail");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    private static String getMem(Future<String> response) throws Exception {
+        return PredictService.getPredictMemory(JSON.parseObject(response.get(5, TimeUnit.SECONDS)));
+    }
+
+    private static QueryParam newQueryParam(String sql) {
+        QueryParam queryParam = new QueryParam().setSql(sql).setDb("db1");
+        queryParam.setPool("pool1");
+        return queryParam;
+    }
+
+    private static List<QueryParam> newQueryParams(String... sqls) {
+        List<QueryParam> queryParams = new ArrayList<QueryParam>();
+        for (String sql : Arrays.asList(sqls)) {
+            queryParams.add(newQueryParam(sql));
+        }
+        return queryParams;
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gridsum.impala.memory.predict;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.gridsum.impala.memory.predict.parameter.ParamNameEnum;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process memory predict service for the tests, answers 'impala.predict.url' at /predict and
+ * 'impala.predict.batch.url' at /predict/batch. A query is predicted DEFAULT_MEM unless
+ * {@link #predict(String, String)} or {@link #fail(String, String)} set its answer, every
+ * request body is recorded.
+ */
+public class StubPredictServer {
+
+    public static final String DEFAULT_MEM = "1024";
+
+    private final HttpServer server;
+    private final Map<String, JSONObject> answers = new ConcurrentHashMap<String, JSONObject>();
+    private final List<JSONObject> requests = new CopyOnWriteArrayList<JSONObject>();
+    private final List<JSONObject> batchRequests = new CopyOnWriteArrayList<JSONObject>();
+    private volatile int status = 200;
+
+    public StubPredictServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/predict", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                JSONObject request = JSON.parseObject(read(exchange.getRequestBody()));
+                if (exchange.getRequestURI().getPath().equals("/predict/batch")) {
+                    batchRequests.add(request);
+                    respond(exchange, answerBatch(request));
+                } else {
+                    requests.add(request);
+                    respond(exchange, answer(request));
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Conf pointing at this server, the rest as the test conf.properties
+     *
+     * @param batch whether to set 'impala.predict.batch.url'
+     */
+    public Properties newConf(boolean batch) {
+        Properties conf = new Properties();
+        conf.setProperty("impala.predict.url", getUrl());
+        if (batch) {
+            conf.setProperty("impala.predict.batch.url", getBatchUrl());
+        }
+        conf.setProperty("impala.retry.max.count", "3");
+        conf.setProperty("impala.retry.memory.multiple", "2");
+        conf.setProperty("impala.retry.max.memory", "5");
+        conf.setProperty("impala.oom.exception", "memory limit exceeded");
+        conf.setProperty("impala.query.profile", "/query_profile?json&query_id=%s");
+        conf.setProperty("backup.timeout", "30");
+        conf.setProperty("health.probe.interval", "0");
+        return conf;
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/predict";
+    }
+
+    public String getBatchUrl() {
+        return getUrl() + "/batch";
+    }
+
+    /**
+     * Predict mem MB for the sql
+     */
+    public void predict(String sql, String mem) {
+        JSONObject answer = new JSONObject();
+        answer.put(ParamNameEnum.ERROR_CODE.getName(), "0");
+        answer.put(ParamNameEnum.MEM.getName(), mem);
+        answers.put(sql, answer);
+    }
+
+    /**
+     * Answer the sql with an error_code, on its own or as its entry of a batch
+     */
+    public void fail(String sql, String message) {
+        JSONObject answer = new JSONObject();
+        answer.put(ParamNameEnum.ERROR_CODE.getName(), "1");
+        answer.put(ParamNameEnum.MESSAGE_KEY.getName(), message);
+        answers.put(sql, answer);
+    }
+
+    /**
+     * HTTP status of every following response, 200 for the normal answers
+     */
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    /**
+     * Bodies of the requests to /predict
+     */
+    public List<JSONObject> getRequests() {
+        return requests;
+    }
+
+    /**
+     * Bodies of the requests to /predict/batch
+     */
+    public List<JSONObject> getBatchRequests() {
+        return batchRequests;
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private JSONObject answer(JSONObject query) {
+        JSONObject answer = answers.get(query.getString(ParamNameEnum.SQL.getName()));
+        if (null == answer) {
+            answer = new JSONObject();
+            answer.put(ParamNameEnum.ERROR_CODE.getName(), "0");
+            answer.put(ParamNameEnum.MEM.getName(), DEFAULT_MEM);
+        }
+        return answer;
+    }
+
+    private JSONObject answerBatch(JSONObject request) {
+        JSONArray results = new JSONArray();
+        JSONArray queries = request.getJSONArray(ParamNameEnum.QUERIES.getName());
+        for (int i = 0; i < queries.size(); i++) {
+            results.add(answer(queries.getJSONObject(i)));
+        }
+        JSONObject answer = new JSONObject();
+        answer.put(ParamNameEnum.ERROR_CODE.getName(), "0");
+        answer.put(ParamNameEnum.RESULTS.getName(), results);
+        return answer;
+    }
+
+    private void respond(HttpExchange exchange, JSONObject answer) throws IOException {
+        int code = status;
+        if (code != 200) {
+            answer = new JSONObject();
+            answer.put(ParamNameEnum.MESSAGE_KEY.getName(), "stub status " + code);
+        }
+        byte[] body = answer.toJSONString().getBytes("utf-8");
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toString("utf-8");
+    }
+}
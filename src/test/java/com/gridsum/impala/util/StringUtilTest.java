@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gridsum.impala.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class StringUtilTest {
+
+    @Test
+    public void addLimitToQuery() {
+        assertEquals("select a from t\nLIMIT 10", StringUtil.addLimit("select a from t", 10));
+        assertEquals("with w as (select a from t) select a from w\nLIMIT 10",
+                StringUtil.addLimit("with w as (select a from t) select a from w", 10));
+    }
+
+    @Test
+    public void addLimitWithoutCap() {
+        assertEquals("select a from t", StringUtil.addLimit("select a from t", 0));
+    }
+
+    @Test
+    public void addLimitSkipsStatementsNotQueries() {
+        String insert = "insert into t select a from u";
+        assertEquals(insert, StringUtil.addLimit(insert, 10));
+        assertEquals("show tables", StringUtil.addLimit("show tables", 10));
+    }
+
+    @Test
+    public void addLimitKeepsExistingLimitAndOffset() {
+        String limited = "select a from t LIMIT 5";
+        assertEquals(limited, StringUtil.addLimit(limited, 10));
+        String offset = "select a from t order by a limit 5 offset 20";
+        assertEquals(offset, StringUtil.addLimit(offset, 10));
+    }
+
+    @Test
+    public void addLimitLooksOnlyAtTopLevelWords() {
+        assertEquals("select * from (select a from t limit 5) x\nLIMIT 10",
+                StringUtil.addLimit("select * from (select a from t limit 5) x", 10));
+        assertEquals("select limit_count, 'limit' from t\nLIMIT 10",
+                StringUtil.addLimit("select limit_count, 'limit' from t", 10));
+    }
+
+    @Test
+    public void addLimitSkipsSetOperators() {
+        String union = "select a from t union all select a from u";
+        assertEquals(union, StringUtil.addLimit(union, 10));
+        String except = "select a from t except select a from u";
+        assertEquals(except, StringUtil.addLimit(except, 10));
+    }
+
+    @Test
+    public void addLimitSkipsLeadingParenthesis() {
+        String wrapped = "(select a from t)";
+        assertEquals(wrapped, StringUtil.addLimit(wrapped, 10));
+        String union = "(select a from t) union (select a from u)";
+        assertEquals(union, StringUtil.addLimit(union, 10));
+    }
+
+    @Test
+    public void addLimitSkipsMultipleStatements() {
+        String statements = "select a from t; select b from u";
+        assertEquals(statements, StringUtil.addLimit(statements, 10));
+    }
+
+    @Test
+    public void addLimitAfterTrailingComment() {
+        assertEquals("select a from t -- all of them\nLIMIT 10",
+                StringUtil.addLimit("select a from t -- all of them", 10));
+        assertEquals("select a from t /* all of them */\nLIMIT 10",
+                StringUtil.addLimit("select a from t /* all of them */", 10));
+        String commented = "select a from t -- limit 5";
+        assertEquals(commented + "\nLIMIT 10", StringUtil.addLimit(commented, 10));
+    }
+
+    @Test
+    public void addLimitReplacesTerminator() {
+        assertEquals("select a from t\nLIMIT 10", StringUtil.addLimit("select a from t;", 10));
+        assertEquals("select a from t \nLIMIT 10", StringUtil.addLimit("select a from t ;;\n", 10));
+        assertEquals("select a from t where b = ';'\nLIMIT 10",
+                StringUtil.addLimit("select a from t where b = ';';", 10));
+    }
+
+    @Test
+    public void fingerprintReplacesLiterals() {
+        assertEquals("select a from t where x=? and y>? and z in(?,?)",
+                StringUtil.getFingerprint("select a from t where x = 'abc' and y > 12.5 and z in (1, 2)"));
+        assertEquals(StringUtil.getFingerprint("select a from t where x = \"q\" and y > 7"),
+                StringUtil.getFingerprint("SELECT a FROM t WHERE x='r s' AND y>8e3"));
+        assertEquals("select a from t where x=?",
+                StringUtil.getFingerprint("select a from t where x = 'it\\'s'"));
+    }
+
+    @Test
+    public void fingerprintKeepsQuotedIdentifiers() {
+        assertEquals("select `A b`.c from `T`", StringUtil.getFingerprint("SELECT `A b`.C FROM `T`"));
+        assertNotEquals(StringUtil.getFingerprint("select a from `t1`"),
+                StringUtil.getFingerprint("select a from `t2`"));
+    }
+
+    @Test
+    public void fingerprintStripsComments() {
+        String sql = "select a from t where x = 1";
+        assertEquals(StringUtil.getFingerprint(sql),
+                StringUtil.getFingerprint("select a -- the column\nfrom t /* table */ where x = 2"));
+        assertEquals(StringUtil.getFingerprint(sql),
+                StringUtil.getFingerprint(sql + "\n" + ImpalaConstants.GS_ANNOTATION + "{\"mem\":\"512\"}"));
+    }
+
+    @Test
+    public void fingerprintReplacesNumericPrefixedTokens() {
+        assertEquals("select ? from t where d>?",
+                StringUtil.getFingerprint("select 1a from t where d > 2017.01e5"));
+        assertEquals("select a_1 from t2", StringUtil.getFingerprint("select a_1 from t2"));
+    }
+
+    @Test
+    public void fingerprintCollapsesWhitespaceAndTerminator() {
+        assertEquals("select a,b from t", StringUtil.getFingerprint("  select\ta ,  b\n from t ;;"));
+        assertEquals(StringUtil.getFingerprint("select a from t"), StringUtil.getFingerprint("select a from t;"));
+    }
+}